@@ -14,6 +14,9 @@ app.use(morgan('combined'));
 const OPENAI_API_KEY = process.env.OPENAI_API_KEY;
 const STABILITY_API_KEY = process.env.STABILITY_API_KEY;
 
+// Clients that explicitly accept image/png get raw bytes instead of the base64 JSON envelope
+const wantsBinary = (req) => (req.get('Accept') || '').includes('image/png');
+
 app.get('/health', (req, res) => {
     res.json({
         status: 'healthy',
@@ -65,6 +68,9 @@ app.post('/api/ai/generate/openai', async (req, res) => {
         const imageData = openaiResponse.data.data[0];
         const imageBase64 = imageData.b64_json;
 
+        if (wantsBinary(req)) {
+            return res.type('image/png').send(Buffer.from(imageBase64, 'base64'));
+        }
 
         res.json({
             success: true,
@@ -94,6 +100,12 @@ app.post('/api/ai/generate/openai', async (req, res) => {
             }
         }
 
+        // Pass the provider's back-off hint through so the backend can honour it
+        const retryAfter = error.response?.headers?.['retry-after'];
+        if (retryAfter) {
+            res.set('Retry-After', retryAfter);
+        }
+
         res.status(statusCode).json({
             error: message,
             type: errorType,
@@ -147,8 +159,11 @@ app.post('/api/ai/generate/stability', async (req, res) => {
             }
         );
 
-        const imageBase64 = Buffer.from(stabilityResponse.data).toString('base64');
+        if (wantsBinary(req)) {
+            return res.type('image/png').send(Buffer.from(stabilityResponse.data));
+        }
 
+        const imageBase64 = Buffer.from(stabilityResponse.data).toString('base64');
 
         res.json({
             success: true,
@@ -176,6 +191,12 @@ app.post('/api/ai/generate/stability', async (req, res) => {
             }
         }
 
+        // Pass the provider's back-off hint through so the backend can honour it
+        const retryAfter = error.response?.headers?.['retry-after'];
+        if (retryAfter) {
+            res.set('Retry-After', retryAfter);
+        }
+
         res.status(statusCode).json({
             error: message,
             type: errorType,
@@ -6,6 +6,9 @@ import { AuthContext } from '../AuthContext';
 import { designsAPI, imagesAPI } from '../services/api';
 import { useNavigate } from 'react-router-dom';
 
+const JOB_POLL_INTERVAL_MS = 2000;
+const JOB_POLL_TIMEOUT_MS = 3 * 60 * 1000;
+
 const GenerationSection = () => {
     const { addDesign } = useContext(DesignContext);
     const { user } = useContext(AuthContext);
@@ -19,6 +22,96 @@ const GenerationSection = () => {
     const [error, setError] = useState('');
     const [success, setSuccess] = useState('');
 
+    // Follows the job's event stream, so waiting costs no database reads; polls only if the stream is unavailable
+    const waitForGenerationJob = async (jobId) => {
+        const deadline = Date.now() + JOB_POLL_TIMEOUT_MS;
+        const controller = new AbortController();
+        const timeout = setTimeout(() => controller.abort(), JOB_POLL_TIMEOUT_MS);
+        try {
+            const event = await designsAPI.streamGenerationJob(jobId, controller.signal);
+            if (event?.type === 'IMAGE_STORED') {
+                return { jobId, designId: event.designId, status: 'COMPLETED', imageUrl: event.imageUrl };
+            }
+            if (event?.type === 'FAILED') {
+                return {
+                    jobId,
+                    designId: event.designId,
+                    status: event.errorType === 'DECLINED' ? 'DECLINED' : 'FAILED',
+                    errorMessage: event.message
+                };
+            }
+        } catch (err) {
+            // Falls back to polling below
+        } finally {
+            clearTimeout(timeout);
+        }
+
+        let job = await designsAPI.getGenerationJob(jobId);
+        while ((job.status === 'PENDING' || job.status === 'PROCESSING') && Date.now() < deadline) {
+            await new Promise(resolve => setTimeout(resolve, JOB_POLL_INTERVAL_MS));
+            job = await designsAPI.getGenerationJob(jobId);
+        }
+        return job;
+    };
+
+    const generateSingle = async () => {
+        let response = await designsAPI.generateDesign(
+            prompt,
+            text || null,
+            aiAgent,
+            theme,
+            variations
+        );
+
+        if (response.jobId) {
+            const job = await waitForGenerationJob(response.jobId);
+            if (job.status === 'FAILED' || job.status === 'DECLINED') {
+                throw new Error(job.errorMessage || 'Ошибка генерации. Попробуйте снова.');
+            }
+            response = { ...response, status: job.status, imageUrl: job.imageUrl };
+        }
+
+        if (response.status === 'PENDING' || response.status === 'PROCESSING') {
+            setSuccess('Генерация дизайна начата! Проверьте "Мой контент" для просмотра.');
+        } else if (response.status === 'COMPLETED' && response.imageUrl) {
+            setSuccess('Дизайн сгенерирован! Добавлен в превью.');
+
+            addDesign({
+                src: response.imageUrl,
+                designId: response.designId
+            });
+        } else {
+            setSuccess('Запрос на дизайн отправлен! Он появится в "Мой контент" когда будет готов.');
+        }
+    };
+
+    const generateVariants = async () => {
+        const responses = await designsAPI.generateDesignVariants(
+            prompt,
+            text || null,
+            aiAgent,
+            theme,
+            variations
+        );
+
+        const jobs = await Promise.all(responses.map(response => waitForGenerationJob(response.jobId)));
+        const completed = jobs.filter(job => job.status === 'COMPLETED' && job.imageUrl);
+        if (completed.length === 0) {
+            const failed = jobs.find(job => job.status === 'FAILED' || job.status === 'DECLINED');
+            if (failed) {
+                throw new Error(failed.errorMessage || 'Ошибка генерации. Попробуйте снова.');
+            }
+            setSuccess('Генерация дизайнов начата! Проверьте "Мой контент" для просмотра.');
+            return;
+        }
+
+        completed.forEach(job => addDesign({
+            src: job.imageUrl,
+            designId: job.designId
+        }));
+        setSuccess(`Сгенерировано вариантов: ${completed.length} из ${jobs.length}. Добавлены в превью.`);
+    };
+
     const handleSubmit = async () => {
         if (!user) {
             setError('Войдите для генерации дизайнов');
@@ -35,25 +128,10 @@ const GenerationSection = () => {
         setSuccess('');
 
         try {
-            const response = await designsAPI.generateDesign(
-                prompt,
-                text || null,
-                aiAgent,
-                theme,
-                variations
-            );
-
-            if (response.status === 'PROCESSING') {
-                setSuccess('Генерация дизайна начата! Проверьте "Мой контент" для просмотра.');
-            } else if (response.status === 'COMPLETED' && response.imageUrl) {
-                setSuccess('Дизайн сгенерирован! Добавлен в превью.');
-
-                addDesign({
-                    src: response.imageUrl,
-                    designId: response.designId
-                });
+            if (variations > 1) {
+                await generateVariants();
             } else {
-                setSuccess('Запрос на дизайн отправлен! Он появится в "Мой контент" когда будет готов.');
+                await generateSingle();
             }
 
             setPrompt('');
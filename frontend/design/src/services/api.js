@@ -259,6 +259,71 @@ export const designsAPI = {
         return response.data;
     },
 
+    generateDesignVariants: async (prompt, text, aiModelId, theme, variations) => {
+        const response = await apiClient.post('/designs/generate/batch', {
+            prompt,
+            text,
+            aiModelId,
+            theme,
+            variations,
+        });
+        return response.data;
+    },
+
+    getGenerationJob: async (jobId) => {
+        const response = await apiClient.get(`/designs/jobs/${jobId}`);
+        return response.data;
+    },
+
+    // Server-Sent Events of a generation job until its final event (IMAGE_STORED or FAILED), which is returned.
+    // Read with fetch rather than EventSource, since EventSource cannot send the Authorization header;
+    // resolves with null if the stream ends early, rejects if it cannot be opened.
+    streamGenerationJob: async (jobId, signal) => {
+        const token = localStorage.getItem('authToken');
+        const response = await fetch(`${API_BASE_URL}/designs/jobs/${jobId}/events`, {
+            headers: {
+                Accept: 'text/event-stream',
+                ...(token ? { Authorization: `Bearer ${token}` } : {}),
+            },
+            signal,
+        });
+        if (!response.ok || !response.body) {
+            throw new Error(`Generation job events are unavailable (${response.status})`);
+        }
+
+        const reader = response.body.getReader();
+        const decoder = new TextDecoder();
+        let buffer = '';
+        try {
+            for (;;) {
+                const { done, value } = await reader.read();
+                if (done) {
+                    return null;
+                }
+                buffer += decoder.decode(value, { stream: true });
+
+                // Events are separated by a blank line; comment frames (keepalives) carry no data
+                const frames = buffer.split(/\r?\n\r?\n/);
+                buffer = frames.pop();
+                for (const frame of frames) {
+                    const data = frame.split(/\r?\n/)
+                        .filter(line => line.startsWith('data:'))
+                        .map(line => line.slice(5).trimStart())
+                        .join('\n');
+                    if (!data) {
+                        continue;
+                    }
+                    const event = JSON.parse(data);
+                    if (event.type === 'IMAGE_STORED' || event.type === 'FAILED') {
+                        return event;
+                    }
+                }
+            }
+        } finally {
+            reader.cancel().catch(() => {});
+        }
+    },
+
     getMyDesigns: async () => {
         const response = await apiClient.get('/designs/my');
         return response.data;
@@ -19,7 +19,8 @@ if [ "${AI_GATEWAY_ENABLED}" = "true" ]; then
     }
 fi
 
-java -Xmx512m -Xms256m -jar app.jar \
+# Direct memory: twice the 256 MB hot image cache, plus the web server's own buffers
+java -Xmx512m -Xms256m -XX:MaxDirectMemorySize=768m -jar app.jar \
     --spring.profiles.active=production \
     --server.port=${SERVER_PORT} \
     > backend.log 2>&1 &
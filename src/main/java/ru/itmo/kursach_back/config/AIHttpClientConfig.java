@@ -0,0 +1,173 @@
+package ru.itmo.kursach_back.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Pooled HTTP clients for AI providers. All provider WebClients share one connection pool
+ * (a pool per remote host, with keep-alive, idle eviction and transport timeouts, negotiating
+ * HTTP/2 with hosts that support it); images fetched from provider CDNs (e.g. the URL returned
+ * by OpenAI when response_format=url) use a separate pool. Pool sizes are exported as
+ * ai.http.pool.* gauges tagged by pool and remote host.
+ */
+@Configuration
+public class AIHttpClientConfig {
+
+    @Value("${ai.http.download.max-connections:32}")
+    private int maxConnections;
+
+    @Value("${ai.http.download.connect-timeout-ms:5000}")
+    private int connectTimeoutMs;
+
+    @Value("${ai.http.download.read-timeout-ms:30000}")
+    private long readTimeoutMs;
+
+    @Value("${ai.http.download.max-idle-ms:30000}")
+    private long maxIdleMs;
+
+    @Value("${ai.http.provider.max-connections-per-host:50}")
+    private int providerMaxConnections;
+
+    @Value("${ai.http.provider.pending-acquire-max-count:200}")
+    private int providerPendingAcquireMaxCount;
+
+    @Value("${ai.http.provider.pending-acquire-timeout-ms:10000}")
+    private long providerPendingAcquireTimeoutMs;
+
+    @Value("${ai.http.provider.max-idle-ms:30000}")
+    private long providerMaxIdleMs;
+
+    @Value("${ai.http.provider.max-life-ms:300000}")
+    private long providerMaxLifeMs;
+
+    @Value("${ai.http.provider.evict-interval-ms:15000}")
+    private long providerEvictIntervalMs;
+
+    @Value("${ai.http.provider.connect-timeout-ms:5000}")
+    private int providerConnectTimeoutMs;
+
+    // Image generation answers only when done, so this bounds a whole generation call
+    @Value("${ai.http.provider.response-timeout-ms:120000}")
+    private long providerResponseTimeoutMs;
+
+    @Value("${ai.http.provider.http2:true}")
+    private boolean providerHttp2;
+
+    @Bean(name = "aiProviderConnectionProvider", destroyMethod = "dispose")
+    public ConnectionProvider aiProviderConnectionProvider(MeterRegistry meterRegistry) {
+        return ConnectionProvider.builder("ai-providers")
+                .maxConnections(providerMaxConnections)
+                .pendingAcquireMaxCount(providerPendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(providerPendingAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(providerMaxIdleMs))
+                .maxLifeTime(Duration.ofMillis(providerMaxLifeMs))
+                .evictInBackground(Duration.ofMillis(providerEvictIntervalMs))
+                .metrics(true, () -> new PoolMeterRegistrar(meterRegistry))
+                .build();
+    }
+
+    /**
+     * Connector shared by every provider WebClient
+     */
+    @Bean(name = "aiProviderHttpConnector")
+    public ClientHttpConnector aiProviderHttpConnector(
+            @Qualifier("aiProviderConnectionProvider") ConnectionProvider connectionProvider) {
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .keepAlive(true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, providerConnectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(providerResponseTimeoutMs));
+        if (providerHttp2) {
+            // HTTP/2 is negotiated over TLS (ALPN); plain-http hosts such as a local gateway stay on HTTP/1.1
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        return new ReactorClientHttpConnector(httpClient);
+    }
+
+    @Bean(name = "imageDownloadWebClient")
+    public WebClient imageDownloadWebClient(MeterRegistry meterRegistry) {
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("ai-image-download")
+                .maxConnections(maxConnections)
+                .maxIdleTime(Duration.ofMillis(maxIdleMs))
+                .pendingAcquireTimeout(Duration.ofMillis(connectTimeoutMs))
+                .metrics(true, () -> new PoolMeterRegistrar(meterRegistry))
+                .build();
+
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(readTimeoutMs))
+                .doOnConnected(connection -> connection.addHandlerLast(
+                        new ReadTimeoutHandler(readTimeoutMs, TimeUnit.MILLISECONDS)));
+
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+    /**
+     * Registers gauges for each per-host pool in the application's registry and removes them
+     * when the pool is disposed
+     */
+    private static final class PoolMeterRegistrar implements ConnectionProvider.MeterRegistrar {
+
+        private final MeterRegistry meterRegistry;
+        private final Map<String, List<Meter>> meters = new ConcurrentHashMap<>();
+
+        PoolMeterRegistrar(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+        }
+
+        @Override
+        public void registerMetrics(String poolName, String id, SocketAddress remoteAddress,
+                                    ConnectionPoolMetrics metrics) {
+            Tags tags = Tags.of("pool", poolName, "remote", remoteAddress.toString());
+            meters.put(id, List.of(
+                    gauge("ai.http.pool.active", "Connections in use", tags, metrics, ConnectionPoolMetrics::acquiredSize),
+                    gauge("ai.http.pool.idle", "Idle connections", tags, metrics, ConnectionPoolMetrics::idleSize),
+                    gauge("ai.http.pool.pending", "Requests waiting for a connection", tags, metrics,
+                            ConnectionPoolMetrics::pendingAcquireSize),
+                    gauge("ai.http.pool.total", "Open connections", tags, metrics, ConnectionPoolMetrics::allocatedSize),
+                    gauge("ai.http.pool.max", "Connection limit", tags, metrics,
+                            ConnectionPoolMetrics::maxAllocatedSize)));
+        }
+
+        @Override
+        public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+            List<Meter> registered = meters.remove(id);
+            if (registered != null) {
+                registered.forEach(meterRegistry::remove);
+            }
+        }
+
+        private Meter gauge(String name, String description, Tags tags, ConnectionPoolMetrics metrics,
+                            ToDoubleFunction<ConnectionPoolMetrics> value) {
+            return Gauge.builder(name, metrics, value)
+                    .description(description)
+                    .tags(tags)
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import ru.itmo.kursach_back.entity.AiModel;
 import ru.itmo.kursach_back.service.AiModelManagementService;
+import ru.itmo.kursach_back.service.ai.AIService;
 
 import java.util.List;
 import java.util.Optional;
@@ -40,11 +41,11 @@ public class AIModelInitializer {
         logger.info("Initializing AI models in database...");
         
         try {
-            insertOrUpdateModel(1, "DALL-E 3", dalle3Url, true);
-            insertOrUpdateModel(2, "DALL-E 2", dalle2Url, true);
-            insertOrUpdateModel(3, "Stable Diffusion 3.5", sd35Url, true);
-            insertOrUpdateModel(4, "Stable Diffusion 3.5 Flash", sd35FlashUrl, true);
-            insertOrUpdateModel(999, "Mock AI Service", mockUrl, true);
+            insertOrUpdateModel(1, "DALL-E 3", dalle3Url, AIService.PROVIDER_OPENAI, true);
+            insertOrUpdateModel(2, "DALL-E 2", dalle2Url, AIService.PROVIDER_OPENAI, true);
+            insertOrUpdateModel(3, "Stable Diffusion 3.5", sd35Url, AIService.PROVIDER_STABILITY, true);
+            insertOrUpdateModel(4, "Stable Diffusion 3.5 Flash", sd35FlashUrl, AIService.PROVIDER_STABILITY, true);
+            insertOrUpdateModel(999, "Mock AI Service", mockUrl, AIService.PROVIDER_MOCK, true);
 
             List<AiModel> activeModels = aiModelManagementService.getActiveModels();
             logger.info("AI models initialized successfully. Total active models: {}", activeModels.size());
@@ -62,15 +63,19 @@ public class AIModelInitializer {
         }
     }
     
-    private void insertOrUpdateModel(Integer modelId, String modelName, String apiEndpoint, Boolean isActive) {
+    private void insertOrUpdateModel(Integer modelId, String modelName, String apiEndpoint, String provider,
+                                     Boolean isActive) {
         try {
             Optional<AiModel> existingModel = aiModelManagementService.getModelById(modelId);
             
             if (existingModel.isPresent()) {
-                AiModel model = existingModel.get();
+                // isActive is left as is, so a model disabled by an admin stays disabled after a restart
+                AiModel model = new AiModel();
                 model.setModelName(modelName);
                 model.setApiEndpoint(apiEndpoint);
-                model.setIsActive(isActive);
+                if (existingModel.get().getProvider() == null) {
+                    model.setProvider(provider);
+                }
                 aiModelManagementService.updateModel(modelId, model);
                 logger.debug("Updated AI model: {} (ID: {})", modelName, modelId);
             } else {
@@ -78,6 +83,7 @@ public class AIModelInitializer {
                 model.setModelId(modelId);
                 model.setModelName(modelName);
                 model.setApiEndpoint(apiEndpoint);
+                model.setProvider(provider);
                 model.setIsActive(isActive);
                 aiModelManagementService.createModel(model);
                 logger.info("Inserted new AI model: {} (ID: {})", modelName, modelId);
@@ -0,0 +1,33 @@
+package ru.itmo.kursach_back.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Bounded worker pool for AI image generation.
+ * Provider calls (including retry backoff) run here instead of on servlet threads.
+ * Work reaches it through GenerationScheduler, which decides the order; the pool only queues dispatch tokens.
+ */
+@Configuration
+public class GenerationExecutorConfig {
+
+    @Value("${ai.generation.worker.threads:4}")
+    private int workerThreads;
+
+    @Value("${ai.generation.worker.queue-capacity:50}")
+    private int queueCapacity;
+
+    @Bean(name = "generationExecutor")
+    public ThreadPoolTaskExecutor generationExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workerThreads);
+        executor.setMaxPoolSize(workerThreads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ai-generation-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
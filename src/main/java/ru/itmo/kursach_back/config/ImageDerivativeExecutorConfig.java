@@ -0,0 +1,32 @@
+package ru.itmo.kursach_back.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Small pool for producing image derivatives (thumbnails) off the request thread.
+ * Derivatives are optional, so work that does not fit the queue is dropped.
+ */
+@Configuration
+public class ImageDerivativeExecutorConfig {
+
+    @Value("${images.derivatives.threads:2}")
+    private int threads;
+
+    @Value("${images.derivatives.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Bean(name = "imageDerivativeExecutor")
+    public ThreadPoolTaskExecutor imageDerivativeExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("image-derivative-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
@@ -0,0 +1,66 @@
+package ru.itmo.kursach_back.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.itmo.kursach_back.service.storage.ImageStorage;
+import ru.itmo.kursach_back.service.storage.LocalImageStorage;
+import ru.itmo.kursach_back.service.storage.S3ImageStorage;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * Image storage backend selected by images.storage.backend: "local" (a directory, default) or
+ * "s3" (an S3-compatible bucket, needed when several nodes do not share a volume)
+ */
+@Configuration
+public class ImageStorageConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageStorageConfig.class);
+
+    @Value("${images.storage.backend:local}")
+    private String backend;
+
+    @Value("${images.storage.local.root:uploads/images}")
+    private String localRoot;
+
+    @Value("${images.storage.s3.endpoint:http://localhost:9000}")
+    private String s3Endpoint;
+
+    @Value("${images.storage.s3.region:us-east-1}")
+    private String s3Region;
+
+    @Value("${images.storage.s3.bucket:}")
+    private String s3Bucket;
+
+    @Value("${images.storage.s3.access-key:}")
+    private String s3AccessKey;
+
+    @Value("${images.storage.s3.secret-key:}")
+    private String s3SecretKey;
+
+    @Value("${images.storage.s3.path-style:true}")
+    private boolean s3PathStyle;
+
+    @Value("${images.storage.s3.connect-timeout-ms:5000}")
+    private long s3ConnectTimeoutMs;
+
+    @Value("${images.storage.s3.request-timeout-ms:30000}")
+    private long s3RequestTimeoutMs;
+
+    @Bean
+    public ImageStorage imageStorage() {
+        ImageStorage storage = switch (backend.trim().toLowerCase()) {
+            case ImageStorage.BACKEND_LOCAL -> new LocalImageStorage(Paths.get(localRoot));
+            case ImageStorage.BACKEND_S3 -> new S3ImageStorage(s3Endpoint, s3Region, s3Bucket, s3AccessKey,
+                    s3SecretKey, s3PathStyle, Duration.ofMillis(s3ConnectTimeoutMs),
+                    Duration.ofMillis(s3RequestTimeoutMs));
+            default -> throw new IllegalArgumentException("Unknown images.storage.backend: " + backend);
+        };
+        logger.info("Image storage backend: {}", storage.getBackendKey());
+        return storage;
+    }
+}
@@ -77,12 +77,19 @@ public class SecurityConfig {
                         .requestMatchers("/api/designs/*/image").permitAll()
                         .requestMatchers("/api/designs/popular").permitAll()
                         .requestMatchers(HttpMethod.POST, "/api/designs/generate").permitAll()
+                        .requestMatchers(HttpMethod.POST, "/api/designs/generate/await").permitAll()
+                        .requestMatchers(HttpMethod.POST, "/api/designs/generate/batch").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/api/designs/jobs/*").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/api/designs/jobs/*/events").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/api/designs/*/events").permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/designs/themes").permitAll()
 
                         // Countries - public
                         .requestMatchers("/api/addresses/countries").permitAll()
 
-                        // Actuator - public
+                        // Actuator - health and info public, metrics for admins only
+                        .requestMatchers("/actuator/metrics", "/actuator/metrics/**", "/actuator/prometheus")
+                                .hasAuthority("ADMIN")
                         .requestMatchers("/actuator/**").permitAll()
 
                         // Cart - requires authentication (explicit)
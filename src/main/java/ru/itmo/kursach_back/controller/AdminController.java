@@ -162,6 +162,7 @@ public class AdminController {
         AiModel model = new AiModel();
         model.setModelName(request.getModelName());
         model.setApiEndpoint(request.getApiEndpoint());
+        model.setProvider(request.getProvider());
         model.setIsActive(request.getIsActive());
 
         AiModel created = aiModelManagementService.createModel(model);
@@ -176,6 +177,7 @@ public class AdminController {
             AiModel model = new AiModel();
             model.setModelName(request.getModelName());
             model.setApiEndpoint(request.getApiEndpoint());
+            model.setProvider(request.getProvider());
             model.setIsActive(request.getIsActive());
 
             AiModel updated = aiModelManagementService.updateModel(modelId, model);
@@ -1,15 +1,28 @@
 package ru.itmo.kursach_back.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import ru.itmo.kursach_back.dto.request.GenerateDesignRequestDto;
 import ru.itmo.kursach_back.dto.response.DesignResponseDto;
+import ru.itmo.kursach_back.dto.response.GenerationEventDto;
+import ru.itmo.kursach_back.dto.response.GenerationJobResponseDto;
 import ru.itmo.kursach_back.service.DesignService;
+import ru.itmo.kursach_back.service.StoredImage;
+import ru.itmo.kursach_back.util.GenerationEventType;
+import ru.itmo.kursach_back.util.ImageResponses;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -19,17 +32,110 @@ import java.util.Map;
 public class DesignController {
     private final DesignService designService;
 
+    // Comment frames keep idle event streams open through proxies
+    @Value("${ai.generation.events.heartbeat-ms:15000}")
+    private long eventHeartbeatMs;
+
         @PostMapping("/generate")
     public ResponseEntity<?> generateDesign(@Valid @RequestBody GenerateDesignRequestDto request) {
         try {
             DesignResponseDto response = designService.generateDesign(request);
-            return ResponseEntity.ok(response);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Generation queue is full, try again later");
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error generating design: " + e.getMessage());
         }
     }
 
+    /**
+     * Generate several variants of one prompt (request.variations, capped by configuration).
+     * Answers immediately with one PENDING design per variant; poll each jobId like /generate.
+     */
+    @PostMapping("/generate/batch")
+    public ResponseEntity<?> generateDesignVariants(@Valid @RequestBody GenerateDesignRequestDto request) {
+        try {
+            List<DesignResponseDto> response = designService.generateDesignVariants(request);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Generation queue is full, try again later");
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error generating design variants: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Generate and answer with the finished design in the same request.
+     * The request is processed asynchronously, so no servlet thread waits on the provider.
+     */
+    @PostMapping("/generate/await")
+    public Mono<ResponseEntity<?>> generateDesignAndAwait(@Valid @RequestBody GenerateDesignRequestDto request) {
+        // Deferred, so failures before the generation starts (e.g. a full queue) are answered below too
+        return Mono.defer(() -> designService.generateDesignAsync(request))
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .onErrorResume(TaskRejectedException.class, e -> Mono.just(
+                        ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                                .body("Generation queue is full, try again later")))
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body("Error generating design: " + e.getMessage())));
+    }
+
+    /**
+     * Poll the status of a generation job returned by /generate
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<?> getGenerationJob(@PathVariable Integer jobId) {
+        try {
+            GenerationJobResponseDto job = designService.getGenerationJob(jobId);
+            return ResponseEntity.ok(job);
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(e.getMessage());
+        }
+    }
+
+    /**
+     * Server-Sent Events for a generation job: its current state, then queued, provider selected,
+     * attempt n, image stored or failed. The stream ends after the final event.
+     */
+    @GetMapping(value = "/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<GenerationEventDto>>> streamGenerationJobEvents(
+            @PathVariable Integer jobId) {
+        try {
+            return ResponseEntity.ok(toServerSentEvents(designService.streamGenerationJobEvents(jobId)));
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Same as /jobs/{jobId}/events for the latest generation job of a design
+     */
+    @GetMapping(value = "/{designId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<GenerationEventDto>>> streamDesignEvents(
+            @PathVariable Integer designId) {
+        try {
+            return ResponseEntity.ok(toServerSentEvents(designService.streamDesignEvents(designId)));
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    private Flux<ServerSentEvent<GenerationEventDto>> toServerSentEvents(Flux<GenerationEventDto> events) {
+        Flux<ServerSentEvent<GenerationEventDto>> heartbeats = Flux.interval(Duration.ofMillis(eventHeartbeatMs))
+                .map(tick -> ServerSentEvent.<GenerationEventDto>builder().comment("keepalive").build());
+
+        return events
+                .map(event -> ServerSentEvent.builder(event).event(event.getType()).build())
+                .mergeWith(heartbeats)
+                .takeUntil(sse -> sse.data() != null
+                        && GenerationEventType.valueOf(sse.data().getType()).isTerminal());
+    }
+
         @GetMapping("/my")
     @PreAuthorize("isAuthenticated()")
     public ResponseEntity<?> getMyDesigns() {
@@ -85,25 +191,15 @@ public class DesignController {
     }
 
         @GetMapping("/{designId}/image")
-    public ResponseEntity<?> getDesignImage(@PathVariable Integer designId) {
+    public ResponseEntity<?> getDesignImage(@PathVariable Integer designId,
+                                            @RequestParam(value = "w", required = false) Integer width,
+                                            HttpServletRequest request) {
         try {
-            byte[] imageBytes = designService.getDesignImage(designId);
-            if (imageBytes == null) {
+            StoredImage image = designService.getDesignImage(designId, width);
+            if (image == null) {
                 return ResponseEntity.notFound().build();
             }
-
-            org.springframework.http.MediaType contentType = org.springframework.http.MediaType.IMAGE_PNG;
-            if (imageBytes.length > 1) {
-                if (imageBytes[0] == (byte)0xFF && imageBytes[1] == (byte)0xD8) {
-                    contentType = org.springframework.http.MediaType.IMAGE_JPEG;
-                } else if (imageBytes[0] == (byte)0x89 && imageBytes[1] == (byte)0x50) {
-                    contentType = org.springframework.http.MediaType.IMAGE_PNG;
-                }
-            }
-
-            return ResponseEntity.ok()
-                    .contentType(contentType)
-                    .body(imageBytes);
+            return ImageResponses.file(image, request, false, designService::getImageBody);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(("Error retrieving design image: " + e.getMessage()).getBytes());
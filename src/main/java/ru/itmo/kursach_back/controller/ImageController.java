@@ -1,5 +1,6 @@
 package ru.itmo.kursach_back.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -10,6 +11,8 @@ import org.springframework.web.multipart.MultipartFile;
 import ru.itmo.kursach_back.entity.ImageData;
 import ru.itmo.kursach_back.entity.User;
 import ru.itmo.kursach_back.service.ImageService;
+import ru.itmo.kursach_back.service.StoredImage;
+import ru.itmo.kursach_back.util.ImageResponses;
 
 import java.util.HashMap;
 import java.util.List;
@@ -135,30 +138,20 @@ public class ImageController {
     }
 
     @GetMapping("/{imageId}/file")
-    public ResponseEntity<?> getImageFile(@PathVariable Integer imageId) {
+    public ResponseEntity<?> getImageFile(@PathVariable Integer imageId,
+                                          @RequestParam(value = "w", required = false) Integer width,
+                                          HttpServletRequest request) {
         try {
 
-            byte[] imageBytes = imageService.getImageFile(imageId);
+            StoredImage image = imageService.getImageFile(imageId, width);
 
-            if (imageBytes == null) {
+            if (image == null) {
                 return ResponseEntity.notFound().build();
             }
 
-            MediaType contentType = MediaType.IMAGE_PNG;
-            if (imageBytes.length > 1) {
-
-                if (imageBytes[0] == (byte)0xFF && imageBytes[1] == (byte)0xD8) {
-                    contentType = MediaType.IMAGE_JPEG;
-                } else if (imageBytes[0] == (byte)0x89 && imageBytes[1] == (byte)0x50) {
-                    contentType = MediaType.IMAGE_PNG;
-                } else if (imageBytes[0] == (byte)0x47 && imageBytes[1] == (byte)0x49) {
-                    contentType = MediaType.IMAGE_GIF;
-                }
-            }
-
-            return ResponseEntity.ok()
-                    .contentType(contentType)
-                    .body(imageBytes);
+            // The original stands in for a derivative not produced yet; the URL serves it later
+            boolean immutable = width == null || image.width() != null;
+            return ImageResponses.file(image, request, immutable, imageService::getImageBody);
 
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
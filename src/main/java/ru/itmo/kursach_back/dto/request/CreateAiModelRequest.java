@@ -17,6 +17,9 @@ public class CreateAiModelRequest {
     @Size(max = 500, message = "Description must be less than 500 characters")
     private String description;
 
+    @Size(max = 50, message = "Provider must be less than 50 characters")
+    private String provider;
+
     private Boolean isActive = true;
 }
 
@@ -10,11 +10,13 @@ import lombok.NoArgsConstructor;
 public class DesignResponseDto {
     private Integer designId;
     private String imageUrl;
+    private String thumbnailUrl; // Downscaled image for galleries
     private String prompt;
     private String text; // Text included in design
     private String theme; // Design theme
     private Integer aiModelId; // AI model used
-    private String status; // PROCESSING, COMPLETED, FAILED
+    private String status; // PENDING, PROCESSING, COMPLETED, FAILED, DECLINED
+    private Integer jobId; // Generation job to poll while the image is not ready
     private Integer userId;
     private String ownerUsername; // Owner's username (for public gallery)
     private Boolean isPublic; // Visibility status
@@ -0,0 +1,20 @@
+package ru.itmo.kursach_back.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class GenerationEventDto {
+    private Integer jobId;
+    private Integer designId;
+    private String type; // QUEUED, PROCESSING, PROVIDER_SELECTED, ATTEMPT, ATTEMPT_FAILED, IMAGE_STORED, FAILED
+    private String provider;
+    private Integer attempt;
+    private String errorType;
+    private String message;
+    private String imageUrl;
+    private String timestamp;
+}
@@ -0,0 +1,18 @@
+package ru.itmo.kursach_back.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GenerationJobResponseDto {
+    private Integer jobId;
+    private Integer designId;
+    private String status; // PENDING, PROCESSING, COMPLETED, FAILED, DECLINED
+    private String imageUrl;
+    private String errorMessage;
+    private String requestedAt;
+    private String completedAt;
+}
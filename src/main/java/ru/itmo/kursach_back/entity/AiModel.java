@@ -29,6 +29,11 @@ public class AiModel {
     @Column(name = "api_endpoint", nullable = false, unique = true)
     String apiEndpoint;
 
+    // Provider family serving this model (openai, stability, mock); inferred from apiEndpoint when empty
+    @Size(max = 50)
+    @Column(name = "provider", length = 50)
+    String provider;
+
     @NotNull
     @Column(name = "is_active", nullable = false)
     Boolean isActive;
@@ -8,7 +8,8 @@ import ru.itmo.kursach_back.util.GenerationStatus;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "generation_requests")
+@Table(name = "generation_requests",
+        indexes = @Index(name = "idx_generation_requests_queue", columnList = "status, priority, requested_at"))
 @Data
 public class GenerationRequest {
     @Id
@@ -48,6 +49,31 @@ public class GenerationRequest {
     @Column(name = "completed_at")
     LocalDateTime completedAt;
 
+    @Column(name = "error_message", columnDefinition = "TEXT")
+    String errorMessage;
+
+    // Fair-share class of the requester (GenerationScheduler.PriorityClass ordinal, lower is claimed first)
+    @Column(name = "priority")
+    Integer priority;
+
+    @Column(name = "requester_key", length = 100)
+    String requesterKey;
+
+    // Variants of one batch request share a key and are generated together when claimed together
+    @Column(name = "batch_key", length = 36)
+    String batchKey;
+
+    // Node working on the job and until when (database clock, UTC); GenerationQueue recovers jobs
+    // whose lease expired
+    @Column(name = "lease_owner", length = 100)
+    String leaseOwner;
+
+    @Column(name = "lease_expires_at")
+    LocalDateTime leaseExpiresAt;
+
+    @Column(name = "attempts")
+    Integer attempts = 0;
+
     @ManyToOne
     @JoinColumn(name = "user_id", insertable = false, updatable = false)
     User user;
@@ -0,0 +1,44 @@
+package ru.itmo.kursach_back.entity;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Stored image content, keyed by the SHA-256 of its bytes and shared by every ImageData with that content
+ */
+@Entity
+@Table(name = "image_blobs")
+@Data
+public class ImageBlob {
+    @Id
+    @Size(max = 64)
+    @Column(name = "content_hash", length = 64)
+    String contentHash;
+
+    @Size(max = 255)
+    @NotNull
+    @Column(name = "storage_path", nullable = false)
+    String storagePath;
+
+    @NotNull
+    @Column(nullable = false)
+    Long size;
+
+    @Size(max = 50)
+    @NotNull
+    @Column(name = "mime_type", nullable = false)
+    String mimeType;
+
+    // Number of ImageData rows using this blob; the file is deleted when it drops to zero
+    @NotNull
+    @Column(name = "ref_count", nullable = false)
+    Integer refCount = 0;
+
+    @NotNull
+    @Column(name = "created_at", nullable = false)
+    LocalDateTime createdAt = LocalDateTime.now();
+}
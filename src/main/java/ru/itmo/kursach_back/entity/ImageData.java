@@ -52,6 +52,11 @@ public class ImageData {
     @Column(name = "storage_path", nullable = false)
     String storagePath;
 
+    // SHA-256 of the content: the ImageBlob holding the file. Null for images stored before deduplication.
+    @Size(max = 64)
+    @Column(name = "content_hash", length = 64)
+    String contentHash;
+
     @NotNull
     @Column(name = "created_at", nullable = false)
     LocalDateTime createdAt = LocalDateTime.now();
@@ -0,0 +1,53 @@
+package ru.itmo.kursach_back.entity;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * A downscaled copy of an image blob, served for {@code ?w=} requests
+ */
+@Entity
+@Table(name = "image_derivatives",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"content_hash", "width"}))
+@Data
+public class ImageDerivative {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "derivative_id")
+    Integer derivativeId;
+
+    @Size(max = 64)
+    @NotNull
+    @Column(name = "content_hash", nullable = false, length = 64)
+    String contentHash;
+
+    @NotNull
+    @Column(nullable = false)
+    Integer width;
+
+    @NotNull
+    @Column(nullable = false)
+    Integer height;
+
+    @Size(max = 50)
+    @NotNull
+    @Column(name = "mime_type", nullable = false)
+    String mimeType;
+
+    @NotNull
+    @Column(nullable = false)
+    Long size;
+
+    @Size(max = 255)
+    @NotNull
+    @Column(name = "storage_path", nullable = false)
+    String storagePath;
+
+    @NotNull
+    @Column(name = "created_at", nullable = false)
+    LocalDateTime createdAt = LocalDateTime.now();
+}
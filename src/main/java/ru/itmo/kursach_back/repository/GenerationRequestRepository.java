@@ -0,0 +1,124 @@
+package ru.itmo.kursach_back.repository;
+
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.itmo.kursach_back.entity.GenerationRequest;
+import ru.itmo.kursach_back.util.GenerationStatus;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface GenerationRequestRepository extends JpaRepository<GenerationRequest, Integer> {
+
+    // Lock timeout -2 renders as SKIP LOCKED: rows locked by another node's claim are passed over, not waited on
+    String SKIP_LOCKED = "-2";
+
+    Optional<GenerationRequest> findFirstByResultDesignIdOrderByRequestedAtDesc(Integer resultDesignId);
+
+    /**
+     * Latest job of each of the designs, in one query for design listings
+     */
+    @Query("SELECT g FROM GenerationRequest g WHERE g.resultDesignId IN :designIds AND g.requestedAt = "
+            + "(SELECT MAX(l.requestedAt) FROM GenerationRequest l WHERE l.resultDesignId = g.resultDesignId)")
+    List<GenerationRequest> findLatestByResultDesignIds(@Param("designIds") Collection<Integer> designIds);
+
+    long countByStatus(GenerationStatus status);
+
+    long countByStatusAndPriority(GenerationStatus status, Integer priority);
+
+    @Modifying
+    @Query("UPDATE GenerationRequest g SET g.resultDesignId = null WHERE g.resultDesignId = :designId")
+    int detachFromDesign(@Param("designId") Integer designId);
+
+    /**
+     * Next jobs to claim: highest priority first, then oldest (SELECT ... FOR UPDATE SKIP LOCKED)
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = SKIP_LOCKED))
+    @Query("SELECT g FROM GenerationRequest g WHERE g.status = :status " +
+            "ORDER BY g.priority ASC NULLS LAST, g.requestedAt ASC, g.requestId ASC")
+    List<GenerationRequest> lockNext(@Param("status") GenerationStatus status, Pageable pageable);
+
+    /**
+     * Newest jobs of the lowest priority below {@code priority}, to be shed for higher-priority work
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = SKIP_LOCKED))
+    @Query("SELECT g FROM GenerationRequest g WHERE g.status = :status AND g.priority > :priority " +
+            "ORDER BY g.priority DESC, g.requestedAt DESC, g.requestId DESC")
+    List<GenerationRequest> lockNewestBelow(@Param("status") GenerationStatus status,
+                                            @Param("priority") Integer priority,
+                                            Pageable pageable);
+
+    // Lease times come from the database clock (in UTC), so nodes with skewed clocks agree on expiry
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE tiishka_generation_requests " +
+            "SET lease_expires_at = (now() AT TIME ZONE 'UTC') + INTERVAL '1 millisecond' * :leaseMs " +
+            "WHERE request_id IN (:ids) AND lease_owner = :owner AND status = :status", nativeQuery = true)
+    int extendLeases(@Param("ids") Collection<Integer> ids,
+                     @Param("owner") String owner,
+                     @Param("status") String status,
+                     @Param("leaseMs") long leaseMs);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE tiishka_generation_requests " +
+            "SET status = :pending, lease_owner = NULL, lease_expires_at = NULL " +
+            "WHERE status = :processing AND lease_expires_at < (now() AT TIME ZONE 'UTC') " +
+            "AND COALESCE(attempts, 0) < :maxAttempts", nativeQuery = true)
+    int requeueExpiredLeases(@Param("processing") String processing,
+                             @Param("pending") String pending,
+                             @Param("maxAttempts") int maxAttempts);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE tiishka_generation_requests " +
+            "SET status = :failed, error_message = :message, completed_at = :completedAt, " +
+            "lease_owner = NULL, lease_expires_at = NULL " +
+            "WHERE status = :processing AND lease_expires_at < (now() AT TIME ZONE 'UTC') " +
+            "AND COALESCE(attempts, 0) >= :maxAttempts", nativeQuery = true)
+    int failExpiredLeases(@Param("processing") String processing,
+                          @Param("failed") String failed,
+                          @Param("completedAt") LocalDateTime completedAt,
+                          @Param("maxAttempts") int maxAttempts,
+                          @Param("message") String message);
+
+    /**
+     * Final state of a job, recorded only while {@code owner} still holds its lease: once the job
+     * was recovered by another node, this run's outcome is dropped
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE GenerationRequest g SET g.status = :status, g.errorMessage = :message, " +
+            "g.completedAt = :completedAt, g.leaseOwner = null, g.leaseExpiresAt = null " +
+            "WHERE g.requestId = :id AND g.leaseOwner = :owner AND g.status = :processing")
+    int finishLease(@Param("id") Integer id,
+                    @Param("owner") String owner,
+                    @Param("processing") GenerationStatus processing,
+                    @Param("status") GenerationStatus status,
+                    @Param("message") String message,
+                    @Param("completedAt") LocalDateTime completedAt);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE GenerationRequest g SET g.status = :pending, g.leaseOwner = null, g.leaseExpiresAt = null " +
+            "WHERE g.requestId IN :ids AND g.leaseOwner = :owner AND g.status = :processing")
+    int requeueLeases(@Param("ids") Collection<Integer> ids,
+                      @Param("owner") String owner,
+                      @Param("processing") GenerationStatus processing,
+                      @Param("pending") GenerationStatus pending);
+}
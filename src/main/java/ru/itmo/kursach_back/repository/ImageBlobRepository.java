@@ -0,0 +1,47 @@
+package ru.itmo.kursach_back.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.itmo.kursach_back.entity.ImageBlob;
+
+import java.util.List;
+
+@Repository
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+
+    /**
+     * Locks the hash until the surrounding transaction ends, whether or not its blob row exists, so
+     * storing, releasing and moving the same content are serialized across all nodes
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "SELECT COUNT(*) FROM pg_advisory_xact_lock(hashtext(:hash))", nativeQuery = true)
+    long lockHash(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImageBlob b SET b.refCount = b.refCount + 1 WHERE b.contentHash = :hash")
+    int addReference(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImageBlob b SET b.refCount = b.refCount - 1 WHERE b.contentHash = :hash AND b.refCount > 0")
+    int removeReference(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM ImageBlob b WHERE b.contentHash = :hash AND b.refCount <= 0")
+    int deleteIfUnreferenced(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImageBlob b SET b.storagePath = :path WHERE b.contentHash = :hash")
+    int updateStoragePath(@Param("hash") String hash, @Param("path") String path);
+
+    List<ImageBlob> findByStoragePathStartingWith(String prefix, Pageable pageable);
+}
@@ -1,6 +1,11 @@
 package ru.itmo.kursach_back.repository;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.itmo.kursach_back.entity.ImageData;
 
 import java.util.List;
@@ -9,4 +14,16 @@ public interface ImageDataRepository<T, ID> extends CrudRepository<ImageData, In
     List<ImageData> findByUploaderId(Integer uploaderId);
     List<ImageData> findByIsPublicTrue();
     List<ImageData> findByIsPublicTrueOrderByCreatedAtDesc();
+    List<ImageData> findByContentHashIsNullAndStoragePathStartingWith(String prefix, Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImageData i SET i.storagePath = :path WHERE i.contentHash = :hash")
+    int updateStoragePathByContentHash(@Param("hash") String hash, @Param("path") String path);
+
+    // Only images not yet in the blob store, so a concurrent delete or migration is never overwritten
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImageData i SET i.contentHash = :hash, i.storagePath = :path WHERE i.imgdId = :id AND i.contentHash IS NULL")
+    int attachBlob(@Param("id") Integer id, @Param("hash") String hash, @Param("path") String path);
 }
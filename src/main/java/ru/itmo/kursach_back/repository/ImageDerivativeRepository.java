@@ -0,0 +1,28 @@
+package ru.itmo.kursach_back.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.itmo.kursach_back.entity.ImageDerivative;
+
+import java.util.List;
+
+@Repository
+public interface ImageDerivativeRepository extends JpaRepository<ImageDerivative, Integer> {
+
+    List<ImageDerivative> findByContentHashOrderByWidthAsc(String contentHash);
+
+    List<ImageDerivative> findByStoragePathStartingWith(String prefix, Pageable pageable);
+
+    @Transactional
+    long deleteByContentHash(String contentHash);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImageDerivative d SET d.storagePath = :path WHERE d.derivativeId = :id")
+    int updateStoragePath(@Param("id") Integer id, @Param("path") String path);
+}
@@ -1,6 +1,7 @@
 package ru.itmo.kursach_back.service;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.itmo.kursach_back.entity.AiModel;
@@ -14,6 +15,13 @@ import java.util.Optional;
 public class AiModelManagementService {
 
     private final AiModelRepository aiModelRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Published after any change to ai_models; AIServiceFactory rebuilds its routing table once the transaction commits
+     */
+    public record AiModelsChangedEvent(Integer modelId) {
+    }
 
         public List<AiModel> getAllModels() {
         return aiModelRepository.findAllByOrderByModelNameAsc();
@@ -29,7 +37,9 @@ public class AiModelManagementService {
 
         @Transactional
     public AiModel createModel(AiModel model) {
-        return aiModelRepository.save(model);
+        AiModel created = aiModelRepository.save(model);
+        eventPublisher.publishEvent(new AiModelsChangedEvent(created.getModelId()));
+        return created;
     }
 
         @Transactional
@@ -43,16 +53,22 @@ public class AiModelManagementService {
         if (updatedModel.getApiEndpoint() != null) {
             model.setApiEndpoint(updatedModel.getApiEndpoint());
         }
+        if (updatedModel.getProvider() != null) {
+            model.setProvider(updatedModel.getProvider());
+        }
         if (updatedModel.getIsActive() != null) {
             model.setIsActive(updatedModel.getIsActive());
         }
 
-        return aiModelRepository.save(model);
+        AiModel saved = aiModelRepository.save(model);
+        eventPublisher.publishEvent(new AiModelsChangedEvent(modelId));
+        return saved;
     }
 
         @Transactional
     public void deleteModel(Integer modelId) {
         aiModelRepository.deleteById(modelId);
+        eventPublisher.publishEvent(new AiModelsChangedEvent(modelId));
     }
 
     @Transactional
@@ -62,7 +78,9 @@ public class AiModelManagementService {
 
         model.setIsActive(!model.getIsActive());
 
-        return aiModelRepository.save(model);
+        AiModel saved = aiModelRepository.save(model);
+        eventPublisher.publishEvent(new AiModelsChangedEvent(modelId));
+        return saved;
     }
 }
 
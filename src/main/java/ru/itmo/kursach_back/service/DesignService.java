@@ -1,24 +1,33 @@
 package ru.itmo.kursach_back.service;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import ru.itmo.kursach_back.dto.request.GenerateDesignRequestDto;
 import ru.itmo.kursach_back.dto.response.DesignResponseDto;
+import ru.itmo.kursach_back.dto.response.GenerationEventDto;
+import ru.itmo.kursach_back.dto.response.GenerationJobResponseDto;
 import ru.itmo.kursach_back.entity.Design;
+import ru.itmo.kursach_back.entity.GenerationRequest;
 import ru.itmo.kursach_back.entity.GenerationTheme;
 import ru.itmo.kursach_back.entity.User;
 import ru.itmo.kursach_back.repository.DesignRepository;
+import ru.itmo.kursach_back.repository.GenerationRequestRepository;
 import ru.itmo.kursach_back.repository.GenerationThemeRepository;
-import ru.itmo.kursach_back.service.ai.AIService;
-import ru.itmo.kursach_back.service.ai.AIServiceFactory;
+import ru.itmo.kursach_back.util.AppConstants;
+import ru.itmo.kursach_back.util.GenerationStatus;
 
-import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 @Service
@@ -29,114 +38,192 @@ public class DesignService {
     private final GenerationThemeRepository themeRepository;
     private final AuthService authService;
     private final ImageService imageService;
-    private final AIServiceFactory aiServiceFactory;
+    private final GenerationJobService generationJobService;
+    private final GenerationCacheService generationCacheService;
+    private final GenerationRequestRepository generationRequestRepository;
+    private final PromptTemplateService promptTemplateService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${ai.generation.batch.default-variants:4}")
+    private int defaultVariants;
+
+    @Value("${ai.generation.batch.max-variants:4}")
+    private int maxVariants;
 
-    @Transactional
     public DesignResponseDto generateDesign(GenerateDesignRequestDto request) {
         User currentUser = authService.getCurrentUser();
         Integer ownerId = currentUser != null ? currentUser.getUserId() : null;
 
-        Design design = new Design();
-        design.setOwnerId(ownerId);
-        design.setOriginalPrompt(request.getPrompt());
-        design.setModelId(request.getAiModelId());
-        design.setIsAiGenerated(true);
-        design.setCreatedAt(LocalDateTime.now());
-        design.setModifiedAt(LocalDateTime.now());
-        // Anonymous generated designs are public by default
-        design.setIsPublic(ownerId == null);
+        Map<String, Object> params = buildGenerationParameters(request);
+        String fullPrompt = buildFullPrompt(request, params);
 
-        design = designRepository.save(design);
+        Integer cachedImageId = findCachedImage(fullPrompt, request.getAiModelId(), params, ownerId);
+        Design design = designRepository.save(newGeneratedDesign(request, ownerId, cachedImageId));
 
+        if (cachedImageId != null) {
+            return toGenerationResponse(design, request, GenerationStatus.COMPLETED, null);
+        }
+
+        GenerationRequest job;
         try {
+            job = generationJobService.submit(design, fullPrompt, params);
+        } catch (RuntimeException e) {
+            discardDesigns(List.of(design), e);
+            throw e;
+        }
+        return toGenerationResponse(design, request, job.getStatus(), job.getRequestId());
+    }
 
-            AIService aiService = aiServiceFactory.getService(request.getAiModelId());
+    /**
+     * Generates several variants of one prompt in one request. Each variant gets its own design and job;
+     * the cache is skipped because the caller explicitly wants fresh, different images.
+     */
+    public List<DesignResponseDto> generateDesignVariants(GenerateDesignRequestDto request) {
+        User currentUser = authService.getCurrentUser();
+        Integer ownerId = currentUser != null ? currentUser.getUserId() : null;
 
-            java.util.Map<String, Object> params = new java.util.HashMap<>();
-            params.put("size", "1024x1024");
-            params.put("quality", "standard");
+        int count = request.getVariations() != null ? request.getVariations() : defaultVariants;
+        count = Math.max(1, Math.min(count, maxVariants));
 
-            String fullPrompt = request.getPrompt();
-            if (request.getText() != null && !request.getText().isEmpty()) {
-                fullPrompt += " with text: \"" + request.getText() + "\"";
-            }
-            if (request.getTheme() != null) {
-                fullPrompt += " in " + request.getTheme().toLowerCase() + " style";
-            }
+        Map<String, Object> params = buildGenerationParameters(request);
+        String fullPrompt = buildFullPrompt(request, params);
 
-            byte[] imageBytes = aiService.generateImage(fullPrompt, params);
+        List<Design> designs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            designs.add(newGeneratedDesign(request, ownerId, null));
+        }
+        designs = designRepository.saveAll(designs);
 
-            org.springframework.web.multipart.MultipartFile mockFile = createMultipartFile(imageBytes, "generated-" + design.getDesignId() + ".png");
-            ru.itmo.kursach_back.entity.ImageData savedImage = imageService.saveImage(
-                mockFile,
-                ownerId,
-                "AI Generated: " + request.getPrompt().substring(0, Math.min(50, request.getPrompt().length())),
-                "Generated by " + aiService.getServiceName()
-            );
+        List<GenerationRequest> jobs;
+        try {
+            jobs = generationJobService.submitBatch(designs, fullPrompt, params);
+        } catch (RuntimeException e) {
+            discardDesigns(designs, e);
+            throw e;
+        }
 
-            design.setImageId(savedImage.getImgdId());
-            design.setModifiedAt(LocalDateTime.now());
-            design = designRepository.save(design);
+        List<DesignResponseDto> responses = new ArrayList<>();
+        for (int i = 0; i < designs.size(); i++) {
+            GenerationRequest job = jobs.get(i);
+            responses.add(toGenerationResponse(designs.get(i), request, job.getStatus(), job.getRequestId()));
+        }
+        return responses;
+    }
 
-            DesignResponseDto response = convertToDto(design);
-            response.setStatus("COMPLETED");
-            response.setPrompt(request.getPrompt());
-            response.setText(request.getText());
-            response.setTheme(request.getTheme());
-            response.setAiModelId(request.getAiModelId());
+    /**
+     * Generates within the request without holding a thread while the provider works.
+     * The security context and JPA are thread-bound, so the quick setup runs on the calling thread.
+     */
+    public Mono<DesignResponseDto> generateDesignAsync(GenerateDesignRequestDto request) {
+        User currentUser = authService.getCurrentUser();
+        Integer ownerId = currentUser != null ? currentUser.getUserId() : null;
 
-            return response;
+        Map<String, Object> params = buildGenerationParameters(request);
+        String fullPrompt = buildFullPrompt(request, params);
 
-        } catch (Exception e) {
+        Integer cachedImageId = findCachedImage(fullPrompt, request.getAiModelId(), params, ownerId);
+        Design design = designRepository.save(newGeneratedDesign(request, ownerId, cachedImageId));
 
-            DesignResponseDto response = convertToDto(design);
-            response.setStatus("FAILED");
-            response.setPrompt(request.getPrompt());
-            response.setText(request.getText());
-            response.setTheme(request.getTheme());
-            response.setAiModelId(request.getAiModelId());
-            response.setImageUrl(null);
+        if (cachedImageId != null) {
+            return Mono.just(toGenerationResponse(design, request, GenerationStatus.COMPLETED, null));
+        }
 
-            throw new RuntimeException("Failed to generate design: " + e.getMessage(), e);
+        Mono<GenerationRequest> generation;
+        try {
+            generation = generationJobService.generateNonBlocking(design, fullPrompt, params);
+        } catch (RuntimeException e) {
+            discardDesigns(List.of(design), e);
+            throw e;
         }
+        return generation
+                .map(job -> toGenerationResponse(
+                        designRepository.findById(design.getDesignId()).orElse(design),
+                        request, job.getStatus(), job.getRequestId()));
     }
 
-    private MultipartFile createMultipartFile(byte[] content, String filename) {
-        return new MultipartFile() {
-            @Override
-            public String getName() { return "file"; }
+    /**
+     * Deletes designs whose generation was never taken on (e.g. the queue was full), so a rejected
+     * request leaves no imageless designs behind. Their declined jobs are kept, detached.
+     */
+    private void discardDesigns(List<Design> designs, RuntimeException cause) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                designs.forEach(design -> generationRequestRepository.detachFromDesign(design.getDesignId()));
+                designRepository.deleteAll(designs);
+            });
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
 
-            @Override
-            public String getOriginalFilename() { return filename; }
+    private Map<String, Object> buildGenerationParameters(GenerateDesignRequestDto request) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("size", "1024x1024");
+        params.put("quality", "standard");
+        if (request.getText() != null && !request.getText().isEmpty()) {
+            params.put(GenerationCacheService.TEXT_PARAM, request.getText());
+        }
+        return params;
+    }
 
-            @Override
-            public String getContentType() { return "image/png"; }
+    private String buildFullPrompt(GenerateDesignRequestDto request, Map<String, Object> params) {
+        return promptTemplateService.buildPrompt(request.getTheme(), new PromptTemplate.Values(
+                request.getPrompt(), request.getText(), request.getTheme(), request.getStyle(),
+                (String) params.get("size")));
+    }
 
-            @Override
-            public boolean isEmpty() { return content.length == 0; }
+    /**
+     * Identical generation already paid for: reuse its image instead of calling the provider.
+     * The owner gets an image of their own with the cached content (see ImageService.shareImage).
+     */
+    private Integer findCachedImage(String fullPrompt, Integer modelId, Map<String, Object> params, Integer ownerId) {
+        String cacheKey = generationCacheService.buildKey(fullPrompt, modelId, params);
+        return generationCacheService.lookup(cacheKey, imageService::imageExists)
+                .map(imageId -> imageService.shareImage(imageId, ownerId))
+                .orElse(null);
+    }
 
-            @Override
-            public long getSize() { return content.length; }
+    private Design newGeneratedDesign(GenerateDesignRequestDto request, Integer ownerId, Integer imageId) {
+        Design design = new Design();
+        design.setOwnerId(ownerId);
+        design.setOriginalPrompt(request.getPrompt());
+        design.setModelId(request.getAiModelId());
+        design.setImageId(imageId);
+        design.setIsAiGenerated(true);
+        design.setCreatedAt(LocalDateTime.now());
+        design.setModifiedAt(LocalDateTime.now());
+        // Anonymous generated designs are public by default
+        design.setIsPublic(ownerId == null);
+        return design;
+    }
 
-            @Override
-            public byte[] getBytes() { return content; }
+    private DesignResponseDto toGenerationResponse(Design design, GenerateDesignRequestDto request,
+                                                   GenerationStatus status, Integer jobId) {
+        DesignResponseDto response = convertToDto(design, status.name());
+        response.setJobId(jobId);
+        response.setPrompt(request.getPrompt());
+        response.setText(request.getText());
+        response.setTheme(request.getTheme());
+        response.setAiModelId(request.getAiModelId());
+        return response;
+    }
 
-            @Override
-            public java.io.InputStream getInputStream() {
-                return new java.io.ByteArrayInputStream(content);
-            }
+    public GenerationJobResponseDto getGenerationJob(Integer jobId) {
+        return generationJobService.getJob(jobId);
+    }
 
-            @Override
-            public void transferTo(java.io.File dest) throws java.io.IOException {
-                java.nio.file.Files.write(dest.toPath(), content);
-            }
-        };
+    public Flux<GenerationEventDto> streamGenerationJobEvents(Integer jobId) {
+        return generationJobService.streamEvents(jobId);
+    }
+
+    public Flux<GenerationEventDto> streamDesignEvents(Integer designId) {
+        return generationJobService.streamDesignEvents(designId);
     }
 
         public List<DesignResponseDto> getMyDesigns() {
         User currentUser = authService.getCurrentUser();
         List<Design> designs = designRepository.findByOwnerIdOrderByCreatedAtDesc(currentUser.getUserId());
-        return designs.stream().map(this::convertToDto).collect(Collectors.toList());
+        return convertAllToDto(designs, this::convertToDto);
     }
 
         public DesignResponseDto getDesignById(Integer designId) {
@@ -161,16 +248,17 @@ public class DesignService {
             throw new RuntimeException("Access denied");
         }
 
+        generationRequestRepository.detachFromDesign(designId);
         designRepository.delete(design);
     }
 
         public List<DesignResponseDto> getGenerationHistory() {
         User currentUser = authService.getCurrentUser();
         List<Design> designs = designRepository.findByOwnerIdOrderByCreatedAtDesc(currentUser.getUserId());
-        return designs.stream().map(this::convertToDto).collect(Collectors.toList());
+        return convertAllToDto(designs, this::convertToDto);
     }
 
-        public byte[] getDesignImage(Integer designId) throws IOException {
+        public StoredImage getDesignImage(Integer designId, Integer width) {
         Design design = designRepository.findById(designId)
                 .orElseThrow(() -> new RuntimeException("Design not found"));
 
@@ -178,12 +266,24 @@ public class DesignService {
             return null; // No image associated with this design yet
         }
 
-        return imageService.getImageFile(design.getImageId());
+        StoredImage image = imageService.getImageFile(design.getImageId(), width);
+        if (image == null || image.publicImage() || !Boolean.TRUE.equals(design.getIsPublic())
+                || !imageService.isUploadedBy(image.imageId(), design.getOwnerId())) {
+            return image;
+        }
+        // A public design's own image may be kept by shared caches even if the image itself is private;
+        // another user's private image never is
+        return new StoredImage(image.imageId(), image.storageKey(), image.mimeType(), image.size(), image.contentHash(),
+                true, image.createdAt(), image.width());
+    }
+
+    public Resource getImageBody(StoredImage image) {
+        return imageService.getImageBody(image);
     }
 
         public List<DesignResponseDto> getPublicDesigns() {
         List<Design> designs = designRepository.findByIsPublicTrueOrderByCreatedAtDesc();
-        return designs.stream().map(this::convertToDtoWithOwner).collect(Collectors.toList());
+        return convertAllToDto(designs, this::convertToDtoWithOwner);
     }
 
         public List<Design> getAllDesignsForModerator() {
@@ -221,18 +321,45 @@ public class DesignService {
         return designRepository.save(design);
     }
 
+    /**
+     * Converts a listing, loading the latest job of every design still without an image in one query
+     */
+    private List<DesignResponseDto> convertAllToDto(List<Design> designs,
+                                                    BiFunction<Design, String, DesignResponseDto> converter) {
+        List<Integer> imageless = designs.stream()
+                .filter(design -> design.getImageId() == null)
+                .map(Design::getDesignId)
+                .toList();
+        Map<Integer, GenerationRequest> latestJobs = new HashMap<>();
+        if (!imageless.isEmpty()) {
+            for (GenerationRequest job : generationRequestRepository.findLatestByResultDesignIds(imageless)) {
+                // Jobs requested at the same instant: the later one wins
+                latestJobs.merge(job.getResultDesignId(), job,
+                        (a, b) -> a.getRequestId() > b.getRequestId() ? a : b);
+            }
+        }
+        return designs.stream()
+                .map(design -> converter.apply(design, statusOf(design, latestJobs.get(design.getDesignId()))))
+                .collect(Collectors.toList());
+    }
+
     private DesignResponseDto convertToDto(Design design) {
+        return convertToDto(design, resolveStatus(design));
+    }
+
+    private DesignResponseDto convertToDto(Design design, String status) {
         DesignResponseDto dto = new DesignResponseDto();
         dto.setDesignId(design.getDesignId());
 
         if (design.getImageId() != null) {
             dto.setImageUrl("/api/designs/" + design.getDesignId() + "/image");
+            dto.setThumbnailUrl(dto.getImageUrl() + "?w=" + AppConstants.GALLERY_THUMBNAIL_WIDTH);
         } else {
             dto.setImageUrl(null); // Image not yet generated
         }
 
         dto.setPrompt(design.getOriginalPrompt());
-        dto.setStatus("COMPLETED"); // Default status, can be enhanced with actual status tracking
+        dto.setStatus(status);
         dto.setUserId(design.getOwnerId());
         dto.setAiModelId(design.getModelId());
         dto.setCreatedAt(design.getCreatedAt() != null ? design.getCreatedAt().toString() : null);
@@ -240,8 +367,23 @@ public class DesignService {
         return dto;
     }
 
-    private DesignResponseDto convertToDtoWithOwner(Design design) {
-        DesignResponseDto dto = convertToDto(design);
+    private String resolveStatus(Design design) {
+        GenerationRequest latestJob = design.getImageId() == null
+                ? generationRequestRepository.findFirstByResultDesignIdOrderByRequestedAtDesc(design.getDesignId())
+                        .orElse(null)
+                : null;
+        return statusOf(design, latestJob);
+    }
+
+    private static String statusOf(Design design, GenerationRequest latestJob) {
+        if (design.getImageId() != null) {
+            return GenerationStatus.COMPLETED.name();
+        }
+        return latestJob != null ? latestJob.getStatus().name() : GenerationStatus.FAILED.name();
+    }
+
+    private DesignResponseDto convertToDtoWithOwner(Design design, String status) {
+        DesignResponseDto dto = convertToDto(design, status);
 
         if (design.getOwner() != null) {
             dto.setOwnerUsername(design.getOwner().getUsername());
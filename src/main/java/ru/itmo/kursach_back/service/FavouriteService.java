@@ -8,6 +8,7 @@ import ru.itmo.kursach_back.entity.Design;
 import ru.itmo.kursach_back.entity.User;
 import ru.itmo.kursach_back.entity.UserFavourite;
 import ru.itmo.kursach_back.repository.UserFavouriteRepository;
+import ru.itmo.kursach_back.util.AppConstants;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -73,6 +74,7 @@ public class FavouriteService {
 
         if (design.getImageId() != null) {
             dto.setImageUrl("/api/designs/" + design.getDesignId() + "/image");
+            dto.setThumbnailUrl(dto.getImageUrl() + "?w=" + AppConstants.GALLERY_THUMBNAIL_WIDTH);
         }
         dto.setPrompt(design.getOriginalPrompt());
         dto.setStatus("COMPLETED");
@@ -0,0 +1,169 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Caches finished generations by a hash of the normalized generation parameters.
+ * Entries only reference existing ImageData rows, so a hit reuses the stored image
+ * instead of paying for another provider call.
+ */
+@Service
+public class GenerationCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationCacheService.class);
+
+    // Generation parameter holding the text requested on the image, which buildKey() keeps verbatim
+    public static final String TEXT_PARAM = "text";
+
+    private final boolean enabled;
+    private final long ttlMs;
+    private final int maxEntries;
+
+    // Access-ordered, so iteration starts from the least recently used entry
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public GenerationCacheService(MeterRegistry meterRegistry,
+                                  @Value("${ai.generation.cache.enabled:true}") boolean enabled,
+                                  @Value("${ai.generation.cache.ttl-minutes:1440}") long ttlMinutes,
+                                  @Value("${ai.generation.cache.max-entries:10000}") int maxEntries) {
+        this.enabled = enabled;
+        this.ttlMs = ttlMinutes * 60_000L;
+        this.maxEntries = maxEntries;
+
+        this.hits = Counter.builder("ai.generation.cache.requests")
+                .tag("result", "hit")
+                .description("Generation cache lookups")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ai.generation.cache.requests")
+                .tag("result", "miss")
+                .description("Generation cache lookups")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("ai.generation.cache.evictions")
+                .description("Generation cache entries removed by TTL, size limit or invalidation")
+                .register(meterRegistry);
+        meterRegistry.gauge("ai.generation.cache.size", entries, Map::size);
+    }
+
+    /**
+     * Case and spacing of the free-form prompt are normalized; the requested text (TEXT_PARAM) is
+     * drawn on the image as given, so it is part of the key verbatim.
+     */
+    public String buildKey(String fullPrompt, Integer modelId, Map<String, Object> parameters) {
+        String normalizedPrompt = fullPrompt == null ? ""
+                : fullPrompt.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        Object text = parameters != null ? parameters.get(TEXT_PARAM) : null;
+
+        String material = normalizedPrompt
+                + '\u0000' + (text != null ? text : "")
+                + '\u0000' + modelId
+                + '\u0000' + normalize(parameters, "size")
+                + '\u0000' + normalize(parameters, "quality")
+                + '\u0000' + normalize(parameters, "style");
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(material.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Returns the cached image id if the entry is fresh and still passes {@code isValid}
+     * (e.g. the image row has not been deleted). Stale or invalid entries are dropped.
+     * {@code isValid} may query the database, so it runs outside the cache's lock.
+     */
+    public Optional<Integer> lookup(String key, Predicate<Integer> isValid) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        CacheEntry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                entries.remove(key);
+                evictions.increment();
+                entry = null;
+            }
+        }
+
+        if (entry != null && !isValid.test(entry.imageId())) {
+            synchronized (this) {
+                // Unless it was replaced by a fresh result meanwhile
+                entries.remove(key, entry);
+            }
+            evictions.increment();
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+
+        hits.increment();
+        return Optional.of(entry.imageId());
+    }
+
+    public synchronized void put(String key, Integer imageId) {
+        if (!enabled || imageId == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        entries.put(key, new CacheEntry(imageId, now + ttlMs));
+        evictOverflow(now);
+        logger.debug("Cached generation result {} -> image {}", key, imageId);
+    }
+
+    public synchronized void invalidateImage(Integer imageId) {
+        if (entries.values().removeIf(entry -> entry.imageId().equals(imageId))) {
+            evictions.increment();
+        }
+    }
+
+    private void evictOverflow(long now) {
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (entries.size() > maxEntries || entry.isExpired(now)) {
+                iterator.remove();
+                evictions.increment();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private static String normalize(Map<String, Object> parameters, String name) {
+        Object value = parameters != null ? parameters.get(name) : null;
+        return value == null ? "" : value.toString().trim().toLowerCase(Locale.ROOT);
+    }
+
+    private record CacheEntry(Integer imageId, long expiresAt) {
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ru.itmo.kursach_back.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import ru.itmo.kursach_back.dto.response.GenerationEventDto;
+import ru.itmo.kursach_back.util.GenerationEventType;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory fan-out of generation lifecycle events, one stream per job. Each stream replays its
+ * latest event to new subscribers and multicasts the rest, so any number of open clients cost
+ * no database reads beyond the initial snapshot. Events are only published on the node running
+ * the job; streams open on other nodes are kept up to date by GenerationJobService re-reading
+ * the job's state (see quietStreams()).
+ */
+@Service
+public class GenerationEventBus {
+
+    private final Map<Integer, JobStream> streams = new ConcurrentHashMap<>();
+
+    // Finished streams stay around briefly, so a client subscribing right after the end still sees it
+    @Value("${ai.generation.events.retain-ms:30000}")
+    private long retainMs;
+
+    // Streams of jobs that stopped publishing (e.g. lost on a restart) are dropped after this long
+    @Value("${ai.generation.events.idle-ms:600000}")
+    private long idleMs;
+
+    // Streams without events for this long are re-checked against the database
+    @Value("${ai.generation.events.remote-check-ms:5000}")
+    private long remoteCheckMs;
+
+    private static final class JobStream {
+        final Sinks.Many<GenerationEventDto> sink = Sinks.many().replay().latest();
+        volatile long lastEventAt = System.currentTimeMillis();
+        volatile GenerationEventType lastType;
+    }
+
+    public void publish(Integer jobId, Integer designId, GenerationEventType type) {
+        publish(event(jobId, designId, type));
+    }
+
+    public void publish(GenerationEventDto event) {
+        JobStream stream = streams.computeIfAbsent(event.getJobId(), id -> new JobStream());
+        stream.lastEventAt = System.currentTimeMillis();
+        stream.lastType = GenerationEventType.valueOf(event.getType());
+
+        // Publishers of one job may run on different threads; retry briefly on contention instead of dropping
+        stream.sink.emitNext(event, Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(50)));
+
+        if (GenerationEventType.valueOf(event.getType()).isTerminal()) {
+            stream.sink.tryEmitComplete();
+            Mono.delay(Duration.ofMillis(retainMs)).subscribe(tick -> streams.remove(event.getJobId(), stream));
+        }
+    }
+
+    /**
+     * Live events of a job, starting with the latest one published. Completes after a terminal event.
+     */
+    public Flux<GenerationEventDto> subscribe(Integer jobId) {
+        return Flux.defer(() -> streams.computeIfAbsent(jobId, id -> new JobStream()).sink.asFlux());
+    }
+
+    /**
+     * Open streams that have seen no event for the remote check interval, with the type of the
+     * latest event they carried (null when none was published on this node). Their jobs are most
+     * likely running elsewhere.
+     */
+    public Map<Integer, GenerationEventType> quietStreams() {
+        long cutoff = System.currentTimeMillis() - remoteCheckMs;
+        Map<Integer, GenerationEventType> quiet = new HashMap<>();
+        streams.forEach((jobId, stream) -> {
+            GenerationEventType lastType = stream.lastType;
+            if (stream.lastEventAt < cutoff && stream.sink.currentSubscriberCount() > 0
+                    && (lastType == null || !lastType.isTerminal())) {
+                quiet.put(jobId, lastType);
+            }
+        });
+        return quiet;
+    }
+
+    /**
+     * Ends and drops streams idle for too long, subscribed or not; their clients reconnect and get
+     * the job's current state
+     */
+    @Scheduled(fixedDelayString = "${ai.generation.events.idle-ms:600000}")
+    public void dropIdleStreams() {
+        long cutoff = System.currentTimeMillis() - idleMs;
+        streams.entrySet().removeIf(entry -> {
+            if (entry.getValue().lastEventAt >= cutoff) {
+                return false;
+            }
+            entry.getValue().sink.tryEmitComplete();
+            return true;
+        });
+    }
+
+    public static GenerationEventDto event(Integer jobId, Integer designId, GenerationEventType type) {
+        GenerationEventDto event = new GenerationEventDto();
+        event.setJobId(jobId);
+        event.setDesignId(designId);
+        event.setType(type.name());
+        event.setTimestamp(LocalDateTime.now().toString());
+        return event;
+    }
+}
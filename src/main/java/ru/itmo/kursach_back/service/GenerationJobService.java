@@ -0,0 +1,690 @@
+package ru.itmo.kursach_back.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.itmo.kursach_back.dto.response.GenerationEventDto;
+import ru.itmo.kursach_back.dto.response.GenerationJobResponseDto;
+import ru.itmo.kursach_back.entity.Design;
+import ru.itmo.kursach_back.entity.GenerationRequest;
+import ru.itmo.kursach_back.entity.ImageData;
+import ru.itmo.kursach_back.entity.User;
+import ru.itmo.kursach_back.repository.DesignRepository;
+import ru.itmo.kursach_back.repository.GenerationRequestRepository;
+import ru.itmo.kursach_back.service.ai.AIGenerationException;
+import ru.itmo.kursach_back.service.ai.AIService;
+import ru.itmo.kursach_back.service.ai.AIServiceFactory;
+import ru.itmo.kursach_back.service.ai.GenerationProgress;
+import ru.itmo.kursach_back.service.ai.MockAIService;
+import ru.itmo.kursach_back.util.GenerationEventType;
+import ru.itmo.kursach_back.util.GenerationStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs design generation jobs from the durable queue in generation_requests. Jobs are claimed by
+ * whichever node has a free worker, ordered on that node by GenerationScheduler, and their state
+ * is persisted so clients can poll for progress.
+ */
+@Service
+public class GenerationJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationJobService.class);
+
+    private final GenerationRequestRepository generationRequestRepository;
+    private final DesignRepository designRepository;
+    private final ImageService imageService;
+    private final AIServiceFactory aiServiceFactory;
+    private final GenerationCacheService generationCacheService;
+    private final GenerationSingleFlight singleFlight;
+    private final GenerationEventBus eventBus;
+    private final AuthService authService;
+    private final ObjectMapper objectMapper;
+    private final GenerationScheduler generationScheduler;
+    private final GenerationQueue generationQueue;
+    private final TransactionTemplate transactionTemplate;
+
+    // Dispatch requests arriving while one runs are folded into it
+    private final AtomicBoolean dispatchRequested = new AtomicBoolean();
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+
+    public GenerationJobService(GenerationRequestRepository generationRequestRepository,
+                                DesignRepository designRepository,
+                                ImageService imageService,
+                                AIServiceFactory aiServiceFactory,
+                                GenerationCacheService generationCacheService,
+                                GenerationSingleFlight singleFlight,
+                                GenerationEventBus eventBus,
+                                AuthService authService,
+                                ObjectMapper objectMapper,
+                                GenerationScheduler generationScheduler,
+                                GenerationQueue generationQueue,
+                                TransactionTemplate transactionTemplate) {
+        this.generationRequestRepository = generationRequestRepository;
+        this.designRepository = designRepository;
+        this.imageService = imageService;
+        this.aiServiceFactory = aiServiceFactory;
+        this.generationCacheService = generationCacheService;
+        this.singleFlight = singleFlight;
+        this.eventBus = eventBus;
+        this.authService = authService;
+        this.objectMapper = objectMapper;
+        this.generationScheduler = generationScheduler;
+        this.generationQueue = generationQueue;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Persists a PENDING job for the design in the caller's fair-share class; any node may run it.
+     * Throws TaskRejectedException (after marking the job DECLINED) when the queue is full;
+     * a queued job shed for higher-priority work is DECLINED later.
+     */
+    public GenerationRequest submit(Design design, String fullPrompt, Map<String, Object> parameters) {
+        GenerationRequest job = enqueue(List.of(newJob(design, fullPrompt, parameters, GenerationStatus.PENDING)),
+                null).get(0);
+        logger.info("Generation job {} queued for design {}", job.getRequestId(), design.getDesignId());
+        return job;
+    }
+
+    /**
+     * Persists one PENDING job per variant design under a common batch key. Variants claimed together
+     * are generated with one provider call, so providers with a native batch size are used fully.
+     * Throws TaskRejectedException (after marking the jobs DECLINED) when the queue is full.
+     */
+    public List<GenerationRequest> submitBatch(List<Design> designs, String fullPrompt, Map<String, Object> parameters) {
+        List<GenerationRequest> jobs = enqueue(designs.stream()
+                .map(design -> newJob(design, fullPrompt, parameters, GenerationStatus.PENDING))
+                .toList(), UUID.randomUUID().toString());
+        logger.info("Generation batch {} queued", jobs.stream().map(GenerationRequest::getRequestId).toList());
+        return jobs;
+    }
+
+    private List<GenerationRequest> enqueue(List<GenerationRequest> jobs, String batchKey) {
+        GenerationScheduler.Requester requester = GenerationScheduler.currentRequester();
+        for (GenerationRequest job : jobs) {
+            job.setPriority(requester.priorityClass().ordinal());
+            job.setRequesterKey(requester.key());
+            job.setBatchKey(batchKey);
+        }
+
+        List<GenerationRequest> shed;
+        try {
+            shed = generationQueue.admit(requester, jobs.size());
+        } catch (TaskRejectedException e) {
+            logger.warn("Generation queue is full, declining {} new jobs", jobs.size());
+            decline(jobs);
+            throw e;
+        }
+        shed.forEach(job -> publishFailed(job, GenerationStatus.DECLINED.name()));
+
+        List<GenerationRequest> queued = generationRequestRepository.saveAll(jobs);
+        queued.forEach(job -> eventBus.publish(job.getRequestId(), job.getResultDesignId(), GenerationEventType.QUEUED));
+        dispatchQueued();
+        return queued;
+    }
+
+    /**
+     * Generates on the caller's reactive pipeline instead of the worker pool, so no thread
+     * is held while the provider works. The job is recorded as PROCESSING under this node's lease
+     * straight away; persistence of the result runs on the bounded elastic scheduler. If the caller
+     * cancels (e.g. the client disconnects) before the result is being stored, the job goes back
+     * to the queue, so its design still gets an image; callers that joined its generation then
+     * generate themselves. Admission is the same as for queued jobs, plus a per-class limit on jobs
+     * held this way; throws TaskRejectedException (after marking the job DECLINED) when either is full.
+     */
+    public Mono<GenerationRequest> generateNonBlocking(Design design, String fullPrompt, Map<String, Object> parameters) {
+        GenerationScheduler.Requester requester = GenerationScheduler.currentRequester();
+        GenerationRequest newJob = newJob(design, fullPrompt, parameters, GenerationStatus.PROCESSING);
+        newJob.setPriority(requester.priorityClass().ordinal());
+        newJob.setRequesterKey(requester.key());
+
+        GenerationRequest job;
+        try {
+            generationQueue.admit(requester, 1).forEach(shed -> publishFailed(shed, GenerationStatus.DECLINED.name()));
+            job = generationQueue.hold(newJob);
+        } catch (TaskRejectedException e) {
+            logger.warn("Generation capacity for {} requesters is used up, declining an awaited job",
+                    requester.priorityClass());
+            decline(List.of(newJob));
+            throw e;
+        }
+        eventBus.publish(job.getRequestId(), job.getResultDesignId(), GenerationEventType.PROCESSING);
+
+        // Set once the outcome is being recorded; a later cancellation leaves the job alone
+        return generateHeld(job, fullPrompt, parameters, new AtomicBoolean());
+    }
+
+    private Mono<GenerationRequest> generateHeld(GenerationRequest job, String fullPrompt, Map<String, Object> parameters,
+                                                 AtomicBoolean settled) {
+        GenerationSingleFlight.Flight flight = singleFlight.join(flightKey(job, parameters));
+        if (!flight.leader()) {
+            // A copy, so a follower's cancellation does not cancel the shared result
+            return Mono.fromFuture(flight.result().copy())
+                    .publishOn(Schedulers.boundedElastic())
+                    .flatMap(imageId -> Mono.fromCallable(() -> {
+                        settled.set(true);
+                        return completeWithSharedImage(job, imageId);
+                    }))
+                    // The leader's client went away: join the next flight, or lead it
+                    .onErrorResume(GenerationSingleFlight::isAbandoned,
+                            e -> generateHeld(job, fullPrompt, parameters, settled))
+                    .doOnError(e -> {
+                        if (settled.compareAndSet(false, true)) {
+                            fail(job, unwrap(e));
+                        }
+                    })
+                    .doOnCancel(() -> requeueCancelled(job, settled));
+        }
+
+        return aiServiceFactory.generateImageAsync(job.getModelId(), fullPrompt, withProgress(parameters, List.of(job)))
+                .publishOn(Schedulers.boundedElastic())
+                .flatMap(generated -> Mono.fromCallable(() -> {
+                    settled.set(true);
+                    Integer imageId = storeImage(job, generated, parameters);
+                    singleFlight.complete(flight, imageId);
+                    return completeWithImage(job, imageId);
+                }))
+                .doOnError(e -> {
+                    singleFlight.fail(flight, e);
+                    settled.set(true);
+                    fail(job, e);
+                })
+                .doOnCancel(() -> {
+                    singleFlight.abandon(flight);
+                    requeueCancelled(job, settled);
+                });
+    }
+
+    private void requeueCancelled(GenerationRequest job, AtomicBoolean settled) {
+        if (settled.compareAndSet(false, true)) {
+            requeueLater(job, "was cancelled by its client");
+        }
+    }
+
+    /**
+     * Drops the lease on a job this node stopped working on and queues it for a worker; runs off
+     * the calling thread (e.g. a cancelling one) since it writes to the database
+     */
+    private void requeueLater(GenerationRequest job, String reason) {
+        Schedulers.boundedElastic().schedule(() -> {
+            try {
+                generationQueue.requeue(List.of(job));
+                eventBus.publish(job.getRequestId(), job.getResultDesignId(), GenerationEventType.QUEUED);
+                logger.info("Generation job {} {} and was requeued", job.getRequestId(), reason);
+                dispatchQueued();
+            } catch (Exception e) {
+                // The lease is no longer renewed, so the job is recovered once it expires
+                logger.error("Failed to requeue generation job {}: {}", job.getRequestId(), e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Claims as many queued jobs as this node has free slots for and hands them to the fair-share
+     * scheduler. Runs on a timer, after local submissions and whenever a job finishes.
+     */
+    @Scheduled(fixedDelayString = "${ai.generation.queue.poll-interval-ms:1000}")
+    public void dispatchQueued() {
+        dispatchRequested.set(true);
+        while (dispatchRequested.get() && dispatching.compareAndSet(false, true)) {
+            try {
+                while (dispatchRequested.getAndSet(false)) {
+                    dispatchClaimed(generationQueue.claim());
+                }
+            } catch (Exception e) {
+                logger.error("Failed to claim queued generation jobs: {}", e.getMessage(), e);
+            } finally {
+                dispatching.set(false);
+            }
+        }
+    }
+
+    private void dispatchClaimed(List<GenerationRequest> claimed) {
+        Map<String, List<GenerationRequest>> batches = new LinkedHashMap<>();
+        for (GenerationRequest job : claimed) {
+            if (job.getBatchKey() == null) {
+                schedule(List.of(job), () -> process(job));
+            } else {
+                batches.computeIfAbsent(job.getBatchKey(), key -> new ArrayList<>()).add(job);
+            }
+        }
+        batches.values().forEach(jobs -> schedule(jobs, () -> processBatch(jobs)));
+    }
+
+    private void schedule(List<GenerationRequest> jobs, Runnable work) {
+        try {
+            generationScheduler.submit(GenerationQueue.requesterOf(jobs.get(0)), jobs.size(), work,
+                    () -> generationQueue.requeue(jobs));
+        } catch (TaskRejectedException e) {
+            // This node is saturated after all; another node (or a later poll) takes them
+            generationQueue.requeue(jobs);
+        }
+    }
+
+    void process(GenerationRequest job) {
+        Integer jobId = job.getRequestId();
+        eventBus.publish(jobId, job.getResultDesignId(), GenerationEventType.PROCESSING);
+
+        GenerationSingleFlight.Flight flight = null;
+        try {
+            Map<String, Object> parameters = readParameters(job.getParameters());
+            flight = singleFlight.join(flightKey(job, parameters));
+            if (!flight.leader()) {
+                logger.info("Generation job {} joined an identical generation in flight", jobId);
+                flight.result().whenComplete((imageId, e) -> {
+                    finishFollower(job, imageId, e);
+                    dispatchQueued();
+                });
+                return;
+            }
+
+            AIServiceFactory.GeneratedImage generated = aiServiceFactory.generateImage(job.getModelId(),
+                    job.getPrompt(), withProgress(parameters, List.of(job)));
+            Integer imageId = storeImage(job, generated, parameters);
+            singleFlight.complete(flight, imageId);
+            completeWithImage(job, imageId);
+        } catch (Exception e) {
+            if (flight != null) {
+                singleFlight.fail(flight, e);
+            }
+            fail(job, e);
+        }
+        dispatchQueued();
+    }
+
+    /**
+     * Completes a job that waited for an identical generation: its design gets the leader's image.
+     * If the leader abandoned it, the job is queued again.
+     */
+    private void finishFollower(GenerationRequest job, Integer imageId, Throwable e) {
+        try {
+            if (GenerationSingleFlight.isAbandoned(e)) {
+                requeueLater(job, "lost the identical generation it joined");
+            } else if (e != null) {
+                fail(job, unwrap(e));
+            } else {
+                completeWithSharedImage(job, imageId);
+            }
+        } catch (Exception completionError) {
+            fail(job, completionError);
+        }
+    }
+
+    void processBatch(List<GenerationRequest> jobs) {
+        jobs.forEach(job -> eventBus.publish(job.getRequestId(), job.getResultDesignId(), GenerationEventType.PROCESSING));
+
+        GenerationRequest first = jobs.get(0);
+        AIServiceFactory.GeneratedImages generated;
+        Map<String, Object> parameters;
+        try {
+            parameters = readParameters(first.getParameters());
+            generated = aiServiceFactory.generateImagesAsync(first.getModelId(), first.getPrompt(),
+                    withProgress(parameters, jobs), jobs.size()).block();
+        } catch (Exception e) {
+            Throwable cause = Exceptions.unwrap(e);
+            jobs.forEach(job -> fail(job, cause));
+            dispatchQueued();
+            return;
+        }
+
+        for (int i = 0; i < jobs.size(); i++) {
+            GenerationRequest job = jobs.get(i);
+            if (generated == null || i >= generated.images().size()) {
+                fail(job, new RuntimeException("Provider returned fewer variants than requested"));
+                continue;
+            }
+            try {
+                complete(job, new AIServiceFactory.GeneratedImage(generated.images().get(i), generated.service()),
+                        parameters);
+            } catch (Exception e) {
+                fail(job, e);
+            }
+        }
+        dispatchQueued();
+    }
+
+    private GenerationRequest newJob(Design design, String fullPrompt, Map<String, Object> parameters,
+                                     GenerationStatus status) {
+        GenerationRequest job = new GenerationRequest();
+        job.setUserId(design.getOwnerId());
+        job.setModelId(design.getModelId());
+        job.setThemeId(design.getThemeId());
+        job.setPrompt(fullPrompt);
+        job.setParameters(writeParameters(parameters));
+        job.setStatus(status);
+        job.setResultDesignId(design.getDesignId());
+        job.setRequestedAt(LocalDateTime.now());
+        return job;
+    }
+
+    private GenerationRequest complete(GenerationRequest job, AIServiceFactory.GeneratedImage generated,
+                                       Map<String, Object> parameters) throws IOException {
+        return completeWithImage(job, storeImage(job, generated, parameters));
+    }
+
+    /**
+     * Saves the generated image and caches it. Works even if the job's design was deleted meanwhile,
+     * since followers of the same generation may still need the image.
+     */
+    private Integer storeImage(GenerationRequest job, AIServiceFactory.GeneratedImage generated,
+                               Map<String, Object> parameters) throws IOException {
+        AIService aiService = generated.service();
+
+        Design design = designRepository.findById(job.getResultDesignId()).orElse(null);
+        Integer ownerId = design != null ? design.getOwnerId() : job.getUserId();
+        String originalPrompt = design != null && design.getOriginalPrompt() != null
+                ? design.getOriginalPrompt() : job.getPrompt();
+
+        ImageData savedImage = imageService.saveImage(
+            createMultipartFile(generated.imageBytes(), "generated-" + job.getResultDesignId() + ".png"),
+            ownerId,
+            "AI Generated: " + originalPrompt.substring(0, Math.min(50, originalPrompt.length())),
+            "Generated by " + aiService.getServiceName()
+        );
+
+        // Mock output stands in for unavailable providers and must not be served as a real result later
+        if (!(aiService instanceof MockAIService)) {
+            generationCacheService.put(flightKey(job, parameters), savedImage.getImgdId());
+        }
+        return savedImage.getImgdId();
+    }
+
+    /**
+     * Attaches the image to the job's design and marks the job COMPLETED in one transaction. When
+     * this node lost the job's lease meanwhile, neither is written: the job belongs to whichever
+     * node recovered it.
+     */
+    private GenerationRequest completeWithImage(GenerationRequest job, Integer imageId) {
+        Design design = transactionTemplate.execute(status -> {
+            Design resultDesign = designRepository.findById(job.getResultDesignId())
+                    .orElseThrow(() -> new RuntimeException("Design was deleted during generation"));
+            if (!generationQueue.finish(job, GenerationStatus.COMPLETED, null)) {
+                return null;
+            }
+            resultDesign.setImageId(imageId);
+            resultDesign.setModifiedAt(LocalDateTime.now());
+            return designRepository.save(resultDesign);
+        });
+        if (design == null) {
+            return job;
+        }
+        logger.info("Generation job {} completed, image {}", job.getRequestId(), imageId);
+
+        GenerationEventDto stored = GenerationEventBus.event(job.getRequestId(), design.getDesignId(),
+                GenerationEventType.IMAGE_STORED);
+        stored.setImageUrl("/api/designs/" + design.getDesignId() + "/image");
+        eventBus.publish(stored);
+        return job;
+    }
+
+    /**
+     * Completes with another job's image; the design's owner gets an image of their own sharing its content
+     */
+    private GenerationRequest completeWithSharedImage(GenerationRequest job, Integer imageId) {
+        Design design = designRepository.findById(job.getResultDesignId())
+                .orElseThrow(() -> new RuntimeException("Design was deleted during generation"));
+        Integer sharedImageId = imageService.shareImage(imageId, design.getOwnerId());
+        if (sharedImageId == null) {
+            throw new RuntimeException("Image of the identical generation was deleted");
+        }
+        return completeWithImage(job, sharedImageId);
+    }
+
+    /**
+     * Copy of the parameters reporting provider selection and attempts to the jobs' event streams
+     */
+    private Map<String, Object> withProgress(Map<String, Object> parameters, List<GenerationRequest> jobs) {
+        Map<String, Object> tracked = parameters != null ? new HashMap<>(parameters) : new HashMap<>();
+        tracked.put(GenerationProgress.PARAM, new GenerationProgress() {
+            @Override
+            public void providerSelected(String provider) {
+                for (GenerationRequest job : jobs) {
+                    GenerationEventDto event = GenerationEventBus.event(job.getRequestId(), job.getResultDesignId(),
+                            GenerationEventType.PROVIDER_SELECTED);
+                    event.setProvider(provider);
+                    eventBus.publish(event);
+                }
+            }
+
+            @Override
+            public void attemptStarted(String provider, int attempt) {
+                for (GenerationRequest job : jobs) {
+                    GenerationEventDto event = GenerationEventBus.event(job.getRequestId(), job.getResultDesignId(),
+                            GenerationEventType.ATTEMPT);
+                    event.setProvider(provider);
+                    event.setAttempt(attempt);
+                    eventBus.publish(event);
+                }
+            }
+
+            @Override
+            public void attemptFailed(String provider, int attempt, AIGenerationException.ErrorType errorType,
+                                      String message) {
+                for (GenerationRequest job : jobs) {
+                    GenerationEventDto event = GenerationEventBus.event(job.getRequestId(), job.getResultDesignId(),
+                            GenerationEventType.ATTEMPT_FAILED);
+                    event.setProvider(provider);
+                    event.setAttempt(attempt);
+                    event.setErrorType(errorType.name());
+                    event.setMessage(message);
+                    eventBus.publish(event);
+                }
+            }
+        });
+        return tracked;
+    }
+
+    private void decline(List<GenerationRequest> jobs) {
+        for (GenerationRequest job : jobs) {
+            job.setStatus(GenerationStatus.DECLINED);
+            job.setErrorMessage("Generation queue is full, try again later");
+            job.setCompletedAt(LocalDateTime.now());
+        }
+        generationRequestRepository.saveAll(jobs);
+        jobs.forEach(job -> publishFailed(job, GenerationStatus.DECLINED.name()));
+    }
+
+    private void publishFailed(GenerationRequest job, String errorType) {
+        GenerationEventDto event = GenerationEventBus.event(job.getRequestId(), job.getResultDesignId(),
+                GenerationEventType.FAILED);
+        event.setErrorType(errorType);
+        event.setMessage(job.getErrorMessage());
+        eventBus.publish(event);
+    }
+
+    /**
+     * Identical generations share a cache key, so the same key identifies them while in flight
+     */
+    private String flightKey(GenerationRequest job, Map<String, Object> parameters) {
+        return generationCacheService.buildKey(job.getPrompt(), job.getModelId(), parameters);
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private void fail(GenerationRequest job, Throwable e) {
+        logger.error("Generation job {} failed: {}", job.getRequestId(), e.getMessage(), e);
+        if (job.getResultDesignId() != null && !designRepository.existsById(job.getResultDesignId())) {
+            job.setResultDesignId(null);
+        }
+        // Providers at capacity: the request was shed rather than broken
+        boolean overloaded = e instanceof TaskRejectedException
+                || (e instanceof AIGenerationException aiException
+                    && aiException.getErrorType() == AIGenerationException.ErrorType.PROVIDER_OVERLOADED);
+        if (!generationQueue.finish(job, overloaded ? GenerationStatus.DECLINED : GenerationStatus.FAILED,
+                e.getMessage())) {
+            return;
+        }
+        publishFailed(job, e instanceof AIGenerationException aiException
+                ? aiException.getErrorType().name()
+                : job.getStatus().name());
+    }
+
+    /**
+     * The job's current state followed by its live lifecycle events, until it completes or fails.
+     * Access rules are the same as for getJob().
+     */
+    public Flux<GenerationEventDto> streamEvents(Integer jobId) {
+        GenerationJobResponseDto job = getJob(jobId);
+        GenerationEventDto snapshot = snapshotOf(job);
+        if (GenerationEventType.valueOf(snapshot.getType()).isTerminal()) {
+            return Flux.just(snapshot);
+        }
+        return eventBus.subscribe(jobId)
+                .startWith(snapshot)
+                .takeUntil(event -> GenerationEventType.valueOf(event.getType()).isTerminal());
+    }
+
+    public Flux<GenerationEventDto> streamDesignEvents(Integer designId) {
+        GenerationRequest job = generationRequestRepository.findFirstByResultDesignIdOrderByRequestedAtDesc(designId)
+                .orElseThrow(() -> new RuntimeException("Generation job not found"));
+        return streamEvents(job.getRequestId());
+    }
+
+    private static GenerationEventDto snapshotOf(GenerationJobResponseDto job) {
+        GenerationStatus status = GenerationStatus.valueOf(job.getStatus());
+        GenerationEventType type = switch (status) {
+            case PENDING -> GenerationEventType.QUEUED;
+            case PROCESSING -> GenerationEventType.PROCESSING;
+            case COMPLETED -> GenerationEventType.IMAGE_STORED;
+            case FAILED, DECLINED -> GenerationEventType.FAILED;
+        };
+
+        GenerationEventDto snapshot = GenerationEventBus.event(job.getJobId(), job.getDesignId(), type);
+        snapshot.setImageUrl(job.getImageUrl());
+        if (type == GenerationEventType.FAILED) {
+            snapshot.setErrorType(status.name());
+            snapshot.setMessage(job.getErrorMessage());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Brings streams of jobs that run on other nodes up to date: their events are published there,
+     * so here the job's state is re-read and published when it moved on. One query covers all
+     * such streams.
+     */
+    @Scheduled(fixedDelayString = "${ai.generation.events.remote-check-ms:5000}")
+    public void syncRemoteEvents() {
+        Map<Integer, GenerationEventType> quiet = eventBus.quietStreams();
+        if (quiet.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, GenerationRequest> jobs = new HashMap<>();
+        generationRequestRepository.findAllById(quiet.keySet()).forEach(job -> jobs.put(job.getRequestId(), job));
+        quiet.forEach((jobId, seen) -> {
+            GenerationRequest job = jobs.get(jobId);
+            if (job == null) {
+                GenerationEventDto event = GenerationEventBus.event(jobId, null, GenerationEventType.FAILED);
+                event.setMessage("Generation job not found");
+                eventBus.publish(event);
+                return;
+            }
+            GenerationEventDto snapshot = snapshotOf(toDto(job));
+            GenerationEventType current = GenerationEventType.valueOf(snapshot.getType());
+            if (current.isTerminal()
+                    || (current == GenerationEventType.PROCESSING && (seen == null || seen == GenerationEventType.QUEUED))) {
+                eventBus.publish(snapshot);
+            }
+        });
+    }
+
+    public GenerationJobResponseDto getJob(Integer jobId) {
+        GenerationRequest job = generationRequestRepository.findById(jobId)
+                .orElseThrow(() -> new RuntimeException("Generation job not found"));
+
+        if (job.getUserId() != null) {
+            User currentUser = authService.getCurrentUser();
+            if (currentUser == null || !job.getUserId().equals(currentUser.getUserId())) {
+                throw new RuntimeException("Generation job not found");
+            }
+        }
+        return toDto(job);
+    }
+
+    private static GenerationJobResponseDto toDto(GenerationRequest job) {
+        GenerationJobResponseDto dto = new GenerationJobResponseDto();
+        dto.setJobId(job.getRequestId());
+        dto.setDesignId(job.getResultDesignId());
+        dto.setStatus(job.getStatus().name());
+        dto.setErrorMessage(job.getErrorMessage());
+        if (job.getStatus() == GenerationStatus.COMPLETED && job.getResultDesignId() != null) {
+            dto.setImageUrl("/api/designs/" + job.getResultDesignId() + "/image");
+        }
+        dto.setRequestedAt(job.getRequestedAt() != null ? job.getRequestedAt().toString() : null);
+        dto.setCompletedAt(job.getCompletedAt() != null ? job.getCompletedAt().toString() : null);
+        return dto;
+    }
+
+    private String writeParameters(Map<String, Object> parameters) {
+        try {
+            return objectMapper.writeValueAsString(parameters != null ? parameters : Map.of());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize generation parameters", e);
+        }
+    }
+
+    private Map<String, Object> readParameters(String parameters) throws IOException {
+        if (parameters == null || parameters.isBlank()) {
+            return new HashMap<>();
+        }
+        return objectMapper.readValue(parameters, new TypeReference<HashMap<String, Object>>() {});
+    }
+
+    private MultipartFile createMultipartFile(byte[] content, String filename) {
+        return new MultipartFile() {
+            @Override
+            public String getName() { return "file"; }
+
+            @Override
+            public String getOriginalFilename() { return filename; }
+
+            @Override
+            public String getContentType() { return "image/png"; }
+
+            @Override
+            public boolean isEmpty() { return content.length == 0; }
+
+            @Override
+            public long getSize() { return content.length; }
+
+            @Override
+            public byte[] getBytes() { return content; }
+
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(content);
+            }
+
+            @Override
+            public void transferTo(File dest) throws IOException {
+                Files.write(dest.toPath(), content);
+            }
+        };
+    }
+}
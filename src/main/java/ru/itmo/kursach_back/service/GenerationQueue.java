@@ -0,0 +1,313 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.itmo.kursach_back.entity.GenerationRequest;
+import ru.itmo.kursach_back.repository.GenerationRequestRepository;
+import ru.itmo.kursach_back.util.GenerationStatus;
+
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Durable generation queue kept in generation_requests and shared by every node. Nodes claim
+ * PENDING jobs with SELECT ... FOR UPDATE SKIP LOCKED and hold them under a lease that the
+ * heartbeat keeps extending while they run. Jobs whose lease expires (their node died or lost
+ * the database) go back to PENDING, or fail once they have been tried max-attempts times.
+ * Jobs a client awaits in its own request are held by the node outside the queue, up to max-held
+ * per class (the anonymous share of that for anonymous requesters).
+ */
+@Service
+public class GenerationQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationQueue.class);
+
+    private final GenerationRequestRepository generationRequestRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final String nodeId;
+    private final long leaseMs;
+    private final int maxAttempts;
+    private final int maxPending;
+    private final int anonymousMaxPending;
+    private final int slots;
+    private final int maxHeld;
+    private final int anonymousMaxHeld;
+
+    // Jobs this node holds a lease on; the claimed ones also take one of the node's slots
+    private final Set<Integer> leased = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> claimed = ConcurrentHashMap.newKeySet();
+    // Held jobs by class, counted before they are saved
+    private final Map<Integer, GenerationScheduler.PriorityClass> held = new ConcurrentHashMap<>();
+    private final Map<GenerationScheduler.PriorityClass, AtomicInteger> heldCounts =
+            new EnumMap<>(GenerationScheduler.PriorityClass.class);
+
+    public GenerationQueue(GenerationRequestRepository generationRequestRepository,
+                           TransactionTemplate transactionTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${ai.generation.queue.node-id:}") String nodeId,
+                           @Value("${ai.generation.queue.lease-ms:60000}") long leaseMs,
+                           @Value("${ai.generation.queue.max-attempts:3}") int maxAttempts,
+                           @Value("${ai.generation.queue.max-pending:200}") int maxPending,
+                           @Value("${ai.generation.scheduler.anonymous-queue-share:0.5}") double anonymousShare,
+                           @Value("${ai.generation.worker.threads:4}") int workerThreads,
+                           @Value("${ai.generation.queue.prefetch:2}") int prefetch,
+                           @Value("${ai.generation.queue.max-held:20}") int maxHeld) {
+        this.generationRequestRepository = generationRequestRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.meterRegistry = meterRegistry;
+        this.nodeId = nodeId != null && !nodeId.isBlank() ? nodeId : defaultNodeId();
+        this.leaseMs = leaseMs;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.maxPending = Math.max(1, maxPending);
+        this.anonymousMaxPending = Math.max(1, (int) (this.maxPending * anonymousShare));
+        this.slots = Math.max(1, workerThreads + prefetch);
+        this.maxHeld = Math.max(1, maxHeld);
+        this.anonymousMaxHeld = Math.max(1, (int) (this.maxHeld * anonymousShare));
+        for (GenerationScheduler.PriorityClass priorityClass : GenerationScheduler.PriorityClass.values()) {
+            heldCounts.put(priorityClass, new AtomicInteger());
+        }
+
+        meterRegistry.gauge("ai.generation.queue.leased", leased, Set::size);
+        meterRegistry.gauge("ai.generation.queue.held", held, Map::size);
+        meterRegistry.gauge("ai.generation.queue.pending", this,
+                queue -> queue.generationRequestRepository.countByStatus(GenerationStatus.PENDING));
+        logger.info("Generation queue node id: {}", this.nodeId);
+    }
+
+    /**
+     * Makes room for {@code cost} new jobs of {@code requester}, shedding the newest PENDING jobs of
+     * lower classes when the queue is full. Returns the shed jobs (already DECLINED); throws
+     * TaskRejectedException when there is no room. Limits are soft: concurrent submissions may
+     * overshoot them by a few jobs.
+     */
+    @Transactional
+    public List<GenerationRequest> admit(GenerationScheduler.Requester requester, int cost) {
+        GenerationScheduler.PriorityClass priorityClass = requester.priorityClass();
+        if (priorityClass == GenerationScheduler.PriorityClass.ANONYMOUS
+                && generationRequestRepository.countByStatusAndPriority(GenerationStatus.PENDING,
+                        priorityClass.ordinal()) + cost > anonymousMaxPending) {
+            throw rejected(priorityClass);
+        }
+
+        long excess = generationRequestRepository.countByStatus(GenerationStatus.PENDING) + cost - maxPending;
+        if (excess <= 0) {
+            return List.of();
+        }
+
+        List<GenerationRequest> shed = generationRequestRepository.lockNewestBelow(GenerationStatus.PENDING,
+                priorityClass.ordinal(), PageRequest.of(0, (int) excess));
+        if (shed.size() < excess) {
+            throw rejected(priorityClass);
+        }
+        for (GenerationRequest job : shed) {
+            job.setStatus(GenerationStatus.DECLINED);
+            job.setErrorMessage("Generation was shed for higher-priority work, try again later");
+            job.setCompletedAt(LocalDateTime.now());
+            meterRegistry.counter("ai.generation.queue.shed",
+                    "class", classOf(job).name().toLowerCase()).increment();
+        }
+        logger.warn("Generation queue is full, shed {} queued jobs for {} work", shed.size(), priorityClass);
+        return generationRequestRepository.saveAll(shed);
+    }
+
+    /**
+     * Claims up to the node's free slots of PENDING jobs, marking them PROCESSING under this node's lease
+     */
+    public List<GenerationRequest> claim() {
+        int free = slots - claimed.size();
+        if (free <= 0) {
+            return List.of();
+        }
+
+        // Tracked only once the claim has committed, so a failed claim cannot leak slots
+        List<GenerationRequest> jobs = transactionTemplate.execute(status -> {
+            List<GenerationRequest> locked = generationRequestRepository.lockNext(GenerationStatus.PENDING,
+                    PageRequest.of(0, free));
+            if (locked.isEmpty()) {
+                return locked;
+            }
+            for (GenerationRequest job : locked) {
+                job.setStatus(GenerationStatus.PROCESSING);
+                job.setLeaseOwner(nodeId);
+                job.setAttempts((job.getAttempts() != null ? job.getAttempts() : 0) + 1);
+            }
+            List<GenerationRequest> saved = generationRequestRepository.saveAllAndFlush(locked);
+            startLeases(saved.stream().map(GenerationRequest::getRequestId).toList());
+            return saved;
+        });
+        if (jobs == null) {
+            return List.of();
+        }
+        for (GenerationRequest job : jobs) {
+            leased.add(job.getRequestId());
+            claimed.add(job.getRequestId());
+        }
+        return jobs;
+    }
+
+    /**
+     * Saves a job this node starts working on directly (not through the queue) under its lease,
+     * so the job is recovered by another node if this one dies. Throws TaskRejectedException when
+     * the job's class already holds as many jobs as it may.
+     */
+    public GenerationRequest hold(GenerationRequest job) {
+        GenerationScheduler.PriorityClass priorityClass = classOf(job);
+        AtomicInteger heldCount = heldCounts.get(priorityClass);
+        int limit = priorityClass == GenerationScheduler.PriorityClass.ANONYMOUS ? anonymousMaxHeld : maxHeld;
+        if (heldCount.incrementAndGet() > limit) {
+            heldCount.decrementAndGet();
+            throw rejected(priorityClass);
+        }
+
+        GenerationRequest saved;
+        try {
+            saved = transactionTemplate.execute(status -> {
+                job.setLeaseOwner(nodeId);
+                job.setAttempts(1);
+                GenerationRequest heldJob = generationRequestRepository.saveAndFlush(job);
+                startLeases(List.of(heldJob.getRequestId()));
+                return heldJob;
+            });
+        } catch (RuntimeException e) {
+            heldCount.decrementAndGet();
+            throw e;
+        }
+        held.put(saved.getRequestId(), priorityClass);
+        leased.add(saved.getRequestId());
+        return saved;
+    }
+
+    /**
+     * Records the job's final state, provided this node still holds its lease. Returns false when
+     * the lease was lost (the job was recovered and may be running elsewhere): then nothing is
+     * written, and the caller must not report this run's outcome.
+     */
+    public boolean finish(GenerationRequest job, GenerationStatus status, String errorMessage) {
+        forget(job);
+        LocalDateTime completedAt = LocalDateTime.now();
+        int updated = generationRequestRepository.finishLease(job.getRequestId(), nodeId,
+                GenerationStatus.PROCESSING, status, errorMessage, completedAt);
+        if (updated == 0) {
+            logger.warn("Lost the lease on generation job {}, dropping its {} outcome", job.getRequestId(), status);
+            return false;
+        }
+        job.setStatus(status);
+        job.setErrorMessage(errorMessage);
+        job.setCompletedAt(completedAt);
+        job.setLeaseOwner(null);
+        job.setLeaseExpiresAt(null);
+        return true;
+    }
+
+    /**
+     * Hands claimed jobs back to the queue, e.g. when this node cannot run them after all.
+     * Jobs whose lease was lost meanwhile are left to whoever holds them now.
+     */
+    public void requeue(List<GenerationRequest> jobs) {
+        jobs.forEach(this::forget);
+        int requeued = generationRequestRepository.requeueLeases(
+                jobs.stream().map(GenerationRequest::getRequestId).toList(), nodeId,
+                GenerationStatus.PROCESSING, GenerationStatus.PENDING);
+        if (requeued < jobs.size()) {
+            logger.warn("Lost the lease on {} of {} generation jobs being requeued", jobs.size() - requeued, jobs.size());
+        }
+        for (GenerationRequest job : jobs) {
+            job.setStatus(GenerationStatus.PENDING);
+            job.setLeaseOwner(null);
+            job.setLeaseExpiresAt(null);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ai.generation.queue.heartbeat-ms:15000}")
+    public void heartbeat() {
+        if (leased.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = List.copyOf(leased);
+        int extended = generationRequestRepository.extendLeases(ids, nodeId, GenerationStatus.PROCESSING.name(),
+                leaseMs);
+        if (extended < ids.size()) {
+            // Recovered elsewhere after a missed heartbeat; finish() drops this node's outcome for them
+            logger.warn("Lost the lease on {} of {} generation jobs", ids.size() - extended, ids.size());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ai.generation.queue.recovery-interval-ms:30000}")
+    public void recoverExpiredLeases() {
+        int failed = generationRequestRepository.failExpiredLeases(GenerationStatus.PROCESSING.name(),
+                GenerationStatus.FAILED.name(), LocalDateTime.now(), maxAttempts,
+                "Generation was abandoned by its worker " + maxAttempts + " times");
+        int requeued = generationRequestRepository.requeueExpiredLeases(GenerationStatus.PROCESSING.name(),
+                GenerationStatus.PENDING.name(), maxAttempts);
+
+        if (failed > 0 || requeued > 0) {
+            meterRegistry.counter("ai.generation.queue.recovered", "outcome", "requeued").increment(requeued);
+            meterRegistry.counter("ai.generation.queue.recovered", "outcome", "failed").increment(failed);
+            logger.warn("Recovered generation jobs with expired leases: {} requeued, {} failed", requeued, failed);
+        }
+    }
+
+    /**
+     * The requester a queued job was submitted by; jobs from before the queue had classes count as authenticated
+     */
+    public static GenerationScheduler.Requester requesterOf(GenerationRequest job) {
+        String key = job.getRequesterKey() != null ? job.getRequesterKey()
+                : job.getUserId() != null ? "user-" + job.getUserId() : "anonymous";
+        return new GenerationScheduler.Requester(classOf(job), key);
+    }
+
+    private static GenerationScheduler.PriorityClass classOf(GenerationRequest job) {
+        GenerationScheduler.PriorityClass[] classes = GenerationScheduler.PriorityClass.values();
+        Integer priority = job.getPriority();
+        return priority != null && priority >= 0 && priority < classes.length
+                ? classes[priority] : GenerationScheduler.PriorityClass.AUTHENTICATED;
+    }
+
+    // The expiry comes from the database clock rather than this node's
+    private void startLeases(List<Integer> ids) {
+        generationRequestRepository.extendLeases(ids, nodeId, GenerationStatus.PROCESSING.name(), leaseMs);
+    }
+
+    private void forget(GenerationRequest job) {
+        if (job.getRequestId() != null) {
+            leased.remove(job.getRequestId());
+            claimed.remove(job.getRequestId());
+            GenerationScheduler.PriorityClass heldClass = held.remove(job.getRequestId());
+            if (heldClass != null) {
+                heldCounts.get(heldClass).decrementAndGet();
+            }
+        }
+    }
+
+    private TaskRejectedException rejected(GenerationScheduler.PriorityClass priorityClass) {
+        meterRegistry.counter("ai.generation.queue.rejected", "class", priorityClass.name().toLowerCase()).increment();
+        return new TaskRejectedException("Generation queue is full");
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        // A fresh suffix per start, so leases of a crashed previous run are never mistaken for ours
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,326 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+import org.springframework.stereotype.Service;
+import ru.itmo.kursach_back.util.AuthAuthority;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fair-share queue in front of the generation worker pool, ordering the jobs this node has claimed
+ * from GenerationQueue (which claims highest class first). Work is queued per priority class
+ * (admin, authenticated, anonymous) and per requester, and dispatched by two-level deficit
+ * round-robin: classes share workers by weight, requesters of a class share their class equally,
+ * so one user's burst cannot starve the others. When the queue is full, the newest work of the
+ * lowest class below the newcomer is shed to make room.
+ */
+@Service
+public class GenerationScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationScheduler.class);
+
+    // Deficit added to a requester per round; a batch of n variants costs n
+    private static final int REQUESTER_QUANTUM = 1;
+
+    public enum PriorityClass {
+        ADMIN, AUTHENTICATED, ANONYMOUS
+    }
+
+    /**
+     * Who the work is for: anonymous requesters are keyed by client address (behind the reverse proxy,
+     * the forwarded one; see server.forward-headers-strategy)
+     */
+    public record Requester(PriorityClass priorityClass, String key) {
+    }
+
+    private static final class Task {
+        final Requester requester;
+        final int cost;
+        final Runnable work;
+        final Runnable onShed;
+
+        Task(Requester requester, int cost, Runnable work, Runnable onShed) {
+            this.requester = requester;
+            this.cost = Math.max(1, cost);
+            this.work = work;
+            this.onShed = onShed;
+        }
+    }
+
+    private static final class RequesterQueue {
+        final String key;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        long deficit;
+        boolean credited;
+
+        RequesterQueue(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class ClassQueue {
+        final PriorityClass priorityClass;
+        final int weight;
+        final Map<String, RequesterQueue> requesters = new HashMap<>();
+        final ArrayDeque<RequesterQueue> active = new ArrayDeque<>();
+        int queued;
+        long deficit;
+        boolean credited;
+
+        ClassQueue(PriorityClass priorityClass, int weight) {
+            this.priorityClass = priorityClass;
+            this.weight = Math.max(1, weight);
+        }
+    }
+
+    private final TaskExecutor generationExecutor;
+    private final MeterRegistry meterRegistry;
+    private final int capacity;
+    private final int anonymousCapacity;
+
+    // Guarded by itself
+    private final Map<PriorityClass, ClassQueue> classes = new EnumMap<>(PriorityClass.class);
+    private final ArrayDeque<ClassQueue> activeClasses = new ArrayDeque<>();
+    private int queued;
+
+    public GenerationScheduler(@Qualifier("generationExecutor") TaskExecutor generationExecutor,
+                               MeterRegistry meterRegistry,
+                               @Value("${ai.generation.worker.queue-capacity:50}") int capacity,
+                               @Value("${ai.generation.scheduler.anonymous-queue-share:0.5}") double anonymousShare,
+                               @Value("${ai.generation.scheduler.weight.admin:4}") int adminWeight,
+                               @Value("${ai.generation.scheduler.weight.authenticated:2}") int authenticatedWeight,
+                               @Value("${ai.generation.scheduler.weight.anonymous:1}") int anonymousWeight) {
+        this.generationExecutor = generationExecutor;
+        this.meterRegistry = meterRegistry;
+        this.capacity = Math.max(1, capacity);
+        this.anonymousCapacity = Math.max(1, (int) (this.capacity * anonymousShare));
+
+        classes.put(PriorityClass.ADMIN, new ClassQueue(PriorityClass.ADMIN, adminWeight));
+        classes.put(PriorityClass.AUTHENTICATED, new ClassQueue(PriorityClass.AUTHENTICATED, authenticatedWeight));
+        classes.put(PriorityClass.ANONYMOUS, new ClassQueue(PriorityClass.ANONYMOUS, anonymousWeight));
+
+        for (ClassQueue classQueue : classes.values()) {
+            Gauge.builder("ai.generation.scheduler.queued", classQueue, this::queuedOf)
+                    .description("Generation work waiting for a worker")
+                    .tag("class", classQueue.priorityClass.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * The requester of the current request, from the security context
+     */
+    public static Requester currentRequester() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()
+                || authentication instanceof AnonymousAuthenticationToken) {
+            String address = authentication != null
+                    && authentication.getDetails() instanceof WebAuthenticationDetails details
+                    ? details.getRemoteAddress() : null;
+            return new Requester(PriorityClass.ANONYMOUS, address != null ? address : "anonymous");
+        }
+
+        boolean admin = authentication.getAuthorities().stream()
+                .anyMatch(authority -> AuthAuthority.ADMIN.name().equals(authority.getAuthority()));
+        return new Requester(admin ? PriorityClass.ADMIN : PriorityClass.AUTHENTICATED, authentication.getName());
+    }
+
+    /**
+     * Queues {@code work} (costing {@code cost} generations) for a worker. {@code onShed} runs if the
+     * work is later dropped for higher-priority work. Throws TaskRejectedException when there is no room.
+     */
+    public void submit(Requester requester, int cost, Runnable work, Runnable onShed) {
+        Task task = new Task(requester, cost, work, onShed);
+        Task shed = null;
+
+        synchronized (classes) {
+            ClassQueue classQueue = classes.get(requester.priorityClass());
+            boolean classFull = requester.priorityClass() == PriorityClass.ANONYMOUS
+                    && classQueue.queued >= anonymousCapacity;
+
+            if (queued >= capacity || classFull) {
+                shed = classFull ? null : shedBelow(requester.priorityClass());
+                if (shed == null) {
+                    meterRegistry.counter("ai.generation.scheduler.rejected",
+                            "class", requester.priorityClass().name().toLowerCase()).increment();
+                    throw new TaskRejectedException("Generation queue is full");
+                }
+            }
+            enqueue(task);
+        }
+
+        if (shed != null) {
+            // The shed task's dispatch token now serves the new one
+            logger.warn("Generation queue is full, shed {} work of {} for {}",
+                    shed.requester.priorityClass(), shed.requester.key(), requester.priorityClass());
+            shed.onShed.run();
+            return;
+        }
+
+        try {
+            generationExecutor.execute(this::runNext);
+        } catch (TaskRejectedException e) {
+            synchronized (classes) {
+                remove(task);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * One dispatch token: runs whichever queued work is due, not necessarily the work that posted it
+     */
+    private void runNext() {
+        Task task;
+        synchronized (classes) {
+            task = next();
+        }
+        if (task != null) {
+            task.work.run();
+        }
+    }
+
+    private void enqueue(Task task) {
+        ClassQueue classQueue = classes.get(task.requester.priorityClass());
+        RequesterQueue requesterQueue = classQueue.requesters.computeIfAbsent(task.requester.key(), RequesterQueue::new);
+        if (requesterQueue.tasks.isEmpty()) {
+            classQueue.active.addLast(requesterQueue);
+        }
+        requesterQueue.tasks.addLast(task);
+
+        if (classQueue.queued == 0) {
+            activeClasses.addLast(classQueue);
+        }
+        classQueue.queued++;
+        queued++;
+    }
+
+    /**
+     * Deficit round-robin over classes (quantum = class weight), then over the class's requesters
+     */
+    private Task next() {
+        while (!activeClasses.isEmpty()) {
+            ClassQueue classQueue = activeClasses.peekFirst();
+            if (!classQueue.credited) {
+                classQueue.deficit += classQueue.weight;
+                classQueue.credited = true;
+            }
+
+            // The class is charged for the task its requester round-robin picks, not its first requester's
+            RequesterQueue requesterQueue = dueRequester(classQueue);
+            Task task = requesterQueue.tasks.peekFirst();
+            if (task.cost > classQueue.deficit) {
+                activeClasses.pollFirst();
+                classQueue.credited = false;
+                activeClasses.addLast(classQueue);
+                continue;
+            }
+
+            requesterQueue.tasks.pollFirst();
+            requesterQueue.deficit -= task.cost;
+            if (requesterQueue.tasks.isEmpty()) {
+                classQueue.active.pollFirst();
+                classQueue.requesters.remove(requesterQueue.key);
+            }
+            classQueue.deficit -= task.cost;
+            classQueue.queued--;
+            queued--;
+            if (classQueue.queued == 0) {
+                activeClasses.pollFirst();
+                classQueue.deficit = 0;
+                classQueue.credited = false;
+            }
+            return task;
+        }
+        return null;
+    }
+
+    /**
+     * The requester whose first task is due in the class's round-robin. Only rotates and credits
+     * requesters, so asking again while the class waits for deficit returns the same one.
+     */
+    private RequesterQueue dueRequester(ClassQueue classQueue) {
+        while (true) {
+            RequesterQueue requesterQueue = classQueue.active.peekFirst();
+            if (!requesterQueue.credited) {
+                requesterQueue.deficit += REQUESTER_QUANTUM;
+                requesterQueue.credited = true;
+            }
+
+            Task task = requesterQueue.tasks.peekFirst();
+            if (task.cost > requesterQueue.deficit) {
+                classQueue.active.pollFirst();
+                requesterQueue.credited = false;
+                classQueue.active.addLast(requesterQueue);
+                continue;
+            }
+
+            return requesterQueue;
+        }
+    }
+
+    /**
+     * Removes the newest work of the requester with the most queued work in the lowest class
+     * below {@code priorityClass}, or returns null if there is none.
+     */
+    private Task shedBelow(PriorityClass priorityClass) {
+        PriorityClass[] order = PriorityClass.values();
+        for (int i = order.length - 1; i > priorityClass.ordinal(); i--) {
+            ClassQueue classQueue = classes.get(order[i]);
+            RequesterQueue largest = null;
+            for (RequesterQueue requesterQueue : classQueue.active) {
+                if (largest == null || requesterQueue.tasks.size() > largest.tasks.size()) {
+                    largest = requesterQueue;
+                }
+            }
+            if (largest != null) {
+                Task shed = largest.tasks.peekLast();
+                remove(shed);
+                meterRegistry.counter("ai.generation.scheduler.shed",
+                        "class", order[i].name().toLowerCase()).increment();
+                return shed;
+            }
+        }
+        return null;
+    }
+
+    private void remove(Task task) {
+        ClassQueue classQueue = classes.get(task.requester.priorityClass());
+        RequesterQueue requesterQueue = classQueue.requesters.get(task.requester.key());
+        if (requesterQueue == null || !requesterQueue.tasks.removeLastOccurrence(task)) {
+            return;
+        }
+
+        if (requesterQueue.tasks.isEmpty()) {
+            classQueue.active.remove(requesterQueue);
+            classQueue.requesters.remove(requesterQueue.key);
+        }
+        classQueue.queued--;
+        queued--;
+        if (classQueue.queued == 0) {
+            activeClasses.remove(classQueue);
+            classQueue.deficit = 0;
+            classQueue.credited = false;
+        }
+    }
+
+    private double queuedOf(ClassQueue classQueue) {
+        synchronized (classes) {
+            return classQueue.queued;
+        }
+    }
+}
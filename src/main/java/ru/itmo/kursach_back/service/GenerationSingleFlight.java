@@ -0,0 +1,96 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces identical generations that are in flight at the same time. The first caller for a key
+ * becomes the leader and calls the provider; callers arriving before it finishes follow it and
+ * receive the same stored image id, or the same failure. A leader that gives up without an outcome
+ * (its client went away) abandons the flight: followers then join again or go back to the queue.
+ */
+@Service
+public class GenerationSingleFlight {
+
+    private final Map<String, CompletableFuture<Integer>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter leaders;
+    private final Counter followers;
+
+    /**
+     * One caller's membership in a flight; only the leader may complete or fail it
+     */
+    public record Flight(String key, CompletableFuture<Integer> result, boolean leader) {
+    }
+
+    /**
+     * Received by followers of an abandoned flight; the generation itself did not fail
+     */
+    public static class AbandonedException extends RuntimeException {
+        public AbandonedException(String message) {
+            super(message);
+        }
+    }
+
+    public GenerationSingleFlight(MeterRegistry meterRegistry) {
+        this.leaders = Counter.builder("ai.generation.singleflight")
+                .tag("role", "leader")
+                .description("Generations that called the provider vs. joined an identical one in flight")
+                .register(meterRegistry);
+        this.followers = Counter.builder("ai.generation.singleflight")
+                .tag("role", "follower")
+                .description("Generations that called the provider vs. joined an identical one in flight")
+                .register(meterRegistry);
+        meterRegistry.gauge("ai.generation.singleflight.inflight", inFlight, Map::size);
+    }
+
+    public Flight join(String key) {
+        CompletableFuture<Integer> created = new CompletableFuture<>();
+        CompletableFuture<Integer> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            followers.increment();
+            return new Flight(key, existing, false);
+        }
+        leaders.increment();
+        return new Flight(key, created, true);
+    }
+
+    /**
+     * Publishes the stored image to all followers. The key is released first, so later callers
+     * go through the generation cache instead of joining a finished flight.
+     */
+    public void complete(Flight flight, Integer imageId) {
+        if (flight.leader()) {
+            inFlight.remove(flight.key(), flight.result());
+            flight.result().complete(imageId);
+        }
+    }
+
+    public void fail(Flight flight, Throwable e) {
+        if (flight.leader()) {
+            inFlight.remove(flight.key(), flight.result());
+            flight.result().completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Releases the key without an outcome; followers receive AbandonedException
+     */
+    public void abandon(Flight flight) {
+        if (flight.leader()) {
+            inFlight.remove(flight.key(), flight.result());
+            flight.result().completeExceptionally(new AbandonedException("Identical generation was cancelled by its client"));
+        }
+    }
+
+    public static boolean isAbandoned(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof AbandonedException;
+    }
+}
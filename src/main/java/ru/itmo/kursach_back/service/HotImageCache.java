@@ -0,0 +1,381 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.itmo.kursach_back.service.storage.ImageStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of popular image files in direct (off-heap) buffers, bounded by total bytes, plus a small
+ * on-heap cache of their metadata by image id and requested width. Admission follows W-TinyLFU:
+ * access frequencies are estimated by a count-min sketch; content is loaded on its second recent
+ * access into a small LRU window, and leaves the window for the main LRU region only if it is
+ * accessed more often than the entries it would evict there. Each key is loaded by one request at
+ * a time, and loads in progress reserve their bytes against the window, so buffers the cache still
+ * references never exceed max-bytes plus one window. Evicted buffers are only freed once the GC
+ * collects them, so under churn the process holds more direct memory than that: size
+ * {@code -XX:MaxDirectMemorySize} for about twice max-bytes on top of what the web server needs,
+ * and keep explicit GC enabled, since reaching the limit is what makes the JVM collect them. A
+ * load that still hits the limit is served from storage instead of being cached.
+ */
+@Service
+public class HotImageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotImageCache.class);
+
+    // Accesses (per sketch estimate) before content is worth loading into the cache
+    private static final int ADMISSION_FREQUENCY = 2;
+    // Rough average entry size, used to size the frequency sketch
+    private static final long EXPECTED_ENTRY_BYTES = 256 * 1024;
+    // Widths remembered per image, so arbitrary ?w= values cannot grow the metadata cache
+    private static final int MAX_WIDTHS_PER_IMAGE = 8;
+
+    private record Entry(ByteBuffer bytes, int size) {
+    }
+
+    private record Metadata(StoredImage image, long cachedAt) {
+    }
+
+    private final ImageStorage imageStorage;
+    private final boolean enabled;
+    private final long maxEntryBytes;
+    private final long windowMaxBytes;
+    private final long mainMaxBytes;
+    private final int metadataMaxEntries;
+    private final long metadataTtlMs;
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long windowBytes;
+    private long mainBytes;
+    // Keys being loaded and the bytes reserved for them
+    private final Set<String> loading = new HashSet<>();
+    private long loadingBytes;
+
+    // Keyed by image id, then by requested width (0 for the original); guarded by itself
+    private final LinkedHashMap<Integer, Map<Integer, Metadata>> metadata = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Counter rejections;
+
+    public HotImageCache(ImageStorage imageStorage,
+                         MeterRegistry meterRegistry,
+                         @Value("${images.cache.enabled:true}") boolean enabled,
+                         @Value("${images.cache.max-bytes:268435456}") long maxBytes,
+                         @Value("${images.cache.max-entry-bytes:8388608}") long maxEntryBytes,
+                         @Value("${images.cache.window-share:0.01}") double windowShare,
+                         @Value("${images.cache.metadata-max-entries:10000}") int metadataMaxEntries,
+                         @Value("${images.cache.metadata-ttl-ms:60000}") long metadataTtlMs) {
+        this.imageStorage = imageStorage;
+        this.enabled = enabled && maxBytes > 0;
+        this.windowMaxBytes = Math.max(maxEntryBytes, (long) (maxBytes * windowShare));
+        this.mainMaxBytes = Math.max(0, maxBytes - windowMaxBytes);
+        this.maxEntryBytes = Math.min(maxEntryBytes, Math.max(mainMaxBytes, 1));
+        this.metadataMaxEntries = metadataMaxEntries;
+        this.metadataTtlMs = metadataTtlMs;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxBytes / EXPECTED_ENTRY_BYTES)));
+
+        this.hits = Counter.builder("images.cache.requests").tag("result", "hit")
+                .description("Image file reads served from the hot image cache")
+                .register(meterRegistry);
+        this.misses = Counter.builder("images.cache.requests").tag("result", "miss")
+                .description("Image file reads served from the hot image cache")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("images.cache.evictions")
+                .description("Images dropped from the hot image cache to make room")
+                .register(meterRegistry);
+        this.rejections = Counter.builder("images.cache.admission.rejected")
+                .description("Images not kept because they were accessed less often than the ones they would evict")
+                .register(meterRegistry);
+        Gauge.builder("images.cache.resident.bytes", this, cache -> cache.residentBytes())
+                .description("Off-heap bytes held by the hot image cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("images.cache.entries", this, cache -> cache.entries())
+                .description("Images held by the hot image cache")
+                .register(meterRegistry);
+        Gauge.builder("images.cache.hit.ratio", this, cache -> cache.hitRatio())
+                .description("Share of image file reads served from the hot image cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Cached metadata of an image at a requested width (null for the original), or null
+     */
+    public StoredImage metadata(Integer imageId, Integer width) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (metadata) {
+            Map<Integer, Metadata> widths = metadata.get(imageId);
+            Metadata cached = widths != null ? widths.get(width != null ? width : 0) : null;
+            if (cached == null || System.currentTimeMillis() - cached.cachedAt() > metadataTtlMs) {
+                return null;
+            }
+            return cached.image();
+        }
+    }
+
+    public void putMetadata(Integer imageId, Integer width, StoredImage image) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (metadata) {
+            Map<Integer, Metadata> widths = metadata.computeIfAbsent(imageId, id -> new LinkedHashMap<>());
+            widths.put(width != null ? width : 0, new Metadata(image, System.currentTimeMillis()));
+            if (widths.size() > MAX_WIDTHS_PER_IMAGE) {
+                widths.remove(widths.keySet().iterator().next());
+            }
+            if (metadata.size() > metadataMaxEntries) {
+                Iterator<Integer> eldest = metadata.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets an image's metadata, e.g. after it was deleted or its visibility changed
+     */
+    public void invalidate(Integer imageId) {
+        synchronized (metadata) {
+            metadata.remove(imageId);
+        }
+    }
+
+    /**
+     * The image's bytes as a read-only buffer, or null when the image is not (yet) worth caching
+     * and should be served from its file. Content is loaded here once its access frequency
+     * qualifies it for the admission window.
+     */
+    public ByteBuffer bytes(StoredImage image) {
+        if (!enabled || image.size() > maxEntryBytes) {
+            return null;
+        }
+
+        String key = keyOf(image);
+        synchronized (this) {
+            sketch.increment(key);
+            Entry entry = window.get(key);
+            if (entry == null) {
+                entry = main.get(key);
+            }
+            if (entry != null) {
+                hits.increment();
+                return entry.bytes().duplicate();
+            }
+            misses.increment();
+            // Requests arriving while the key loads, or when the reservation is used up, read the file
+            if (sketch.frequency(key) < ADMISSION_FREQUENCY || loading.contains(key)
+                    || loadingBytes + image.size() > windowMaxBytes) {
+                return null;
+            }
+            loading.add(key);
+            loadingBytes += image.size();
+        }
+
+        Entry loaded = null;
+        try {
+            loaded = load(image);
+        } finally {
+            synchronized (this) {
+                loading.remove(key);
+                loadingBytes -= image.size();
+                if (loaded != null && !window.containsKey(key) && !main.containsKey(key)) {
+                    window.put(key, loaded);
+                    windowBytes += loaded.size();
+                    evictFromWindow();
+                }
+            }
+        }
+        return loaded != null ? loaded.bytes().duplicate() : null;
+    }
+
+    /**
+     * Moves window overflow to the main region, where each candidate must be accessed more often
+     * than the least recently used entries it displaces
+     */
+    private void evictFromWindow() {
+        while (windowBytes > windowMaxBytes && !window.isEmpty()) {
+            Iterator<Map.Entry<String, Entry>> eldest = window.entrySet().iterator();
+            Map.Entry<String, Entry> candidate = eldest.next();
+            eldest.remove();
+            windowBytes -= candidate.getValue().size();
+            admitToMain(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    private void admitToMain(String key, Entry candidate) {
+        if (candidate.size() > mainMaxBytes) {
+            rejections.increment();
+            return;
+        }
+
+        int candidateFrequency = sketch.frequency(key);
+        long freed = 0;
+        Iterator<Map.Entry<String, Entry>> victims = main.entrySet().iterator();
+        // Check the victims first, so a rejected candidate evicts nothing
+        while (mainBytes - freed + candidate.size() > mainMaxBytes) {
+            Map.Entry<String, Entry> victim = victims.next();
+            if (sketch.frequency(victim.getKey()) >= candidateFrequency) {
+                rejections.increment();
+                return;
+            }
+            freed += victim.getValue().size();
+        }
+
+        Iterator<Map.Entry<String, Entry>> evict = main.entrySet().iterator();
+        while (freed > 0) {
+            Entry victim = evict.next().getValue();
+            evict.remove();
+            mainBytes -= victim.size();
+            freed -= victim.size();
+            evictions.increment();
+        }
+        main.put(key, candidate);
+        mainBytes += candidate.size();
+    }
+
+    /**
+     * Reads the file straight into a direct buffer; released memory returns once the buffer is collected
+     */
+    private Entry load(StoredImage image) {
+        Path local = imageStorage.localPath(image.storageKey());
+        try {
+            if (local != null) {
+                try (FileChannel channel = FileChannel.open(local, StandardOpenOption.READ)) {
+                    return read(channel, channel.size());
+                }
+            }
+            // Remote storage: sized by the metadata, so the object is fetched with a single GET
+            try (InputStream in = imageStorage.open(image.storageKey());
+                 ReadableByteChannel channel = Channels.newChannel(in)) {
+                return read(channel, image.size());
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to load image {} into the hot image cache: {}", image.imageId(), e.getMessage());
+            return null;
+        } catch (OutOfMemoryError e) {
+            // Direct memory limit reached even after collecting evicted buffers
+            logger.warn("No direct memory left to cache image {}: {}", image.imageId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private Entry read(ReadableByteChannel channel, long size) throws IOException {
+        if (size > maxEntryBytes) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Keep reading until the buffer is full or the file ends
+        }
+        buffer.flip();
+        return new Entry(buffer.asReadOnlyBuffer(), buffer.remaining());
+    }
+
+    private static String keyOf(StoredImage image) {
+        return image.contentHash() != null ? image.contentHash() : image.storageKey();
+    }
+
+    private synchronized double residentBytes() {
+        return windowBytes + mainBytes;
+    }
+
+    private synchronized double entries() {
+        return window.size() + main.size();
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters (depth 4). All counters are halved after a sample of
+     * increments, so the estimates follow recent popularity rather than all-time totals.
+     */
+    private static final class FrequencySketch {
+
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(16, expectedEntries - 1)) << 1;
+            this.counters = new byte[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = indexOf(hash, i);
+                if (counters[i][index] < MAX_COUNT) {
+                    counters[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, counters[i][indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) (row[i] >>> 1);
+                }
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x45D9F3B;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x7FEB352D;
+            return hash ^ (hash >>> 15);
+        }
+    }
+}
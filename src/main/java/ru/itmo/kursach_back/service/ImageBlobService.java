@@ -0,0 +1,282 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.itmo.kursach_back.entity.ImageBlob;
+import ru.itmo.kursach_back.entity.ImageData;
+import ru.itmo.kursach_back.repository.ImageBlobRepository;
+import ru.itmo.kursach_back.repository.ImageDataRepository;
+import ru.itmo.kursach_back.service.storage.ImageStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Content-addressed store for image files. Content is hashed (SHA-256) while it is streamed to a
+ * temporary file and then put into ImageStorage under a key derived from the hash; identical
+ * content is kept once, shared through a reference count, and its file (with its derivatives) is
+ * deleted when the last reference is released.
+ */
+@Service
+public class ImageBlobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageBlobService.class);
+
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageDataRepository<ImageData, Integer> imageDataRepository;
+    private final ImageDerivativeService imageDerivativeService;
+    private final ImageStorage imageStorage;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Counter storedNew;
+    private final Counter storedDuplicate;
+
+    public ImageBlobService(ImageBlobRepository imageBlobRepository,
+                            ImageDataRepository<ImageData, Integer> imageDataRepository,
+                            ImageDerivativeService imageDerivativeService,
+                            ImageStorage imageStorage,
+                            EntityManager entityManager,
+                            TransactionTemplate transactionTemplate,
+                            MeterRegistry meterRegistry) {
+        this.imageBlobRepository = imageBlobRepository;
+        this.imageDataRepository = imageDataRepository;
+        this.imageDerivativeService = imageDerivativeService;
+        this.imageStorage = imageStorage;
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+
+        this.storedNew = Counter.builder("images.blobs.stored")
+                .tag("outcome", "new")
+                .description("Stored images by whether their content was already present")
+                .register(meterRegistry);
+        this.storedDuplicate = Counter.builder("images.blobs.stored")
+                .tag("outcome", "duplicate")
+                .description("Stored images by whether their content was already present")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Stores the content and returns its blob with one more reference. Content already stored is
+     * not written again. References and the blob row are taken under the hash's database lock (see
+     * ImageBlobRepository.lockHash), so a blob another node is deleting is never re-referenced; the
+     * file is put before that, so no connection or lock is held during a (possibly remote) upload.
+     */
+    public ImageBlob store(InputStream content, String mimeType) throws IOException {
+        Path temp = Files.createTempFile("upload-", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (InputStream in = new DigestInputStream(content, digest)) {
+                size = Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+
+            ImageBlob existing = locked(hash, () -> referenced(hash));
+            if (existing != null) {
+                storedDuplicate.increment();
+                return existing;
+            }
+
+            // The key is derived from the content, so concurrent uploads of it write the same bytes
+            String key = ImageStorage.keyOf(hash, extensionOf(mimeType));
+            imageStorage.put(key, temp, mimeType);
+
+            AtomicBoolean created = new AtomicBoolean();
+            ImageBlob stored = locked(hash, () -> {
+                ImageBlob raced = referenced(hash);
+                if (raced != null) {
+                    // Stored meanwhile under another extension: this upload is not referenced
+                    if (!key.equals(raced.getStoragePath())) {
+                        deleteQuietly(key);
+                    }
+                    return raced;
+                }
+                // A blob of the same content stored and released meanwhile took the file with it
+                if (!imageStorage.exists(key)) {
+                    throw new IOException("Image file " + key + " was deleted while being stored, try again");
+                }
+
+                ImageBlob blob = new ImageBlob();
+                blob.setContentHash(hash);
+                blob.setStoragePath(key);
+                blob.setSize(size);
+                blob.setMimeType(mimeType);
+                blob.setRefCount(1);
+                blob.setCreatedAt(LocalDateTime.now());
+                entityManager.persist(blob);
+                created.set(true);
+                return blob;
+            });
+            if (created.get()) {
+                storedNew.increment();
+                imageDerivativeService.createAsync(stored);
+            } else {
+                storedDuplicate.increment();
+            }
+            return stored;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * The blob with one more reference, or null if there is none; call under the hash's lock
+     */
+    private ImageBlob referenced(String hash) {
+        if (imageBlobRepository.addReference(hash) == 0) {
+            return null;
+        }
+        return imageBlobRepository.findById(hash)
+                .orElseThrow(() -> new RuntimeException("Image blob " + hash + " disappeared"));
+    }
+
+    /**
+     * Takes one more reference to a stored blob; false if it was deleted meanwhile
+     */
+    public boolean addReference(String hash) {
+        try {
+            return locked(hash, () -> imageBlobRepository.addReference(hash) > 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Drops one reference to the blob, deleting its file and derivatives if that was the last one
+     */
+    public void release(String hash) {
+        try {
+            locked(hash, () -> {
+                ImageBlob blob = imageBlobRepository.findById(hash).orElse(null);
+                if (blob == null) {
+                    return null;
+                }
+                imageBlobRepository.removeReference(hash);
+                if (imageBlobRepository.deleteIfUnreferenced(hash) == 0) {
+                    return null;
+                }
+                imageDerivativeService.deleteDerivatives(hash);
+                deleteQuietly(blob.getStoragePath());
+                return null;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copies a blob still kept in the legacy flat directory into ImageStorage, then points the blob
+     * and its images at the new key. Returns the legacy file, left for the caller to delete once
+     * no node serves it from cached metadata any more; null if there was nothing to migrate. The
+     * copy is put before the hash's lock is taken; it is deleted again if the blob was released
+     * meanwhile.
+     */
+    public Path migrate(ImageBlob blob) throws IOException {
+        String hash = blob.getContentHash();
+        String legacyPath = blob.getStoragePath();
+        if (!ImageStorage.isLegacyPath(legacyPath)) {
+            return null;
+        }
+        Path legacy = Paths.get(legacyPath);
+        String key = ImageStorage.keyOf(hash, extensionOf(blob.getMimeType()));
+
+        Path temp = Files.createTempFile("migrate-", ".tmp");
+        try {
+            Files.copy(legacy, temp, StandardCopyOption.REPLACE_EXISTING);
+            imageStorage.put(key, temp, blob.getMimeType());
+        } catch (NoSuchFileException e) {
+            // Released or migrated (and the file deleted) since it was listed
+            ImageBlob current = imageBlobRepository.findById(hash).orElse(null);
+            if (current == null || !legacyPath.equals(current.getStoragePath())) {
+                return null;
+            }
+            throw e;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        return locked(hash, () -> {
+            ImageBlob current = imageBlobRepository.findById(hash).orElse(null);
+            if (current == null) {
+                deleteQuietly(key);
+                return null;
+            }
+            if (!legacyPath.equals(current.getStoragePath())) {
+                // Migrated elsewhere meanwhile, to the same key
+                return null;
+            }
+            imageBlobRepository.updateStoragePath(hash, key);
+            imageDataRepository.updateStoragePathByContentHash(hash, key);
+            return legacy;
+        });
+    }
+
+    private void deleteQuietly(String key) {
+        try {
+            imageStorage.delete(key);
+        } catch (IOException e) {
+            logger.warn("Failed to delete image blob file {}: {}", key, e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface LockedWork<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Runs the work in a transaction holding the hash's database lock
+     */
+    private <T> T locked(String hash, LockedWork<T> work) throws IOException {
+        try {
+            return transactionTemplate.execute(status -> {
+                imageBlobRepository.lockHash(hash);
+                try {
+                    return work.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String extensionOf(String mimeType) {
+        if (mimeType == null) {
+            return ".png";
+        }
+        return switch (mimeType) {
+            case "image/jpeg" -> ".jpg";
+            case "image/gif" -> ".gif";
+            case "image/webp" -> ".webp";
+            default -> ".png";
+        };
+    }
+}
@@ -0,0 +1,296 @@
+package ru.itmo.kursach_back.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.itmo.kursach_back.entity.ImageBlob;
+import ru.itmo.kursach_back.entity.ImageDerivative;
+import ru.itmo.kursach_back.repository.ImageBlobRepository;
+import ru.itmo.kursach_back.repository.ImageDerivativeRepository;
+import ru.itmo.kursach_back.service.storage.ImageStorage;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Downscaled copies of stored images in the configured widths, put into ImageStorage next to the
+ * original when new content is stored and served for {@code ?w=} requests. Opaque images become
+ * JPEG; images with transparency stay PNG. Images over the configured pixel count are not decoded,
+ * so a small file declaring huge dimensions cannot exhaust the heap.
+ */
+@Service
+public class ImageDerivativeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageDerivativeService.class);
+
+    private final ImageDerivativeRepository imageDerivativeRepository;
+    private final ImageBlobRepository imageBlobRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskExecutor imageDerivativeExecutor;
+    private final ImageStorage imageStorage;
+    private final boolean enabled;
+    private final int[] widths;
+    private final float jpegQuality;
+    private final long maxPixels;
+
+    public ImageDerivativeService(ImageDerivativeRepository imageDerivativeRepository,
+                                  ImageBlobRepository imageBlobRepository,
+                                  TransactionTemplate transactionTemplate,
+                                  @Qualifier("imageDerivativeExecutor") TaskExecutor imageDerivativeExecutor,
+                                  ImageStorage imageStorage,
+                                  @Value("${images.derivatives.enabled:true}") boolean enabled,
+                                  @Value("${images.derivatives.widths:256,512}") int[] widths,
+                                  @Value("${images.derivatives.jpeg-quality:0.82}") float jpegQuality,
+                                  @Value("${images.derivatives.max-pixels:40000000}") long maxPixels) {
+        this.imageDerivativeRepository = imageDerivativeRepository;
+        this.imageBlobRepository = imageBlobRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.imageDerivativeExecutor = imageDerivativeExecutor;
+        this.imageStorage = imageStorage;
+        this.enabled = enabled;
+        this.widths = Arrays.stream(widths).filter(width -> width > 0).sorted().distinct().toArray();
+        this.jpegQuality = jpegQuality;
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * Produces the derivatives of newly stored content in the background. Until they exist,
+     * and if producing them fails, requests are served the original.
+     */
+    public void createAsync(ImageBlob blob) {
+        if (!enabled || widths.length == 0) {
+            return;
+        }
+        try {
+            imageDerivativeExecutor.execute(() -> create(blob));
+        } catch (TaskRejectedException e) {
+            logger.warn("Skipping derivatives of image blob {}: derivative queue is full", blob.getContentHash());
+        }
+    }
+
+    /**
+     * The smallest derivative at least {@code width} wide, or null if the original is the nearest
+     */
+    public ImageDerivative nearest(String contentHash, int width) {
+        for (ImageDerivative derivative : imageDerivativeRepository.findByContentHashOrderByWidthAsc(contentHash)) {
+            if (derivative.getWidth() >= width) {
+                return derivative;
+            }
+        }
+        return null;
+    }
+
+    public void deleteDerivatives(String contentHash) {
+        for (ImageDerivative derivative : imageDerivativeRepository.findByContentHashOrderByWidthAsc(contentHash)) {
+            try {
+                imageStorage.delete(derivative.getStoragePath());
+            } catch (IOException e) {
+                logger.warn("Failed to delete image derivative {}: {}", derivative.getStoragePath(), e.getMessage());
+            }
+        }
+        imageDerivativeRepository.deleteByContentHash(contentHash);
+    }
+
+    /**
+     * Copies a derivative still kept in the legacy flat directory into ImageStorage and points it
+     * at the new key. Returns the legacy file, left for the caller to delete.
+     */
+    public Path migrate(ImageDerivative derivative) throws IOException {
+        Path legacy = Paths.get(derivative.getStoragePath());
+        String key = ImageStorage.keyOf(derivative.getContentHash(),
+                "_w" + derivative.getWidth() + extensionOf(derivative.getMimeType()));
+
+        Path temp = Files.createTempFile("migrate-", ".tmp");
+        try {
+            Files.copy(legacy, temp, StandardCopyOption.REPLACE_EXISTING);
+            imageStorage.put(key, temp, derivative.getMimeType());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        if (imageDerivativeRepository.updateStoragePath(derivative.getDerivativeId(), key) == 0) {
+            // Deleted with its blob in the meantime
+            imageStorage.delete(key);
+        }
+        return legacy;
+    }
+
+    void create(ImageBlob blob) {
+        if (!imageBlobRepository.existsById(blob.getContentHash())) {
+            return;
+        }
+        BufferedImage source;
+        try {
+            source = read(blob);
+        } catch (IOException e) {
+            logger.warn("Failed to read image blob {} for derivatives: {}", blob.getContentHash(), e.getMessage());
+            return;
+        }
+        if (source == null) {
+            // Not decoded (a format ImageIO cannot read, e.g. WebP, or too large); the original is served at every width
+            return;
+        }
+
+        boolean alpha = source.getColorModel().hasAlpha();
+        String mimeType = alpha ? "image/png" : "image/jpeg";
+        for (int width : widths) {
+            if (width >= source.getWidth()) {
+                break;
+            }
+            int height = Math.max(1, Math.round((float) source.getHeight() * width / source.getWidth()));
+            String key = ImageStorage.keyOf(blob.getContentHash(), "_w" + width + extensionOf(mimeType));
+            try {
+                long size = write(scale(source, width, height, alpha), key, mimeType);
+
+                ImageDerivative derivative = new ImageDerivative();
+                derivative.setContentHash(blob.getContentHash());
+                derivative.setWidth(width);
+                derivative.setHeight(height);
+                derivative.setMimeType(mimeType);
+                derivative.setSize(size);
+                derivative.setStoragePath(key);
+                derivative.setCreatedAt(LocalDateTime.now());
+                if (!saveIfBlobExists(derivative)) {
+                    // The blob was released while its derivatives were produced
+                    imageStorage.delete(key);
+                    return;
+                }
+            } catch (DataIntegrityViolationException e) {
+                // Produced concurrently for the same content; the file written is identical
+            } catch (Exception e) {
+                logger.warn("Failed to create {}px derivative of image blob {}: {}",
+                        width, blob.getContentHash(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Decodes the blob, or returns null when ImageIO has no reader for it or its declared
+     * dimensions exceed the pixel limit. The dimensions come from the header, before any pixels
+     * are allocated.
+     */
+    private BufferedImage read(ImageBlob blob) throws IOException {
+        try (InputStream in = imageStorage.open(blob.getStoragePath());
+             ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = stream != null ? ImageIO.getImageReaders(stream) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxPixels) {
+                    logger.warn("Skipping derivatives of image blob {}: {}x{} exceeds {} pixels",
+                            blob.getContentHash(), reader.getWidth(0), reader.getHeight(0), maxPixels);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Saves the derivative under the blob's lock (see ImageBlobRepository.lockHash), unless the blob
+     * is gone: release() deletes derivatives under the same lock, so none is left behind
+     */
+    private boolean saveIfBlobExists(ImageDerivative derivative) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            imageBlobRepository.lockHash(derivative.getContentHash());
+            if (!imageBlobRepository.existsById(derivative.getContentHash())) {
+                return false;
+            }
+            imageDerivativeRepository.save(derivative);
+            return true;
+        }));
+    }
+
+    /**
+     * Halves the size in bilinear steps down to the target, which approximates area averaging
+     * at a fraction of its cost
+     */
+    private static BufferedImage scale(BufferedImage source, int width, int height, boolean alpha) {
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight,
+                    alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                if (!alpha) {
+                    graphics.setColor(Color.WHITE);
+                    graphics.fillRect(0, 0, currentWidth, currentHeight);
+                }
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
+    }
+
+    /**
+     * Encodes into a temporary file and puts it into storage, so a derivative is never served half-written
+     */
+    private long write(BufferedImage image, String key, String mimeType) throws IOException {
+        Path temp = Files.createTempFile("derivative-", ".tmp");
+        try {
+            if ("image/png".equals(mimeType)) {
+                ImageIO.write(image, "png", temp.toFile());
+            } else {
+                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+                try (ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+                    writer.setOutput(out);
+                    writer.write(null, new IIOImage(image, null, null), param);
+                } finally {
+                    writer.dispose();
+                }
+            }
+            long size = Files.size(temp);
+            imageStorage.put(key, temp, mimeType);
+            return size;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String extensionOf(String mimeType) {
+        return "image/png".equals(mimeType) ? ".png" : ".jpg";
+    }
+}
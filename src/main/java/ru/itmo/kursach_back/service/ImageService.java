@@ -1,11 +1,23 @@
 package ru.itmo.kursach_back.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import ru.itmo.kursach_back.entity.ImageBlob;
 import ru.itmo.kursach_back.entity.ImageData;
+import ru.itmo.kursach_back.entity.ImageDerivative;
 import ru.itmo.kursach_back.repository.ImageDataRepository;
+import ru.itmo.kursach_back.service.storage.ImageStorage;
+import ru.itmo.kursach_back.service.storage.ImageStorageResource;
+import ru.itmo.kursach_back.util.AppConstants;
+import ru.itmo.kursach_back.util.ByteBufferResource;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -17,17 +29,27 @@ import java.util.stream.StreamSupport;
 @Service
 public class ImageService {
 
-    private final ImageDataRepository<ImageData, Integer> imageDataRepository;
-    private static final String UPLOAD_DIR = "uploads/images/";
+    private static final Logger logger = LoggerFactory.getLogger(ImageService.class);
 
-    public ImageService(ImageDataRepository<ImageData, Integer> imageDataRepository) {
+    private final ImageDataRepository<ImageData, Integer> imageDataRepository;
+    private final GenerationCacheService generationCacheService;
+    private final ImageBlobService imageBlobService;
+    private final ImageDerivativeService imageDerivativeService;
+    private final HotImageCache hotImageCache;
+    private final ImageStorage imageStorage;
+
+    public ImageService(ImageDataRepository<ImageData, Integer> imageDataRepository,
+                        GenerationCacheService generationCacheService,
+                        ImageBlobService imageBlobService,
+                        ImageDerivativeService imageDerivativeService,
+                        HotImageCache hotImageCache,
+                        ImageStorage imageStorage) {
         this.imageDataRepository = imageDataRepository;
-
-        try {
-            Files.createDirectories(Paths.get(UPLOAD_DIR));
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to create upload directory", e);
-        }
+        this.generationCacheService = generationCacheService;
+        this.imageBlobService = imageBlobService;
+        this.imageDerivativeService = imageDerivativeService;
+        this.hotImageCache = hotImageCache;
+        this.imageStorage = imageStorage;
     }
 
     public ImageData saveImage(MultipartFile file, Integer uploaderId, String title, String description) throws IOException {
@@ -35,28 +57,65 @@ public class ImageService {
             throw new IllegalArgumentException("Invalid file");
         }
 
-        String uuid = UUID.randomUUID().toString();
-        String originalFilename = file.getOriginalFilename();
-        String extension = originalFilename != null && originalFilename.contains(".")
-            ? originalFilename.substring(originalFilename.lastIndexOf("."))
-            : ".png";
-
-        String filename = uuid + extension;
-        Path filepath = Paths.get(UPLOAD_DIR, filename);
-
-        Files.write(filepath, file.getBytes());
+        String mimeType = file.getContentType() != null ? file.getContentType() : "image/png";
+        ImageBlob blob;
+        try (InputStream content = file.getInputStream()) {
+            blob = imageBlobService.store(content, mimeType);
+        }
 
         ImageData imageData = new ImageData();
-        imageData.setUuid(uuid);
+        imageData.setUuid(UUID.randomUUID().toString());
         imageData.setUploaderId(uploaderId);
         imageData.setTitle(title != null && !title.trim().isEmpty() ? title : "Untitled");
         imageData.setDescription(description != null ? description : "");
         imageData.setSize(Math.toIntExact(file.getSize()));
-        imageData.setMimeType(file.getContentType() != null ? file.getContentType() : "image/png");
-        imageData.setStoragePath(filepath.toString());
+        imageData.setMimeType(mimeType);
+        imageData.setStoragePath(blob.getStoragePath());
+        imageData.setContentHash(blob.getContentHash());
         imageData.setCreatedAt(LocalDateTime.now());
 
-        return imageDataRepository.save(imageData);
+        try {
+            return imageDataRepository.save(imageData);
+        } catch (RuntimeException e) {
+            imageBlobService.release(blob.getContentHash());
+            throw e;
+        }
+    }
+
+    /**
+     * An image of {@code ownerId} with the content of {@code imageId}, e.g. for a cached generation
+     * reused by another user. Other owners get their own ImageData sharing the blob, so nobody can
+     * delete or publish an image that another user's design shows. Null if the image is gone or was
+     * stored before content hashing (its file cannot be shared safely).
+     */
+    public Integer shareImage(Integer imageId, Integer ownerId) {
+        ImageData source = imageDataRepository.findById(imageId).orElse(null);
+        if (source == null) {
+            return null;
+        }
+        if (Objects.equals(source.getUploaderId(), ownerId)) {
+            return source.getImgdId();
+        }
+        if (source.getContentHash() == null || !imageBlobService.addReference(source.getContentHash())) {
+            return null;
+        }
+
+        ImageData copy = new ImageData();
+        copy.setUuid(UUID.randomUUID().toString());
+        copy.setUploaderId(ownerId);
+        copy.setTitle(source.getTitle());
+        copy.setDescription(source.getDescription());
+        copy.setSize(source.getSize());
+        copy.setMimeType(source.getMimeType());
+        copy.setStoragePath(source.getStoragePath());
+        copy.setContentHash(source.getContentHash());
+        copy.setCreatedAt(LocalDateTime.now());
+        try {
+            return imageDataRepository.save(copy).getImgdId();
+        } catch (RuntimeException e) {
+            imageBlobService.release(source.getContentHash());
+            throw e;
+        }
     }
 
     public List<Map<String, Object>> getUserImages(Integer userId) {
@@ -68,6 +127,7 @@ public class ImageService {
                     Map<String, Object> map = new HashMap<>();
                     map.put("imageId", img.getImgdId());
                     map.put("imageUrl", "/api/images/" + img.getImgdId() + "/file");
+                    map.put("thumbnailUrl", "/api/images/" + img.getImgdId() + "/file?w=" + AppConstants.GALLERY_THUMBNAIL_WIDTH);
                     map.put("title", img.getTitle() != null ? img.getTitle() : "Image " + img.getImgdId());
                     map.put("description", img.getDescription() != null ? img.getDescription() : "");
                     map.put("uploadedDate", img.getCreatedAt());
@@ -116,20 +176,65 @@ public class ImageService {
             return false;
         }
 
-        try {
-            Path filepath = Paths.get(img.getStoragePath());
-            Files.deleteIfExists(filepath);
-        } catch (IOException e) {
+        generationCacheService.invalidateImage(imageId);
+        imageDataRepository.deleteById(imageId);
+        hotImageCache.invalidate(imageId);
+
+        if (img.getContentHash() != null) {
+            imageBlobService.release(img.getContentHash());
+        } else {
+            try {
+                imageStorage.delete(img.getStoragePath());
+            } catch (IOException e) {
+                logger.warn("Failed to delete image file {}: {}", img.getStoragePath(), e.getMessage());
+            }
+        }
+
+        return true;
+    }
 
-            System.err.println("Failed to delete image file: " + e.getMessage());
+    /**
+     * Copies an image stored before content hashing from the legacy directory into the blob store,
+     * deduplicating it like a new upload. Returns the legacy file, left for the caller to delete;
+     * null if the image was deleted or migrated in the meantime.
+     */
+    public Path migrateLegacyImage(ImageData img) throws IOException {
+        Path legacy = Paths.get(img.getStoragePath());
+        ImageBlob blob;
+        try (InputStream content = Files.newInputStream(legacy)) {
+            blob = imageBlobService.store(content, img.getMimeType());
+        }
+        if (imageDataRepository.attachBlob(img.getImgdId(), blob.getContentHash(), blob.getStoragePath()) == 0) {
+            // Deleted or migrated elsewhere in the meantime
+            imageBlobService.release(blob.getContentHash());
+            return null;
         }
+        hotImageCache.invalidate(img.getImgdId());
+        return legacy;
+    }
 
-        imageDataRepository.deleteById(imageId);
+    public boolean isUploadedBy(Integer imageId, Integer userId) {
+        return imageDataRepository.findById(imageId)
+                .map(img -> Objects.equals(img.getUploaderId(), userId))
+                .orElse(false);
+    }
 
-        return true;
+    public boolean imageExists(Integer imageId) {
+        return imageId != null && imageDataRepository.existsById(imageId);
     }
 
-    public byte[] getImageFile(Integer imageId) throws IOException {
+    /**
+     * The image's file and metadata, or null for an unknown image. The file itself is not checked
+     * here, so conditional requests can be answered without touching it. With a {@code width},
+     * the smallest derivative at least that wide is returned instead, if there is one. Hot images
+     * are answered from the hot image cache without a database lookup.
+     */
+    public StoredImage getImageFile(Integer imageId, Integer width) {
+        StoredImage cached = hotImageCache.metadata(imageId, width);
+        if (cached != null) {
+            return cached;
+        }
+
         Optional<ImageData> optionalImage = imageDataRepository.findById(imageId);
 
         if (optionalImage.isEmpty()) {
@@ -137,13 +242,38 @@ public class ImageService {
         }
 
         ImageData img = optionalImage.get();
-        Path filepath = Paths.get(img.getStoragePath());
-
-        if (!Files.exists(filepath)) {
-            return null;
+        StoredImage image = null;
+        if (width != null && img.getContentHash() != null) {
+            ImageDerivative derivative = imageDerivativeService.nearest(img.getContentHash(), width);
+            if (derivative != null) {
+                image = new StoredImage(img.getImgdId(), derivative.getStoragePath(),
+                        derivative.getMimeType(), derivative.getSize(),
+                        img.getContentHash() + "-w" + derivative.getWidth(),
+                        Boolean.TRUE.equals(img.getIsPublic()), img.getCreatedAt(), derivative.getWidth());
+            }
+        }
+        if (image == null) {
+            image = new StoredImage(img.getImgdId(), img.getStoragePath(), img.getMimeType(), img.getSize(),
+                    img.getContentHash(), Boolean.TRUE.equals(img.getIsPublic()), img.getCreatedAt(), null);
         }
+        hotImageCache.putMetadata(imageId, width, image);
+        return image;
+    }
 
-        return Files.readAllBytes(filepath);
+    /**
+     * The image's content to send: its bytes in the hot image cache, its local file, or a stream
+     * from remote storage. Null when the local file is missing.
+     */
+    public Resource getImageBody(StoredImage image) {
+        ByteBuffer cached = hotImageCache.bytes(image);
+        if (cached != null) {
+            return new ByteBufferResource(cached, image);
+        }
+        Path local = imageStorage.localPath(image.storageKey());
+        if (local != null) {
+            return Files.isReadable(local) ? new FileSystemResource(local) : null;
+        }
+        return new ImageStorageResource(imageStorage, image.storageKey(), image.size());
     }
 
     public boolean validateFile(MultipartFile file) {
@@ -171,6 +301,7 @@ public class ImageService {
                     Map<String, Object> map = new HashMap<>();
                     map.put("imageId", img.getImgdId());
                     map.put("imageUrl", "/api/images/" + img.getImgdId() + "/file");
+                    map.put("thumbnailUrl", "/api/images/" + img.getImgdId() + "/file?w=" + AppConstants.GALLERY_THUMBNAIL_WIDTH);
                     map.put("title", img.getTitle() != null ? img.getTitle() : "Image " + img.getImgdId());
                     map.put("description", img.getDescription() != null ? img.getDescription() : "");
                     map.put("uploadedDate", img.getCreatedAt());
@@ -199,6 +330,7 @@ public class ImageService {
 
         img.setIsPublic(isPublic);
         imageDataRepository.save(img);
+        hotImageCache.invalidate(imageId);
 
         Map<String, Object> map = new HashMap<>();
         map.put("imageId", img.getImgdId());
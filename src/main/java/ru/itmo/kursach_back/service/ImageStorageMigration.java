@@ -0,0 +1,288 @@
+package ru.itmo.kursach_back.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import ru.itmo.kursach_back.entity.ImageBlob;
+import ru.itmo.kursach_back.entity.ImageData;
+import ru.itmo.kursach_back.entity.ImageDerivative;
+import ru.itmo.kursach_back.repository.ImageBlobRepository;
+import ru.itmo.kursach_back.repository.ImageDataRepository;
+import ru.itmo.kursach_back.repository.ImageDerivativeRepository;
+import ru.itmo.kursach_back.service.storage.ImageStorage;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves files from the legacy flat upload directory into ImageStorage in small batches: blobs and
+ * derivatives are copied to their sharded keys, images stored before content hashing go through
+ * the blob store. Legacy files are deleted a grace period later, once no node can still serve them
+ * from cached metadata. Rows that fail (e.g. their file is gone) are skipped until the next start.
+ * Batches run on a thread of their own, so slow copies never hold up the shared scheduler (queue
+ * dispatch, lease heartbeats, health probes), and only on the node holding a database lock.
+ */
+@Service
+public class ImageStorageMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageStorageMigration.class);
+
+    // Session-level advisory lock: held by one node while it migrates, freed if its connection drops
+    private static final String LOCK_KEY = "tiishka_image_storage_migration";
+
+    private record PendingDelete(Path file, long deleteAt) {
+    }
+
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageDataRepository<ImageData, Integer> imageDataRepository;
+    private final ImageDerivativeRepository imageDerivativeRepository;
+    private final ImageBlobService imageBlobService;
+    private final ImageDerivativeService imageDerivativeService;
+    private final ImageService imageService;
+    private final DataSource dataSource;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long deleteGraceMs;
+    private final long initialDelayMs;
+    private final long intervalMs;
+
+    // Not a TaskScheduler bean: one would replace the scheduler that runs every @Scheduled method
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-migration");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched by the migration thread
+    private final Set<String> failed = new HashSet<>();
+    private final Deque<PendingDelete> pendingDeletes = new ArrayDeque<>();
+    private boolean done;
+    private Connection lockConnection;
+
+    public ImageStorageMigration(ImageBlobRepository imageBlobRepository,
+                                 ImageDataRepository<ImageData, Integer> imageDataRepository,
+                                 ImageDerivativeRepository imageDerivativeRepository,
+                                 ImageBlobService imageBlobService,
+                                 ImageDerivativeService imageDerivativeService,
+                                 ImageService imageService,
+                                 DataSource dataSource,
+                                 @Value("${images.storage.migration.enabled:true}") boolean enabled,
+                                 @Value("${images.storage.migration.batch-size:100}") int batchSize,
+                                 @Value("${images.storage.migration.delete-grace-ms:120000}") long deleteGraceMs,
+                                 @Value("${images.storage.migration.initial-delay-ms:30000}") long initialDelayMs,
+                                 @Value("${images.storage.migration.interval-ms:10000}") long intervalMs) {
+        this.imageBlobRepository = imageBlobRepository;
+        this.imageDataRepository = imageDataRepository;
+        this.imageDerivativeRepository = imageDerivativeRepository;
+        this.imageBlobService = imageBlobService;
+        this.imageDerivativeService = imageDerivativeService;
+        this.imageService = imageService;
+        this.dataSource = dataSource;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.deleteGraceMs = deleteGraceMs;
+        this.initialDelayMs = initialDelayMs;
+        this.intervalMs = Math.max(1, intervalMs);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            executor.scheduleWithFixedDelay(this::run, initialDelayMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        unlock();
+    }
+
+    private void run() {
+        // An exception escaping would cancel every later run
+        try {
+            migrateBatch();
+        } catch (Exception e) {
+            logger.error("Legacy image migration batch failed: {}", e.getMessage(), e);
+        }
+    }
+
+    void migrateBatch() {
+        deleteLegacyFiles();
+        if (done || !tryLock()) {
+            return;
+        }
+
+        int migrated = 0;
+        boolean remaining = false;
+        // Rows that failed before are still returned by the queries, so ask for enough to get past them
+        PageRequest page = PageRequest.of(0, batchSize + failed.size());
+
+        List<ImageBlob> blobs = imageBlobRepository.findByStoragePathStartingWith(ImageStorage.LEGACY_DIR, page);
+        for (ImageBlob blob : blobs) {
+            String id = "blob:" + blob.getContentHash();
+            if (!failed.contains(id)) {
+                remaining = true;
+                if (migrated < batchSize) {
+                    migrated += migrate(id, () -> imageBlobService.migrate(blob));
+                }
+            }
+        }
+
+        List<ImageDerivative> derivatives = imageDerivativeRepository.findByStoragePathStartingWith(
+                ImageStorage.LEGACY_DIR, page);
+        for (ImageDerivative derivative : derivatives) {
+            String id = "derivative:" + derivative.getDerivativeId();
+            if (!failed.contains(id)) {
+                remaining = true;
+                if (migrated < batchSize) {
+                    migrated += migrate(id, () -> imageDerivativeService.migrate(derivative));
+                }
+            }
+        }
+
+        List<ImageData> images = imageDataRepository.findByContentHashIsNullAndStoragePathStartingWith(
+                ImageStorage.LEGACY_DIR, page);
+        for (ImageData image : images) {
+            String id = "image:" + image.getImgdId();
+            if (!failed.contains(id)) {
+                remaining = true;
+                if (migrated < batchSize) {
+                    migrated += migrate(id, () -> imageService.migrateLegacyImage(image));
+                }
+            }
+        }
+
+        if (migrated > 0) {
+            logger.info("Migrated {} image files out of {}", migrated, ImageStorage.LEGACY_DIR);
+        } else if (!remaining) {
+            done = true;
+            unlock();
+            if (failed.isEmpty()) {
+                logger.info("Legacy image migration is complete");
+            } else {
+                logger.warn("Legacy image migration finished; {} files could not be migrated", failed.size());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Migration {
+        Path run() throws IOException;
+    }
+
+    private int migrate(String id, Migration migration) {
+        try {
+            Path legacy = migration.run();
+            if (legacy == null) {
+                return 0;
+            }
+            pendingDeletes.add(new PendingDelete(legacy, System.currentTimeMillis() + deleteGraceMs));
+            return 1;
+        } catch (Exception e) {
+            failed.add(id);
+            logger.warn("Failed to migrate legacy image file ({}): {}", id, e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Whether this node holds the migration lock, taking it if no other node does. The lock lives
+     * as long as its connection, which is kept until the migration is done.
+     */
+    private boolean tryLock() {
+        if (lockConnection != null) {
+            try {
+                if (lockConnection.isValid(5)) {
+                    return true;
+                }
+            } catch (SQLException e) {
+                // Treated as lost below
+            }
+            logger.warn("Lost the connection holding the image migration lock");
+            unlock();
+        }
+
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(true);
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT pg_try_advisory_lock(hashtext(?))")) {
+                statement.setString(1, LOCK_KEY);
+                try (ResultSet result = statement.executeQuery()) {
+                    if (result.next() && result.getBoolean(1)) {
+                        lockConnection = connection;
+                        return true;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to take the image migration lock: {}", e.getMessage());
+        }
+        closeQuietly(connection);
+        return false;
+    }
+
+    private void unlock() {
+        Connection connection = lockConnection;
+        lockConnection = null;
+        if (connection == null) {
+            return;
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(hashtext(?))")) {
+            statement.setString(1, LOCK_KEY);
+            statement.execute();
+        } catch (SQLException e) {
+            // Closing the session releases it as well
+        }
+        closeQuietly(connection);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.debug("Failed to close connection: {}", e.getMessage());
+        }
+    }
+
+    private void deleteLegacyFiles() {
+        long now = System.currentTimeMillis();
+        while (!pendingDeletes.isEmpty() && pendingDeletes.peekFirst().deleteAt() <= now) {
+            Path file = pendingDeletes.pollFirst().file();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Failed to delete migrated legacy image file {}: {}", file, e.getMessage());
+            }
+        }
+    }
+}
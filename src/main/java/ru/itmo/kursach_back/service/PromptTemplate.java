@@ -0,0 +1,122 @@
+package ru.itmo.kursach_back.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A theme prompt template parsed once into literal and placeholder segments, so rendering is a
+ * single pass into a presized StringBuilder. Supported placeholders: {prompt}, {text}, {with_text}
+ * (renders {@code with text: "..."} only when text is given), {theme}, {style} and {size}.
+ * Unknown {names} are kept as literal text.
+ */
+public final class PromptTemplate {
+
+    public enum Placeholder {
+        PROMPT, TEXT, WITH_TEXT, THEME, STYLE, SIZE
+    }
+
+    /**
+     * Values of one generation request; null values render as empty
+     */
+    public record Values(String prompt, String text, String theme, String style, String size) {
+
+        String get(Placeholder placeholder) {
+            return switch (placeholder) {
+                case PROMPT -> prompt;
+                case TEXT -> text;
+                case WITH_TEXT -> text != null && !text.isEmpty() ? " with text: \"" + text + "\"" : null;
+                case THEME -> theme != null ? theme.toLowerCase(Locale.ROOT) : null;
+                case STYLE -> style;
+                case SIZE -> size;
+            };
+        }
+    }
+
+    // Each element is either a literal String or a Placeholder
+    private final Object[] segments;
+    private final int literalLength;
+
+    private PromptTemplate(Object[] segments, int literalLength) {
+        this.segments = segments;
+        this.literalLength = literalLength;
+    }
+
+    public static PromptTemplate compile(String template) {
+        List<Object> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int literalLength = 0;
+
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            int close = c == '{' ? template.indexOf('}', i + 1) : -1;
+            Placeholder placeholder = close > 0 ? placeholderOf(template.substring(i + 1, close)) : null;
+            if (placeholder == null) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+
+            if (!literal.isEmpty()) {
+                segments.add(literal.toString());
+                literalLength += literal.length();
+                literal.setLength(0);
+            }
+            segments.add(placeholder);
+            i = close + 1;
+        }
+        if (!literal.isEmpty()) {
+            segments.add(literal.toString());
+            literalLength += literal.length();
+        }
+
+        return new PromptTemplate(segments.toArray(), literalLength);
+    }
+
+    public boolean uses(Placeholder placeholder) {
+        for (Object segment : segments) {
+            if (segment == placeholder) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasPlaceholders() {
+        for (Object segment : segments) {
+            if (segment instanceof Placeholder) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String render(Values values) {
+        int capacity = literalLength + (values.prompt() != null ? values.prompt().length() : 0) + 32;
+        StringBuilder prompt = new StringBuilder(capacity);
+        for (Object segment : segments) {
+            if (segment instanceof Placeholder placeholder) {
+                String value = values.get(placeholder);
+                if (value != null) {
+                    prompt.append(value);
+                }
+            } else {
+                prompt.append((String) segment);
+            }
+        }
+        return prompt.toString();
+    }
+
+    private static Placeholder placeholderOf(String name) {
+        return switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "prompt" -> Placeholder.PROMPT;
+            case "text" -> Placeholder.TEXT;
+            case "with_text" -> Placeholder.WITH_TEXT;
+            case "theme" -> Placeholder.THEME;
+            case "style" -> Placeholder.STYLE;
+            case "size" -> Placeholder.SIZE;
+            default -> null;
+        };
+    }
+}
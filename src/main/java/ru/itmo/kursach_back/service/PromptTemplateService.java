@@ -0,0 +1,94 @@
+package ru.itmo.kursach_back.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.itmo.kursach_back.entity.GenerationTheme;
+import ru.itmo.kursach_back.repository.GenerationThemeRepository;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds generation prompts from the active themes' prompt templates. Templates are compiled once
+ * and kept until ThemeManagementService reports a change.
+ */
+@Service
+public class PromptTemplateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PromptTemplateService.class);
+
+    private static final PromptTemplate NO_THEME = PromptTemplate.compile("{prompt}{with_text}");
+    // Themes without a template (or unknown names) keep the original "in <theme> style" wording
+    private static final PromptTemplate THEME_NAME_ONLY = PromptTemplate.compile("{prompt}{with_text} in {theme} style");
+
+    private final GenerationThemeRepository themeRepository;
+
+    // Compiled templates of active themes by lower-cased theme name; null until loaded or after a change
+    private volatile Map<String, PromptTemplate> compiled;
+
+    public PromptTemplateService(GenerationThemeRepository themeRepository) {
+        this.themeRepository = themeRepository;
+    }
+
+    public String buildPrompt(String themeName, PromptTemplate.Values values) {
+        return templateFor(themeName).render(values);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onThemesChanged(ThemeManagementService.ThemesChangedEvent event) {
+        compiled = null;
+    }
+
+    private PromptTemplate templateFor(String themeName) {
+        if (themeName == null || themeName.isBlank()) {
+            return NO_THEME;
+        }
+        Map<String, PromptTemplate> templates = compiled;
+        if (templates == null) {
+            templates = load();
+        }
+        return templates.getOrDefault(themeName.toLowerCase(Locale.ROOT), THEME_NAME_ONLY);
+    }
+
+    // Synchronized with invalidation, so a load racing a theme change cannot cache the old templates
+    private synchronized Map<String, PromptTemplate> load() {
+        if (compiled != null) {
+            return compiled;
+        }
+
+        Map<String, PromptTemplate> templates = new HashMap<>();
+        for (GenerationTheme theme : themeRepository.findByIsActiveTrue()) {
+            templates.put(theme.getThemeName().toLowerCase(Locale.ROOT), compile(theme.getThemePromptTemplate()));
+        }
+        compiled = Map.copyOf(templates);
+        logger.info("Compiled prompt templates for {} active themes", templates.size());
+        return compiled;
+    }
+
+    /**
+     * Templates written as plain descriptions (no placeholders) are appended to the user's prompt;
+     * the prompt and the requested text are always part of the result.
+     */
+    static PromptTemplate compile(String template) {
+        if (template == null || template.isBlank()) {
+            return THEME_NAME_ONLY;
+        }
+
+        PromptTemplate parsed = PromptTemplate.compile(template.trim());
+        if (!parsed.hasPlaceholders()) {
+            return PromptTemplate.compile("{prompt}{with_text}, " + template.trim());
+        }
+
+        String source = template.trim();
+        if (!parsed.uses(PromptTemplate.Placeholder.PROMPT)) {
+            source = "{prompt}, " + source;
+        }
+        if (!parsed.uses(PromptTemplate.Placeholder.TEXT) && !parsed.uses(PromptTemplate.Placeholder.WITH_TEXT)) {
+            source = source + "{with_text}";
+        }
+        return PromptTemplate.compile(source);
+    }
+}
@@ -0,0 +1,13 @@
+package ru.itmo.kursach_back.service;
+
+import java.time.LocalDateTime;
+
+/**
+ * A stored image file (by its ImageStorage key) with the metadata needed to serve it, so responses
+ * never inspect the file itself. {@code contentHash} identifies the exact bytes served (a
+ * derivative's is suffixed with its width). {@code width} is the derivative's width, or null when
+ * this is the original.
+ */
+public record StoredImage(Integer imageId, String storageKey, String mimeType, long size, String contentHash,
+                          boolean publicImage, LocalDateTime createdAt, Integer width) {
+}
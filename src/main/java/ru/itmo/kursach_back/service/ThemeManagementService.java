@@ -1,6 +1,7 @@
 package ru.itmo.kursach_back.service;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.itmo.kursach_back.entity.GenerationTheme;
@@ -14,6 +15,13 @@ import java.util.Optional;
 public class ThemeManagementService {
 
     private final GenerationThemeRepository themeRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Published after any change to generation_themes; PromptTemplateService drops its compiled templates on commit
+     */
+    public record ThemesChangedEvent(Integer themeId) {
+    }
 
         public List<GenerationTheme> getAllThemes() {
         return themeRepository.findAllByOrderByThemeNameAsc();
@@ -29,7 +37,9 @@ public class ThemeManagementService {
 
         @Transactional
     public GenerationTheme createTheme(GenerationTheme theme) {
-        return themeRepository.save(theme);
+        GenerationTheme created = themeRepository.save(theme);
+        eventPublisher.publishEvent(new ThemesChangedEvent(created.getThemeId()));
+        return created;
     }
 
         @Transactional
@@ -47,12 +57,15 @@ public class ThemeManagementService {
             theme.setIsActive(updatedTheme.getIsActive());
         }
 
-        return themeRepository.save(theme);
+        GenerationTheme saved = themeRepository.save(theme);
+        eventPublisher.publishEvent(new ThemesChangedEvent(themeId));
+        return saved;
     }
 
         @Transactional
     public void deleteTheme(Integer themeId) {
         themeRepository.deleteById(themeId);
+        eventPublisher.publishEvent(new ThemesChangedEvent(themeId));
     }
 
     @Transactional
@@ -62,7 +75,9 @@ public class ThemeManagementService {
 
         theme.setIsActive(!theme.getIsActive());
 
-        return themeRepository.save(theme);
+        GenerationTheme saved = themeRepository.save(theme);
+        eventPublisher.publishEvent(new ThemesChangedEvent(themeId));
+        return saved;
     }
 }
 
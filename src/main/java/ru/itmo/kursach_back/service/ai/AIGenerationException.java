@@ -1,9 +1,12 @@
 package ru.itmo.kursach_back.service.ai;
 
+import java.time.Duration;
+
 public class AIGenerationException extends Exception {
 
     private final String serviceName;
     private final ErrorType errorType;
+    private Duration retryAfter;
 
     public enum ErrorType {
         API_KEY_MISSING,
@@ -11,8 +14,10 @@ public class AIGenerationException extends Exception {
         RATE_LIMIT_EXCEEDED,
         CONTENT_POLICY_VIOLATION,
         NETWORK_ERROR,
+        DEADLINE_EXCEEDED,
         INVALID_PARAMETERS,
         SERVICE_UNAVAILABLE,
+        PROVIDER_OVERLOADED,
         UNKNOWN_ERROR
     }
 
@@ -36,6 +41,18 @@ public class AIGenerationException extends Exception {
         return errorType;
     }
 
+    /**
+     * Wait time requested by the provider (Retry-After header), or null
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    public AIGenerationException withRetryAfter(Duration retryAfter) {
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
     @Override
     public String toString() {
         return String.format("AIGenerationException [service=%s, type=%s, message=%s]",
@@ -0,0 +1,56 @@
+package ru.itmo.kursach_back.service.ai;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Periodically re-checks every AI provider off the request path, so that
+ * AIService.isAvailable() stays a memory read during generation.
+ */
+@Component
+public class AIProviderHealthProber {
+
+    private static final Logger logger = LoggerFactory.getLogger(AIProviderHealthProber.class);
+
+    private final List<AIService> aiServices;
+    private final Map<String, ProviderHealth> lastResults = new ConcurrentHashMap<>();
+
+    public AIProviderHealthProber(List<AIService> aiServices) {
+        this.aiServices = aiServices;
+    }
+
+    @Scheduled(initialDelayString = "${ai.health.probe-interval-ms:15000}",
+               fixedDelayString = "${ai.health.probe-interval-ms:15000}")
+    public void probe() {
+        for (AIService service : aiServices) {
+            String error = null;
+            boolean up;
+            try {
+                up = service.checkHealth();
+            } catch (Exception e) {
+                up = false;
+                error = e.getMessage();
+            }
+
+            ProviderHealth previous = lastResults.put(service.getServiceName(),
+                    new ProviderHealth(up, Instant.now(), error));
+            if (previous != null && previous.up() != up) {
+                logger.warn("AI provider {} is now {}", service.getServiceName(), up ? "UP" : "DOWN");
+            }
+        }
+    }
+
+    public Map<String, ProviderHealth> getLastResults() {
+        return Map.copyOf(lastResults);
+    }
+
+    public record ProviderHealth(boolean up, Instant checkedAt, String error) {
+    }
+}
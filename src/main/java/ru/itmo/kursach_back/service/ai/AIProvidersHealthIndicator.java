@@ -0,0 +1,55 @@
+package ru.itmo.kursach_back.service.ai;
+
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator view of the AI providers. Uses the cached availability only,
+ * so /actuator/health never waits on a provider.
+ */
+@Component
+public class AIProvidersHealthIndicator implements HealthIndicator {
+
+    private final List<AIService> aiServices;
+    private final AIProviderHealthProber healthProber;
+
+    public AIProvidersHealthIndicator(List<AIService> aiServices, AIProviderHealthProber healthProber) {
+        this.aiServices = aiServices;
+        this.healthProber = healthProber;
+    }
+
+    @Override
+    public Health health() {
+        Map<String, AIProviderHealthProber.ProviderHealth> probes = healthProber.getLastResults();
+        Map<String, Object> providers = new LinkedHashMap<>();
+        boolean realProviderUp = false;
+
+        for (AIService service : aiServices) {
+            boolean up = service.isAvailable();
+            if (up && !(service instanceof MockAIService)) {
+                realProviderUp = true;
+            }
+
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("status", up ? "UP" : "DOWN");
+            AIProviderHealthProber.ProviderHealth probe = probes.get(service.getServiceName());
+            if (probe != null) {
+                details.put("checkedAt", probe.checkedAt().toString());
+                if (probe.error() != null) {
+                    details.put("error", probe.error());
+                }
+            }
+            providers.put(service.getServiceName(), details);
+        }
+
+        Health.Builder builder = realProviderUp
+                ? Health.up()
+                : Health.status("DEGRADED").withDetail("reason", "Only mock generation is available");
+        return builder.withDetail("providers", providers).build();
+    }
+}
@@ -1,15 +1,71 @@
 package ru.itmo.kursach_back.service.ai;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 public interface AIService {
 
+        // Provider families referenced by ai_models.provider
+        String PROVIDER_OPENAI = "openai";
+        String PROVIDER_STABILITY = "stability";
+        String PROVIDER_MOCK = "mock";
+        String PROVIDER_GATEWAY = "gateway";
+
         byte[] generateImage(String prompt, Map<String, Object> parameters) throws AIGenerationException;
 
+        /**
+         * Non-blocking variant of generateImage(). The default offloads the blocking call
+         * to the bounded elastic scheduler; providers with a reactive client override it.
+         */
+        default Mono<byte[]> generateImageAsync(String prompt, Map<String, Object> parameters) {
+            return Mono.fromCallable(() -> generateImage(prompt, parameters))
+                    .subscribeOn(Schedulers.boundedElastic());
+        }
+
+        /**
+         * Generates up to {@code count} variants of one prompt. The default fans out to generateImageAsync()
+         * with at most {@code maxParallel} calls in flight and keeps whatever succeeded; it fails only if
+         * every call failed. Providers with a native batch size (OpenAI "n", Stability "samples") override it.
+         */
+        default Mono<List<byte[]>> generateImagesAsync(String prompt, Map<String, Object> parameters,
+                                                       int count, int maxParallel) {
+            return Mono.defer(() -> {
+                AtomicReference<Throwable> lastError = new AtomicReference<>();
+                return Flux.range(0, count)
+                        .flatMap(i -> generateImageAsync(prompt, parameters)
+                                .onErrorResume(e -> {
+                                    lastError.set(e);
+                                    return Mono.empty();
+                                }), Math.max(1, maxParallel))
+                        .collectList()
+                        .flatMap(images -> images.isEmpty() && lastError.get() != null
+                                ? Mono.<List<byte[]>>error(lastError.get())
+                                : Mono.just(images));
+            });
+        }
+
         boolean isAvailable();
 
+        /**
+         * Re-checks provider health, possibly over the network. Called by the background
+         * prober only; isAvailable() must stay a cheap read of the last result.
+         */
+        default boolean checkHealth() {
+            return isAvailable();
+        }
+
         String getServiceName();
 
+        /**
+         * Stable key AIServiceFactory routes by: one of the PROVIDER_* constants
+         */
+        String getProviderKey();
+
         Map<String, Integer> getMaxDimensions();
 
         default void validatePrompt(String prompt) {
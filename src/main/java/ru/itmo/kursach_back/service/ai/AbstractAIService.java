@@ -1,14 +1,28 @@
 package ru.itmo.kursach_back.service.ai;
 
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
 
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public abstract class AbstractAIService implements AIService {
 
+    private static final long ADMISSION_POLL_MS = 100;
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Value("${ai.generation.timeout:60000}")
@@ -20,63 +34,420 @@ public abstract class AbstractAIService implements AIService {
     @Value("${ai.generation.retry.delay:1000}")
     protected long retryDelayMs;
 
+    @Value("${ai.generation.retry.max-delay:10000}")
+    protected long retryMaxDelayMs;
+
+    // End-to-end budget shared by all attempts (and by failover when the factory sets the deadline)
+    @Value("${ai.generation.deadline:90000}")
+    protected long deadlineMs;
+
+    @Value("${ai.admission.max-concurrent:8}")
+    protected int admissionMaxConcurrent;
+
+    @Value("${ai.admission.rate-per-second:2}")
+    protected double admissionRatePerSecond;
+
+    @Value("${ai.admission.min-rate-per-second:0.1}")
+    protected double admissionMinRatePerSecond;
+
+    @Value("${ai.admission.burst:4}")
+    protected double admissionBurst;
+
+    @Value("${ai.admission.recovery-ms:60000}")
+    protected long admissionRecoveryMs;
+
+    @Value("${ai.admission.max-wait-ms:2000}")
+    protected long admissionMaxWaitMs;
+
+    protected ProviderAdmissionController admissionController;
+
+    protected RetryPolicy retryPolicy;
+
+    @Autowired
+    private GenerationMetrics generationMetrics;
+
+    @PostConstruct
+    void initAdmissionControl() {
+        retryPolicy = new RetryPolicy(retryAttempts, retryDelayMs, retryMaxDelayMs, deadlineMs);
+        if (usesAdmissionControl()) {
+            admissionController = new ProviderAdmissionController(admissionMaxConcurrent, admissionRatePerSecond,
+                    admissionMinRatePerSecond, admissionBurst, admissionRecoveryMs);
+            generationMetrics.registerAdmissionGauges(getServiceName(), admissionController);
+        }
+    }
+
         @Override
     public byte[] generateImage(String prompt, Map<String, Object> parameters) throws AIGenerationException {
         validatePrompt(prompt);
 
         if (!isAvailable()) {
-            String detailedMessage = getServiceName() + " is not available or not configured. ";
-            if (getServiceName().contains("OpenAI")) {
-                detailedMessage += "Please set 'openai.api.key' in application.properties or use model ID 999 for Mock service.";
-            } else {
-                detailedMessage += "Service is not properly configured.";
-            }
-
-            logger.error("Service not available: {}", detailedMessage);
-
-            throw new AIGenerationException(
-                detailedMessage,
-                getServiceName(),
-                AIGenerationException.ErrorType.API_KEY_MISSING
-            );
+            throw notAvailableException();
         }
 
         logger.info("Generating image with {}: prompt='{}', params={}", getServiceName(), prompt, parameters);
 
-        Exception lastException = null;
-        for (int attempt = 1; attempt <= retryAttempts; attempt++) {
+        String modelId = GenerationMetrics.modelIdOf(parameters);
+        Timer.Sample sample = generationMetrics.startTimer();
+        RetryPolicy.Deadline deadline = retryPolicy.deadlineOf(parameters);
+        GenerationProgress progress = GenerationProgress.of(parameters);
+
+        long delayMs = 0;
+        for (int attempt = 1; ; attempt++) {
             try {
-                byte[] result = doGenerateImage(prompt, parameters);
+                progress.attemptStarted(getServiceName(), attempt);
+                byte[] result = callProvider(prompt, parameters, deadline);
                 logger.info("Image generated successfully with {} on attempt {}", getServiceName(), attempt);
+                recordAttemptSuccess(modelId, List.of(result));
+                recordGeneration(sample, modelId, null);
                 return result;
+            } catch (InterruptedException ie) {
+                AIGenerationException interrupted = interruptedException(ie);
+                recordGeneration(sample, modelId, interrupted);
+                throw interrupted;
             } catch (Exception e) {
-                lastException = e;
-                logger.warn("Generation attempt {} failed: {}", attempt, e.getMessage());
-
-                if (attempt < retryAttempts) {
-                    try {
-                        Thread.sleep(retryDelayMs * attempt); // Exponential backoff
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new AIGenerationException(
-                            "Generation interrupted",
-                            getServiceName(),
-                            AIGenerationException.ErrorType.UNKNOWN_ERROR,
-                            ie
-                        );
-                    }
+                recordAttemptFailure(modelId, e);
+                progress.attemptFailed(getServiceName(), attempt, errorTypeOf(e), e.getMessage());
+
+                delayMs = retryPolicy.nextDelayMs(attempt, delayMs, e, deadline);
+                if (delayMs < 0) {
+                    AIGenerationException failure = giveUp(attempt, e);
+                    recordGeneration(sample, modelId, failure);
+                    throw failure;
+                }
+
+                logger.warn("Generation attempt {} failed: {}, retrying in {} ms", attempt, e.getMessage(), delayMs);
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException ie) {
+                    AIGenerationException interrupted = interruptedException(ie);
+                    recordGeneration(sample, modelId, interrupted);
+                    throw interrupted;
+                }
+            }
+        }
+    }
+
+    /**
+     * Non-blocking counterpart of generateImage(): same availability checks and admission control,
+     * with retries scheduled by Reactor instead of sleeping on the calling thread.
+     */
+    @Override
+    public Mono<byte[]> generateImageAsync(String prompt, Map<String, Object> parameters) {
+        return Mono.defer(() -> {
+            validatePrompt(prompt);
+
+            if (!isAvailable()) {
+                return Mono.error(notAvailableException());
+            }
+
+            logger.info("Generating image (async) with {}: prompt='{}', params={}", getServiceName(), prompt, parameters);
+
+            String modelId = GenerationMetrics.modelIdOf(parameters);
+            Timer.Sample sample = generationMetrics.startTimer();
+            RetryPolicy.Deadline deadline = retryPolicy.deadlineOf(parameters);
+
+            return tracked(withinDeadline(admitAsync(() -> doGenerateImageAsync(prompt, parameters)), deadline),
+                            GenerationProgress.of(parameters))
+                    .doOnNext(result -> recordAttemptSuccess(modelId, List.of(result)))
+                    .doOnError(e -> recordAttemptFailure(modelId, e))
+                    .retryWhen(asyncRetry(deadline))
+                    .doOnSuccess(result -> {
+                        logger.info("Image generated successfully (async) with {}", getServiceName());
+                        recordGeneration(sample, modelId, null);
+                    })
+                    .doOnError(e -> recordGeneration(sample, modelId, e));
+        });
+    }
+
+    /**
+     * Uses the provider's native batch size when it covers {@code count}, so the variants cost one
+     * admitted call; otherwise falls back to the bounded fan-out of the interface default.
+     */
+    @Override
+    public Mono<List<byte[]>> generateImagesAsync(String prompt, Map<String, Object> parameters,
+                                                  int count, int maxParallel) {
+        if (count <= 1 || nativeBatchLimit() < count) {
+            return AIService.super.generateImagesAsync(prompt, parameters, count, maxParallel);
+        }
+
+        return Mono.defer(() -> {
+            validatePrompt(prompt);
+
+            if (!isAvailable()) {
+                return Mono.error(notAvailableException());
+            }
+
+            logger.info("Generating {} variants with {}: prompt='{}'", count, getServiceName(), prompt);
+
+            String modelId = GenerationMetrics.modelIdOf(parameters);
+            Timer.Sample sample = generationMetrics.startTimer();
+            RetryPolicy.Deadline deadline = retryPolicy.deadlineOf(parameters);
+
+            return tracked(withinDeadline(admitAsync(() -> doGenerateImagesAsync(prompt, parameters, count)), deadline),
+                            GenerationProgress.of(parameters))
+                    .doOnNext(images -> recordAttemptSuccess(modelId, images))
+                    .doOnError(e -> recordAttemptFailure(modelId, e))
+                    .retryWhen(asyncRetry(deadline))
+                    .doOnSuccess(images -> recordGeneration(sample, modelId, null))
+                    .doOnError(e -> recordGeneration(sample, modelId, e));
+        });
+    }
+
+    /**
+     * Largest number of images one provider call can return; 1 means no native batching.
+     */
+    protected int nativeBatchLimit() {
+        return 1;
+    }
+
+    /**
+     * Reactive single attempt returning {@code count} images, called under one admission slot when
+     * nativeBatchLimit() covers {@code count}. Providers with a batch endpoint override this; the
+     * default fans out over doGenerateImageAsync(), in parallel as far as the admission controller
+     * has further slots free right now (the slot already held runs the rest).
+     */
+    protected Mono<List<byte[]>> doGenerateImagesAsync(String prompt, Map<String, Object> parameters, int count) {
+        return Mono.defer(() -> {
+            int extraSlots = 0;
+            if (admissionController == null) {
+                extraSlots = count - 1;
+            } else {
+                while (extraSlots < count - 1 && admissionController.tryAcquireNow()) {
+                    extraSlots++;
                 }
             }
+            int acquired = admissionController != null ? extraSlots : 0;
+            return Flux.range(0, count)
+                    .flatMapSequential(i -> doGenerateImageAsync(prompt, parameters), extraSlots + 1)
+                    .collectList()
+                    .doFinally(signal -> {
+                        for (int i = 0; i < acquired; i++) {
+                            admissionController.release();
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Retries per the RetryPolicy; the companion is built per subscription, so the previous delay
+     * used for decorrelated jitter is tracked per call.
+     */
+    private Retry asyncRetry(RetryPolicy.Deadline deadline) {
+        return Retry.from(signals -> {
+            long[] previousDelayMs = {0};
+            return signals.concatMap(signal -> {
+                int attempt = (int) signal.totalRetries() + 1;
+                long delayMs = retryPolicy.nextDelayMs(attempt, previousDelayMs[0], signal.failure(), deadline);
+                if (delayMs < 0) {
+                    return Mono.error(giveUp(attempt, signal.failure()));
+                }
+
+                previousDelayMs[0] = delayMs;
+                logger.warn("Async generation attempt {} failed: {}, retrying in {} ms",
+                        attempt, signal.failure().getMessage(), delayMs);
+                return Mono.delay(Duration.ofMillis(delayMs));
+            });
+        });
+    }
+
+    /**
+     * Reports each (re)subscription as a new attempt; the counter is shared by the retries of one call
+     */
+    private <T> Mono<T> tracked(Mono<T> attempt, GenerationProgress progress) {
+        if (progress == GenerationProgress.NONE) {
+            return attempt;
         }
+        AtomicInteger attempts = new AtomicInteger();
+        return attempt
+                .doOnSubscribe(subscription -> progress.attemptStarted(getServiceName(), attempts.incrementAndGet()))
+                .doOnError(e -> progress.attemptFailed(getServiceName(), attempts.get(), errorTypeOf(e), e.getMessage()));
+    }
+
+    /**
+     * Cuts an attempt off at the shared deadline instead of letting it run its full provider timeout
+     */
+    private <T> Mono<T> withinDeadline(Mono<T> attempt, RetryPolicy.Deadline deadline) {
+        return Mono.defer(() -> deadline.isExpired()
+                ? Mono.error(deadlineExceededException())
+                : attempt.timeout(Duration.ofMillis(deadline.remainingMs()),
+                        Mono.defer(() -> Mono.error(deadlineExceededException()))));
+    }
 
-        throw new AIGenerationException(
-            "Failed to generate image after " + retryAttempts + " attempts",
+    /**
+     * Final error once the policy stops retrying: request errors and local overload keep their
+     * original exception, exhausted retries are wrapped with the last error type.
+     */
+    private AIGenerationException giveUp(int attempts, Throwable lastFailure) {
+        if (lastFailure instanceof AIGenerationException aiException && !retryPolicy.isRetryable(aiException)) {
+            return aiException;
+        }
+        // Keep the provider's error type so callers can tell request errors from outages
+        return new AIGenerationException(
+            "Failed to generate image after " + attempts + " attempt(s)",
+            getServiceName(),
+            errorTypeOf(lastFailure),
+            lastFailure
+        );
+    }
+
+    /**
+     * Reactive single attempt. Providers with a non-blocking client override this; the default
+     * runs the blocking doGenerateImage() on the bounded elastic scheduler.
+     */
+    protected Mono<byte[]> doGenerateImageAsync(String prompt, Map<String, Object> parameters) {
+        return Mono.fromCallable(() -> doGenerateImage(prompt, parameters))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Blocks on a provider pipeline, unwrapping the checked exception Reactor wraps on block().
+     */
+    protected byte[] blockOn(Mono<byte[]> pipeline) throws Exception {
+        try {
+            return pipeline.block();
+        } catch (RuntimeException e) {
+            Throwable cause = Exceptions.unwrap(e);
+            if (cause instanceof Exception exception) {
+                throw exception;
+            }
+            throw e;
+        }
+    }
+
+    private <T> Mono<T> admitAsync(Supplier<Mono<T>> call) {
+        if (admissionController == null) {
+            return Mono.defer(call);
+        }
+
+        Mono<T> admitted = Mono.defer(() -> {
+            if (!admissionController.tryAcquireNow()) {
+                return Mono.error(overloadedException());
+            }
+            return Mono.defer(call)
+                    .doOnError(AIGenerationException.class, e -> {
+                        if (e.getErrorType() == AIGenerationException.ErrorType.RATE_LIMIT_EXCEEDED) {
+                            admissionController.onRateLimited();
+                        }
+                    })
+                    .doFinally(signal -> admissionController.release());
+        });
+
+        // Queue briefly without parking a thread: poll for a free slot until max-wait runs out
+        long polls = Math.max(0, admissionMaxWaitMs / ADMISSION_POLL_MS);
+        return admitted.retryWhen(Retry.fixedDelay(polls, Duration.ofMillis(ADMISSION_POLL_MS))
+                .filter(this::isOverloaded)
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    private void recordAttemptSuccess(String modelId, List<byte[]> images) {
+        generationMetrics.recordAttempt(getServiceName(), modelId, true);
+        for (byte[] image : images) {
+            generationMetrics.recordImageBytes(getServiceName(), modelId, image.length);
+        }
+    }
+
+    private void recordAttemptFailure(String modelId, Throwable e) {
+        generationMetrics.recordAttempt(getServiceName(), modelId, false);
+        generationMetrics.recordError(getServiceName(), modelId, errorTypeOf(e));
+    }
+
+    private void recordGeneration(Timer.Sample sample, String modelId, Throwable failure) {
+        generationMetrics.recordGeneration(sample, getServiceName(), modelId,
+                failure == null ? "success" : errorTypeOf(failure).name());
+    }
+
+    private static AIGenerationException.ErrorType errorTypeOf(Throwable e) {
+        return e instanceof AIGenerationException aiException
+                ? aiException.getErrorType()
+                : AIGenerationException.ErrorType.UNKNOWN_ERROR;
+    }
+
+    private boolean isOverloaded(Throwable e) {
+        return e instanceof AIGenerationException aiException
+                && aiException.getErrorType() == AIGenerationException.ErrorType.PROVIDER_OVERLOADED;
+    }
+
+    private AIGenerationException overloadedException() {
+        return new AIGenerationException(
+            getServiceName() + " is at capacity, please try again later",
+            getServiceName(),
+            AIGenerationException.ErrorType.PROVIDER_OVERLOADED
+        );
+    }
+
+    private AIGenerationException deadlineExceededException() {
+        return new AIGenerationException(
+            "Generation deadline of " + deadlineMs + " ms exceeded",
+            getServiceName(),
+            AIGenerationException.ErrorType.DEADLINE_EXCEEDED
+        );
+    }
+
+    private AIGenerationException interruptedException(InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return new AIGenerationException(
+            "Generation interrupted",
             getServiceName(),
             AIGenerationException.ErrorType.UNKNOWN_ERROR,
-            lastException
+            ie
         );
     }
 
+    private AIGenerationException notAvailableException() {
+        String detailedMessage = getServiceName() + " is not available or not configured. ";
+        if (getServiceName().contains("OpenAI")) {
+            detailedMessage += "Please set 'openai.api.key' in application.properties or use model ID 999 for Mock service.";
+        } else {
+            detailedMessage += "Service is not properly configured.";
+        }
+
+        logger.error("Service not available: {}", detailedMessage);
+
+        return new AIGenerationException(
+            detailedMessage,
+            getServiceName(),
+            AIGenerationException.ErrorType.API_KEY_MISSING
+        );
+    }
+
+    /**
+     * One blocking attempt, bounded by the admission wait and the remaining deadline
+     */
+    private byte[] callProvider(String prompt, Map<String, Object> parameters, RetryPolicy.Deadline deadline)
+            throws Exception {
+        if (deadline.isExpired()) {
+            throw deadlineExceededException();
+        }
+
+        if (admissionController == null) {
+            return blockOn(withinDeadline(doGenerateImageAsync(prompt, parameters), deadline));
+        }
+
+        if (!admissionController.tryAcquire(Math.min(admissionMaxWaitMs, deadline.remainingMs()))) {
+            throw overloadedException();
+        }
+
+        try {
+            return blockOn(withinDeadline(doGenerateImageAsync(prompt, parameters), deadline));
+        } catch (AIGenerationException e) {
+            if (e.getErrorType() == AIGenerationException.ErrorType.RATE_LIMIT_EXCEEDED) {
+                admissionController.onRateLimited();
+                logger.warn("{} is throttling, admission rate lowered to {}/s",
+                        getServiceName(), String.format("%.2f", admissionController.getRatePerSecond()));
+            }
+            throw e;
+        } finally {
+            admissionController.release();
+        }
+    }
+
+    /**
+     * Whether calls to this provider go through the per-provider admission controller.
+     */
+    protected boolean usesAdmissionControl() {
+        return true;
+    }
+
     protected abstract byte[] doGenerateImage(String prompt, Map<String, Object> parameters) throws Exception;
 
     protected Map<String, Object> buildDefaultParameters() {
@@ -0,0 +1,104 @@
+package ru.itmo.kursach_back.service.ai;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Micrometer meters for the generation pipeline, tagged by provider name and model id.
+ * Latency timers publish a percentile histogram, so p50/p99 per provider can be computed in Prometheus.
+ * The generation worker pool itself is covered by Spring Boot's executor.* metrics (name=generationExecutor).
+ */
+@Component
+public class GenerationMetrics {
+
+    public static final String MODEL_ID_PARAM = "modelId";
+
+    private static final String UNKNOWN = "unknown";
+
+    private final MeterRegistry meterRegistry;
+
+    public GenerationMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public Timer.Sample startTimer() {
+        return Timer.start(meterRegistry);
+    }
+
+    /**
+     * Whole provider call including retries; outcome is "success" or the final error type
+     */
+    public void recordGeneration(Timer.Sample sample, String provider, String modelId, String outcome) {
+        sample.stop(Timer.builder("ai.generation.duration")
+                .description("Provider generation latency including retries")
+                .tag("provider", provider)
+                .tag("model", modelId)
+                .tag("outcome", outcome)
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    public void recordAttempt(String provider, String modelId, boolean success) {
+        meterRegistry.counter("ai.generation.attempts",
+                "provider", provider, "model", modelId, "result", success ? "success" : "failure").increment();
+    }
+
+    public void recordError(String provider, String modelId, AIGenerationException.ErrorType errorType) {
+        meterRegistry.counter("ai.generation.errors",
+                "provider", provider, "model", modelId, "type", errorType.name()).increment();
+    }
+
+    public void recordImageBytes(String provider, String modelId, long bytes) {
+        DistributionSummary.builder("ai.generation.image.bytes")
+                .description("Size of images received from providers")
+                .baseUnit("bytes")
+                .tag("provider", provider)
+                .tag("model", modelId)
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    /**
+     * One routing decision of AIServiceFactory: selected, skipped_unavailable, skipped_circuit_open,
+     * failover, rejected (request error) or exhausted (no provider left)
+     */
+    public void recordRouting(Integer modelId, String provider, String decision) {
+        meterRegistry.counter("ai.generation.routing",
+                "model", modelIdTag(modelId), "provider", provider, "decision", decision).increment();
+    }
+
+    public void registerAdmissionGauges(String provider, ProviderAdmissionController admissionController) {
+        Gauge.builder("ai.provider.inflight", admissionController, ProviderAdmissionController::getInFlight)
+                .description("Provider calls currently holding an admission permit")
+                .tag("provider", provider)
+                .register(meterRegistry);
+        Gauge.builder("ai.provider.queued", admissionController, ProviderAdmissionController::getQueued)
+                .description("Calls waiting for an admission permit")
+                .tag("provider", provider)
+                .register(meterRegistry);
+        Gauge.builder("ai.provider.admission.rate", admissionController,
+                        ProviderAdmissionController::getRatePerSecond)
+                .description("Current admitted call rate")
+                .baseUnit("calls/s")
+                .tag("provider", provider)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Model id the factory attached to the call parameters, or "unknown" for direct provider calls
+     */
+    public static String modelIdOf(Map<String, Object> parameters) {
+        Object modelId = parameters != null ? parameters.get(MODEL_ID_PARAM) : null;
+        return modelId != null ? modelId.toString() : UNKNOWN;
+    }
+
+    public static String modelIdTag(Integer modelId) {
+        return modelId != null ? modelId.toString() : UNKNOWN;
+    }
+}
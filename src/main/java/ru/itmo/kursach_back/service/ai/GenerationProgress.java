@@ -0,0 +1,30 @@
+package ru.itmo.kursach_back.service.ai;
+
+import java.util.Map;
+
+/**
+ * Receives lifecycle events of one generation from AIServiceFactory and the providers.
+ * Callers pass it in the call parameters under {@link #PARAM}; providers never send it upstream.
+ */
+public interface GenerationProgress {
+
+    String PARAM = "progress";
+
+    GenerationProgress NONE = new GenerationProgress() {
+    };
+
+    default void providerSelected(String provider) {
+    }
+
+    default void attemptStarted(String provider, int attempt) {
+    }
+
+    default void attemptFailed(String provider, int attempt, AIGenerationException.ErrorType errorType,
+                               String message) {
+    }
+
+    static GenerationProgress of(Map<String, Object> parameters) {
+        Object progress = parameters != null ? parameters.get(PARAM) : null;
+        return progress instanceof GenerationProgress listener ? listener : NONE;
+    }
+}
@@ -2,16 +2,21 @@ package ru.itmo.kursach_back.service.ai;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ClientHttpConnector;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.time.Duration;
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -33,26 +38,33 @@ public class LocalAIGatewayService extends AbstractAIService {
     private final WebClient webClient;
     private final ObjectMapper objectMapper;
 
-    public LocalAIGatewayService(@Value("${ai.gateway.url:http://localhost:9999}") String gatewayUrl) {
+    // Last result of checkHealth(), refreshed by AIProviderHealthProber
+    private volatile boolean healthy;
+
+    public LocalAIGatewayService(@Value("${ai.gateway.url:http://localhost:9999}") String gatewayUrl,
+                                 @Qualifier("aiProviderHttpConnector") ClientHttpConnector connector) {
         this.gatewayUrl = gatewayUrl;
         this.webClient = WebClient.builder()
+                .clientConnector(connector)
                 .baseUrl(gatewayUrl)
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                .exchangeStrategies(ExchangeStrategies.builder()
-                        .codecs(config -> config.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
-                        .build())
                 .build();
         this.objectMapper = new ObjectMapper();
     }
 
     @Override
     protected byte[] doGenerateImage(String prompt, Map<String, Object> parameters) throws Exception {
+        return blockOn(doGenerateImageAsync(prompt, parameters));
+    }
+
+    @Override
+    protected Mono<byte[]> doGenerateImageAsync(String prompt, Map<String, Object> parameters) {
         if (!isAvailable()) {
-            throw new AIGenerationException(
+            return Mono.error(new AIGenerationException(
                 "AI Gateway not available. Check if SSH tunnel is active: ssh -L 9999:localhost:9999 user@vps",
                 getServiceName(),
                 AIGenerationException.ErrorType.SERVICE_UNAVAILABLE
-            );
+            ));
         }
 
         Map<String, Object> params = mergeParameters(parameters);
@@ -70,51 +82,74 @@ public class LocalAIGatewayService extends AbstractAIService {
         logger.info("Generating via AI Gateway: url={}, provider={}, model={}, prompt='{}'",
                    gatewayUrl, defaultProvider, model, prompt.substring(0, Math.min(50, prompt.length())));
 
-        try {
-            String responseJson = webClient.post()
-                    .uri(endpoint)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .timeout(Duration.ofMillis(timeoutMs))
-                    .block();
+        return webClient.post()
+                .uri(endpoint)
+                .accept(MediaType.IMAGE_PNG, MediaType.APPLICATION_JSON)
+                .bodyValue(requestBody)
+                .exchangeToMono(this::readImage)
+                .timeout(Duration.ofMillis(timeoutMs))
+                .onErrorMap(this::toGenerationException);
+    }
 
-            JsonNode responseNode = objectMapper.readTree(responseJson);
-            
-            if (!responseNode.has("success") || !responseNode.get("success").asBoolean()) {
-                String errorMsg = responseNode.has("error") ? responseNode.get("error").asText() : "Unknown error";
-                throw new AIGenerationException(
-                    errorMsg,
-                    getServiceName(),
-                    AIGenerationException.ErrorType.UNKNOWN_ERROR
-                );
-            }
+    /**
+     * Reads either a binary image/png body or the JSON envelope with a base64 imageBase64 field.
+     */
+    private Mono<byte[]> readImage(ClientResponse response) {
+        if (response.statusCode().isError()) {
+            return response.createError();
+        }
 
-            if (!responseNode.has("imageBase64")) {
-                throw new AIGenerationException(
-                    "No image data in gateway response",
-                    getServiceName(),
-                    AIGenerationException.ErrorType.UNKNOWN_ERROR
-                );
-            }
+        Flux<DataBuffer> body = response.bodyToFlux(DataBuffer.class);
+        boolean binary = response.headers().contentType()
+                .map(contentType -> "image".equals(contentType.getType()))
+                .orElse(false);
+        if (binary) {
+            return StreamingImageDecoder.readBinary(body)
+                    .doOnNext(image -> logger.info("Image received from gateway, {} bytes", image.length));
+        }
 
-            String imageBase64 = responseNode.get("imageBase64").asText();
-            logger.info("Image received from gateway, base64 length: {}", imageBase64.length());
+        return StreamingImageDecoder.decode(body, "/imageBase64")
+                .flatMap(decoded -> Mono.fromCallable(() -> extractImage(decoded)));
+    }
 
-            return Base64.getDecoder().decode(imageBase64);
+    private byte[] extractImage(StreamingImageDecoder.DecodedResponse decoded) throws AIGenerationException {
+        if (!Boolean.parseBoolean(decoded.fields().get("success"))) {
+            String errorMsg = decoded.fields().getOrDefault("error", "Unknown error");
+            throw new AIGenerationException(
+                errorMsg,
+                getServiceName(),
+                AIGenerationException.ErrorType.UNKNOWN_ERROR
+            );
+        }
 
-        } catch (WebClientResponseException e) {
-            logger.error("Gateway error: status={}, body={}", e.getStatusCode(), e.getResponseBodyAsString());
-            throw handleGatewayError(e);
-        } catch (Exception e) {
-            logger.error("Error communicating with AI Gateway: {}", e.getMessage(), e);
+        if (decoded.image() == null) {
             throw new AIGenerationException(
-                "Failed to generate via gateway: " + e.getMessage(),
+                "No image data in gateway response",
                 getServiceName(),
-                AIGenerationException.ErrorType.SERVICE_UNAVAILABLE,
-                e
+                AIGenerationException.ErrorType.UNKNOWN_ERROR
             );
         }
+
+        logger.info("Image received from gateway, {} bytes", decoded.image().length);
+        return decoded.image();
+    }
+
+    private Throwable toGenerationException(Throwable e) {
+        if (e instanceof AIGenerationException) {
+            return e;
+        }
+        if (e instanceof WebClientResponseException responseException) {
+            logger.error("Gateway error: status={}, body={}",
+                    responseException.getStatusCode(), responseException.getResponseBodyAsString());
+            return handleGatewayError(responseException);
+        }
+        logger.error("Error communicating with AI Gateway: {}", e.getMessage(), e);
+        return new AIGenerationException(
+            "Failed to generate via gateway: " + e.getMessage(),
+            getServiceName(),
+            AIGenerationException.ErrorType.SERVICE_UNAVAILABLE,
+            e
+        );
     }
 
     private AIGenerationException handleGatewayError(WebClientResponseException e) {
@@ -130,20 +165,33 @@ public class LocalAIGatewayService extends AbstractAIService {
                 case "API_KEY_MISSING", "API_KEY_INVALID" -> AIGenerationException.ErrorType.API_KEY_INVALID;
                 case "RATE_LIMIT_EXCEEDED" -> AIGenerationException.ErrorType.RATE_LIMIT_EXCEEDED;
                 case "CONTENT_POLICY_VIOLATION" -> AIGenerationException.ErrorType.CONTENT_POLICY_VIOLATION;
-                default -> AIGenerationException.ErrorType.UNKNOWN_ERROR;
+                default -> RetryPolicy.classifyStatus(e.getStatusCode().value());
             };
         } catch (Exception parseEx) {
             message = "Gateway error: HTTP " + e.getStatusCode().value();
-            errorType = AIGenerationException.ErrorType.UNKNOWN_ERROR;
+            errorType = RetryPolicy.classifyStatus(e.getStatusCode().value());
         }
 
-        return new AIGenerationException(message, getServiceName(), errorType, e);
+        return new AIGenerationException(message, getServiceName(), errorType, e)
+                .withRetryAfter(RetryPolicy.parseRetryAfter(e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)));
+    }
+
+    @PostConstruct
+    void initialHealthCheck() {
+        // Routing reads availability right after startup, before the first scheduled probe
+        checkHealth();
     }
 
     @Override
     public boolean isAvailable() {
+        return gatewayEnabled && healthy;
+    }
+
+    @Override
+    public boolean checkHealth() {
         if (!gatewayEnabled) {
             logger.debug("AI Gateway disabled in configuration");
+            healthy = false;
             return false;
         }
 
@@ -156,21 +204,28 @@ public class LocalAIGatewayService extends AbstractAIService {
                     .block();
 
             JsonNode healthNode = objectMapper.readTree(healthResponse);
-            boolean healthy = healthNode.has("status") && 
+            boolean nowHealthy = healthNode.has("status") &&
                             "healthy".equals(healthNode.get("status").asText());
 
-            if (healthy) {
+            if (nowHealthy) {
                 logger.debug("AI Gateway is healthy at {}", gatewayUrl);
             } else {
                 logger.warn("AI Gateway responded but status is not healthy");
             }
 
-            return healthy;
+            healthy = nowHealthy;
 
         } catch (Exception e) {
             logger.debug("AI Gateway not available at {}: {}", gatewayUrl, e.getMessage());
-            return false;
+            healthy = false;
         }
+
+        return healthy;
+    }
+
+    @Override
+    public String getProviderKey() {
+        return PROVIDER_GATEWAY;
     }
 
     @Override
@@ -1,31 +1,144 @@
 package ru.itmo.kursach_back.service.ai;
 
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
 
 @Service("mockAIService")
 @Primary // Use this by default if no API keys are configured
 public class MockAIService extends AbstractAIService {
 
-    private final Random random = new Random();
+    private static final Font TITLE_FONT = new Font("Arial", Font.BOLD, 12);
+    private static final Font PROMPT_FONT = new Font("Arial", Font.PLAIN, 12);
+    private static final Font FOOTER_FONT = new Font("Arial", Font.ITALIC, 14);
+
+    // "render" draws the prompt into every image; "template" reuses pre-rendered images for load tests
+    @Value("${ai.mock.mode:render}")
+    private String mode;
+
+    @Value("${ai.mock.templates:8}")
+    private int templateCount;
+
+    // Empty means nondeterministic; any number makes images and latency samples reproducible
+    @Value("${ai.mock.seed:}")
+    private String seedValue;
+
+    @Value("${ai.mock.latency.type:uniform}")
+    private String latencyType;
+
+    @Value("${ai.mock.latency.fixed-ms:0}")
+    private long latencyFixedMs;
+
+    @Value("${ai.mock.latency.min-ms:500}")
+    private long latencyMinMs;
+
+    @Value("${ai.mock.latency.max-ms:2000}")
+    private long latencyMaxMs;
+
+    @Value("${ai.mock.latency.histogram:}")
+    private String latencyHistogram;
+
+    private MockLatency latency;
+    private Long seed;
+    private final AtomicLong calls = new AtomicLong();
+
+    // Pre-rendered PNGs per size, used in template mode
+    private final Map<String, List<byte[]>> templates = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void initMockMode() {
+        latency = MockLatency.of(latencyType, latencyFixedMs, latencyMinMs, latencyMaxMs, latencyHistogram);
+        seed = seedValue == null || seedValue.isBlank() ? null : Long.parseLong(seedValue.trim());
+        if (isTemplateMode()) {
+            templatesFor("1024x1024");
+        }
+        logger.info("Mock AI mode={}, latency={}, seed={}", mode, latencyType, seed);
+    }
 
     @Override
     protected byte[] doGenerateImage(String prompt, Map<String, Object> parameters) throws Exception {
+        byte[] image = produceImage(prompt, parameters);
+
+        long delayMs = latency.sampleMillis(nextRandom());
+        if (delayMs > 0) {
+            Thread.sleep(delayMs);
+        }
+        return image;
+    }
+
+    /**
+     * Waits out the sampled latency on a timer instead of a sleeping thread, so load tests measure
+     * the pipeline rather than the size of the elastic pool.
+     */
+    @Override
+    protected Mono<byte[]> doGenerateImageAsync(String prompt, Map<String, Object> parameters) {
+        Mono<byte[]> image = isTemplateMode()
+                ? Mono.fromCallable(() -> produceImage(prompt, parameters))
+                : Mono.fromCallable(() -> produceImage(prompt, parameters)).subscribeOn(Schedulers.boundedElastic());
+
+        return Mono.defer(() -> {
+            long delayMs = latency.sampleMillis(nextRandom());
+            return delayMs > 0 ? image.delayElement(Duration.ofMillis(delayMs)) : image;
+        });
+    }
+
+    private byte[] produceImage(String prompt, Map<String, Object> parameters) throws IOException {
         Map<String, Object> params = mergeParameters(parameters);
+        String size = (String) params.getOrDefault("size", "1024x1024");
+        long contentSeed = contentSeed(prompt, size);
 
-        String sizeStr = (String) params.getOrDefault("size", "1024x1024");
-        String[] dimensions = sizeStr.split("x");
-        int width = Integer.parseInt(dimensions[0]);
-        int height = Integer.parseInt(dimensions[1]);
+        if (isTemplateMode()) {
+            List<byte[]> sizeTemplates = templatesFor(size);
+            // Callers own the returned array, the template itself stays untouched
+            return sizeTemplates.get((int) Math.floorMod(contentSeed, (long) sizeTemplates.size())).clone();
+        }
 
+        String[] dimensions = size.split("x");
+        byte[] image = render(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]),
+                prompt, new SplittableRandom(contentSeed));
+        logger.info("Generated mock image for prompt: {}", prompt);
+        return image;
+    }
+
+    private List<byte[]> templatesFor(String size) {
+        return templates.computeIfAbsent(size, key -> {
+            String[] dimensions = key.split("x");
+            int width = Integer.parseInt(dimensions[0]);
+            int height = Integer.parseInt(dimensions[1]);
+            long base = seed != null ? seed : 0;
+            return IntStream.range(0, Math.max(1, templateCount))
+                    .mapToObj(i -> {
+                        try {
+                            return render(width, height, "Load test template #" + (i + 1),
+                                    new SplittableRandom(base + i));
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Failed to render mock template", e);
+                        }
+                    })
+                    .toList();
+        });
+    }
+
+    private byte[] render(int width, int height, String prompt, RandomGenerator random) throws IOException {
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         Graphics2D g2d = image.createGraphics();
 
@@ -39,7 +152,7 @@ public class MockAIService extends AbstractAIService {
 
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g2d.setColor(Color.BLACK);
-        g2d.setFont(new Font("Arial", Font.BOLD, Math.min(width, height) / 20));
+        g2d.setFont(TITLE_FONT.deriveFont((float) (Math.min(width, height) / 20)));
 
         String displayText = "AI Generated (Mock)";
         FontMetrics fm = g2d.getFontMetrics();
@@ -48,7 +161,7 @@ public class MockAIService extends AbstractAIService {
         int textY = height / 2 - 50;
         g2d.drawString(displayText, textX, textY);
 
-        g2d.setFont(new Font("Arial", Font.PLAIN, Math.min(width, height) / 30));
+        g2d.setFont(PROMPT_FONT.deriveFont((float) (Math.min(width, height) / 30)));
         fm = g2d.getFontMetrics();
         String[] words = prompt.split(" ");
         StringBuilder line = new StringBuilder();
@@ -70,7 +183,7 @@ public class MockAIService extends AbstractAIService {
             g2d.drawString(line.toString(), lineX, lineY);
         }
 
-        g2d.setFont(new Font("Arial", Font.ITALIC, 14));
+        g2d.setFont(FOOTER_FONT);
         g2d.setColor(new Color(0, 0, 0, 100));
         g2d.drawString("Mock AI Service - Configure real API for production", 20, height - 20);
 
@@ -78,17 +191,44 @@ public class MockAIService extends AbstractAIService {
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ImageIO.write(image, "PNG", baos);
+        return baos.toByteArray();
+    }
 
-        Thread.sleep(500 + random.nextInt(1500));
+    private boolean isTemplateMode() {
+        return "template".equalsIgnoreCase(mode);
+    }
 
-        logger.info("Generated mock image for prompt: {}", prompt);
-        return baos.toByteArray();
+    /**
+     * Same prompt and size give the same image when a seed is configured
+     */
+    private long contentSeed(String prompt, String size) {
+        if (seed == null) {
+            return ThreadLocalRandom.current().nextLong();
+        }
+        return seed * 31 * 31 + prompt.hashCode() * 31L + size.hashCode();
+    }
+
+    /**
+     * Per-call generator: a seeded sequence when configured, so a replayed run samples the same latencies
+     */
+    private RandomGenerator nextRandom() {
+        return seed != null ? new SplittableRandom(seed + calls.getAndIncrement()) : ThreadLocalRandom.current();
     }
 
     public boolean isAvailable() {
         return true;
     }
 
+    @Override
+    protected boolean usesAdmissionControl() {
+        return false; // local rendering, nothing to protect
+    }
+
+    @Override
+    public String getProviderKey() {
+        return PROVIDER_MOCK;
+    }
+
     public String getServiceName() {
         return "Mock AI Service";
     }
@@ -100,4 +240,3 @@ public class MockAIService extends AbstractAIService {
         return dimensions;
     }
 }
-
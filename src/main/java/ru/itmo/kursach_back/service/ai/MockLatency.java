@@ -0,0 +1,79 @@
+package ru.itmo.kursach_back.service.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * Latency distribution for MockAIService, sampled once per generated image.
+ */
+@FunctionalInterface
+public interface MockLatency {
+
+    long sampleMillis(RandomGenerator random);
+
+    static MockLatency zero() {
+        return random -> 0;
+    }
+
+    static MockLatency fixed(long millis) {
+        return random -> millis;
+    }
+
+    static MockLatency uniform(long minMillis, long maxMillis) {
+        return random -> maxMillis <= minMillis ? minMillis : random.nextLong(minMillis, maxMillis + 1);
+    }
+
+    /**
+     * Replays a latency histogram such as one exported from production metrics.
+     * The spec lists {@code upperBoundMs:count} buckets, e.g. "500:120,1000:300,5000:80";
+     * a sample picks a bucket by count and a uniform value between the previous bound and its own.
+     */
+    static MockLatency histogram(String spec) {
+        List<long[]> buckets = new ArrayList<>();
+        for (String bucket : spec.split(",")) {
+            String[] parts = bucket.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid latency histogram bucket: " + bucket);
+            }
+            buckets.add(new long[]{Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim())});
+        }
+        buckets.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        long[] bounds = new long[buckets.size()];
+        long[] cumulative = new long[buckets.size()];
+        long total = 0;
+        for (int i = 0; i < buckets.size(); i++) {
+            bounds[i] = buckets.get(i)[0];
+            total += buckets.get(i)[1];
+            cumulative[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Latency histogram has no samples: " + spec);
+        }
+
+        long totalCount = total;
+        return random -> {
+            long pick = random.nextLong(totalCount);
+            int index = 0;
+            while (cumulative[index] <= pick) {
+                index++;
+            }
+            long lower = index == 0 ? 0 : bounds[index - 1];
+            return lower >= bounds[index] ? bounds[index] : random.nextLong(lower, bounds[index] + 1);
+        };
+    }
+
+    /**
+     * Builds the distribution named by ai.mock.latency.type: zero, fixed, uniform or histogram.
+     */
+    static MockLatency of(String type, long fixedMillis, long minMillis, long maxMillis, String histogram) {
+        return switch (type.trim().toLowerCase()) {
+            case "zero" -> zero();
+            case "fixed" -> fixed(fixedMillis);
+            case "uniform" -> uniform(minMillis, maxMillis);
+            case "histogram" -> histogram(histogram);
+            default -> throw new IllegalArgumentException("Unknown mock latency type: " + type);
+        };
+    }
+}
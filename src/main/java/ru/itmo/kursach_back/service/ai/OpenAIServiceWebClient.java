@@ -2,18 +2,23 @@ package ru.itmo.kursach_back.service.ai;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ClientHttpConnector;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.net.URL;
+import java.net.URI;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service("openAIService")
@@ -28,26 +33,57 @@ public class OpenAIServiceWebClient extends AbstractAIService {
     @Value("${openai.model:dall-e-3}")
     private String model;
 
+    // "b64_json" returns the image inline, "url" needs a second fetch from the provider CDN
+    @Value("${openai.response-format:b64_json}")
+    private String responseFormat;
+
     private final WebClient webClient;
+    private final WebClient downloadClient;
     private final ObjectMapper objectMapper;
 
-    public OpenAIServiceWebClient(@Value("${openai.api.url}") String apiUrl) {
+    public OpenAIServiceWebClient(@Value("${openai.api.url}") String apiUrl,
+                                  @Qualifier("aiProviderHttpConnector") ClientHttpConnector connector,
+                                  @Qualifier("imageDownloadWebClient") WebClient downloadClient) {
         this.apiUrl = apiUrl;
         this.webClient = WebClient.builder()
+                .clientConnector(connector)
                 .baseUrl(apiUrl)
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .build();
+        this.downloadClient = downloadClient;
         this.objectMapper = new ObjectMapper();
     }
 
     @Override
     protected byte[] doGenerateImage(String prompt, Map<String, Object> parameters) throws Exception {
+        return blockOn(doGenerateImageAsync(prompt, parameters));
+    }
+
+    @Override
+    protected Mono<byte[]> doGenerateImageAsync(String prompt, Map<String, Object> parameters) {
+        return requestImages(prompt, parameters, 1).map(images -> images.get(0));
+    }
+
+    @Override
+    protected Mono<List<byte[]>> doGenerateImagesAsync(String prompt, Map<String, Object> parameters, int count) {
+        return requestImages(prompt, parameters, count);
+    }
+
+    /**
+     * DALL-E 3 accepts only n=1; DALL-E 2 returns up to 10 images per call.
+     */
+    @Override
+    protected int nativeBatchLimit() {
+        return model.contains("dall-e-3") ? 1 : 10;
+    }
+
+    private Mono<List<byte[]>> requestImages(String prompt, Map<String, Object> parameters, int count) {
         if (!isAvailable()) {
-            throw new AIGenerationException(
+            return Mono.error(new AIGenerationException(
                 "OpenAI service not configured",
                 getServiceName(),
                 AIGenerationException.ErrorType.API_KEY_MISSING
-            );
+            ));
         }
 
         Map<String, Object> params = mergeParameters(parameters);
@@ -55,7 +91,7 @@ public class OpenAIServiceWebClient extends AbstractAIService {
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("model", model);
         requestBody.put("prompt", prompt);
-        requestBody.put("n", 1);
+        requestBody.put("n", count);
         requestBody.put("size", params.getOrDefault("size", "1024x1024"));
 
         if (model.contains("dall-e-3")) {
@@ -63,48 +99,80 @@ public class OpenAIServiceWebClient extends AbstractAIService {
             requestBody.put("style", params.getOrDefault("style", "vivid"));
         }
 
-        requestBody.put("response_format", "url");
-
-        logger.info("Generating image with OpenAI: model={}, size={}, prompt='{}'",
-                   model, requestBody.get("size"), prompt);
-
-        try {
+        boolean inline = !"url".equals(responseFormat);
+        requestBody.put("response_format", inline ? "b64_json" : "url");
+
+        logger.info("Generating image with OpenAI: model={}, size={}, n={}, format={}, prompt='{}'",
+                   model, requestBody.get("size"), count, requestBody.get("response_format"), prompt);
+
+        WebClient.ResponseSpec response = webClient.post()
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                .bodyValue(requestBody)
+                .retrieve();
+
+        Mono<List<byte[]>> images = inline
+                ? response.bodyToFlux(DataBuffer.class)
+                        .as(body -> StreamingImageDecoder.decode(body, "/data/*/b64_json"))
+                        .flatMap(decoded -> Mono.fromCallable(() -> extractInlineImages(decoded)))
+                : response.bodyToMono(String.class)
+                        .flatMap(responseJson -> Mono.fromCallable(() -> extractImageUrls(responseJson)))
+                        .flatMapMany(Flux::fromIterable)
+                        .flatMapSequential(this::downloadImage)
+                        .collectList();
+
+        return images
+                .timeout(Duration.ofMillis(timeoutMs))
+                .onErrorMap(this::toGenerationException);
+    }
 
-            String responseJson = webClient.post()
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .timeout(Duration.ofMillis(timeoutMs))
-                    .block();
-
-            JsonNode responseNode = objectMapper.readTree(responseJson);
-            JsonNode dataArray = responseNode.get("data");
-
-            if (dataArray == null || !dataArray.isArray() || dataArray.isEmpty()) {
-                throw new AIGenerationException(
-                    "No image data in response",
-                    getServiceName(),
-                    AIGenerationException.ErrorType.UNKNOWN_ERROR
-                );
-            }
+    private List<byte[]> extractInlineImages(StreamingImageDecoder.DecodedResponse decoded)
+            throws AIGenerationException {
+        if (decoded.images().isEmpty()) {
+            throw new AIGenerationException(
+                "No image data in response",
+                getServiceName(),
+                AIGenerationException.ErrorType.UNKNOWN_ERROR
+            );
+        }
 
-            String imageUrl = dataArray.get(0).get("url").asText();
-            logger.info("Image generated successfully, downloading from: {}", imageUrl);
+        logger.info("Generated {} image(s) successfully", decoded.images().size());
+        return decoded.images();
+    }
 
-            return downloadImage(imageUrl);
+    private List<String> extractImageUrls(String responseJson) throws Exception {
+        JsonNode responseNode = objectMapper.readTree(responseJson);
+        JsonNode dataArray = responseNode.get("data");
 
-        } catch (WebClientResponseException e) {
-            throw handleWebClientError(e);
-        } catch (Exception e) {
-            logger.error("Error generating image: {}", e.getMessage(), e);
+        if (dataArray == null || !dataArray.isArray() || dataArray.isEmpty()) {
             throw new AIGenerationException(
-                "Failed to generate image: " + e.getMessage(),
+                "No image data in response",
                 getServiceName(),
-                AIGenerationException.ErrorType.UNKNOWN_ERROR,
-                e
+                AIGenerationException.ErrorType.UNKNOWN_ERROR
             );
         }
+
+        List<String> imageUrls = new ArrayList<>();
+        for (JsonNode item : dataArray) {
+            imageUrls.add(item.get("url").asText());
+        }
+        logger.info("Image generated successfully, downloading from: {}", imageUrls);
+        return imageUrls;
+    }
+
+    private Throwable toGenerationException(Throwable e) {
+        if (e instanceof AIGenerationException) {
+            return e;
+        }
+        if (e instanceof WebClientResponseException responseException) {
+            return handleWebClientError(responseException);
+        }
+        logger.error("Error generating image: {}", e.getMessage(), e);
+        return new AIGenerationException(
+            "Failed to generate image: " + e.getMessage(),
+            getServiceName(),
+            AIGenerationException.ErrorType.UNKNOWN_ERROR,
+            e
+        );
     }
 
     private AIGenerationException handleWebClientError(WebClientResponseException e) {
@@ -124,31 +192,28 @@ public class OpenAIServiceWebClient extends AbstractAIService {
             } else if (type.contains("content_policy")) {
                 errorType = AIGenerationException.ErrorType.CONTENT_POLICY_VIOLATION;
             } else {
-                errorType = AIGenerationException.ErrorType.UNKNOWN_ERROR;
+                errorType = RetryPolicy.classifyStatus(e.getStatusCode().value());
             }
         } catch (Exception parseEx) {
             message = "HTTP " + e.getStatusCode().value() + ": " + e.getStatusText();
-            errorType = AIGenerationException.ErrorType.UNKNOWN_ERROR;
+            errorType = RetryPolicy.classifyStatus(e.getStatusCode().value());
         }
 
-        return new AIGenerationException(message, getServiceName(), errorType, e);
+        return new AIGenerationException(message, getServiceName(), errorType, e)
+                .withRetryAfter(RetryPolicy.parseRetryAfter(e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)));
     }
 
-    private byte[] downloadImage(String imageUrl) throws Exception {
-        URL url = new URL(imageUrl);
-        try (InputStream in = url.openStream();
-             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-            }
-
-            byte[] imageBytes = out.toByteArray();
-            logger.info("Downloaded image: {} bytes", imageBytes.length);
-            return imageBytes;
-        }
+    /**
+     * Fetches the generated image over the pooled download client; connect and read deadlines
+     * come from ai.http.download.*.
+     */
+    private Mono<byte[]> downloadImage(String imageUrl) {
+        return downloadClient.get()
+                .uri(URI.create(imageUrl))
+                .retrieve()
+                .bodyToFlux(DataBuffer.class)
+                .as(StreamingImageDecoder::readBinary)
+                .doOnNext(imageBytes -> logger.info("Downloaded image: {} bytes", imageBytes.length));
     }
 
     public boolean isAvailable() {
@@ -167,6 +232,11 @@ public class OpenAIServiceWebClient extends AbstractAIService {
         return available;
     }
 
+    @Override
+    public String getProviderKey() {
+        return PROVIDER_OPENAI;
+    }
+
     public String getServiceName() {
         return "OpenAI " + model.toUpperCase();
     }
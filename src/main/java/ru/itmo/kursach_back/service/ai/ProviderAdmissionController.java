@@ -0,0 +1,131 @@
+package ru.itmo.kursach_back.service.ai;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control for calls to one AI provider: a semaphore caps in-flight calls
+ * and a token bucket caps the call rate. The refill rate is halved whenever the provider
+ * answers 429 and recovers linearly back to the configured maximum over {@code recoveryMs}.
+ * A non-positive maximum rate disables the token bucket and keeps only the concurrency cap.
+ */
+public class ProviderAdmissionController {
+
+    private final Semaphore inFlight;
+    private final int maxConcurrent;
+    private final double maxRatePerSecond;
+    private final double minRatePerSecond;
+    private final double burst;
+    private final long recoveryMs;
+
+    private double ratePerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public ProviderAdmissionController(int maxConcurrent,
+                                       double maxRatePerSecond,
+                                       double minRatePerSecond,
+                                       double burst,
+                                       long recoveryMs) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.inFlight = new Semaphore(this.maxConcurrent, true);
+        this.maxRatePerSecond = maxRatePerSecond;
+        this.minRatePerSecond = Math.min(minRatePerSecond, maxRatePerSecond);
+        this.burst = Math.max(1.0, burst);
+        this.recoveryMs = Math.max(1, recoveryMs);
+        this.ratePerSecond = maxRatePerSecond;
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits up to {@code maxWaitMs} for both a concurrency slot and a rate token.
+     * Returns false if the provider is still saturated when the wait runs out;
+     * on true the caller must call release() when the provider call ends.
+     */
+    public boolean tryAcquire(long maxWaitMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+
+        if (!inFlight.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+
+        while (true) {
+            long waitNanos = tryTakeToken();
+            if (waitNanos == 0) {
+                return true;
+            }
+            if (System.nanoTime() + waitNanos > deadline) {
+                inFlight.release();
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Non-waiting variant of tryAcquire() for reactive callers, which poll instead of parking a thread.
+     */
+    public boolean tryAcquireNow() {
+        if (!inFlight.tryAcquire()) {
+            return false;
+        }
+        if (tryTakeToken() == 0) {
+            return true;
+        }
+        inFlight.release();
+        return false;
+    }
+
+    public void release() {
+        inFlight.release();
+    }
+
+    public synchronized void onRateLimited() {
+        refill(System.nanoTime());
+        ratePerSecond = Math.max(minRatePerSecond, ratePerSecond / 2);
+        tokens = 0;
+    }
+
+    public int getInFlight() {
+        return maxConcurrent - inFlight.availablePermits();
+    }
+
+    public int getQueued() {
+        return inFlight.getQueueLength();
+    }
+
+    public synchronized double getRatePerSecond() {
+        refill(System.nanoTime());
+        return ratePerSecond;
+    }
+
+    /**
+     * Takes a token if one is available and returns 0, otherwise returns the nanos until the next token.
+     */
+    private synchronized long tryTakeToken() {
+        if (maxRatePerSecond <= 0) {
+            return 0; // rate limiting disabled
+        }
+        refill(System.nanoTime());
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return 0;
+        }
+        return Math.max(1, (long) ((1.0 - tokens) / ratePerSecond * 1_000_000_000L));
+    }
+
+    private void refill(long now) {
+        double elapsedMs = (now - lastRefillNanos) / 1_000_000.0;
+        if (elapsedMs <= 0) {
+            return;
+        }
+
+        tokens = Math.min(burst, tokens + ratePerSecond * elapsedMs / 1000.0);
+        if (ratePerSecond < maxRatePerSecond) {
+            ratePerSecond = Math.min(maxRatePerSecond,
+                    ratePerSecond + maxRatePerSecond * elapsedMs / recoveryMs);
+        }
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,156 @@
+package ru.itmo.kursach_back.service.ai;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Count-based circuit breaker for a single AI provider.
+ * <p>
+ * CLOSED opens once the failure rate over the last {@code windowSize} calls reaches the threshold.
+ * OPEN rejects calls for {@code openDurationMs}, then lets {@code halfOpenCalls} trial calls through (HALF_OPEN).
+ * All trials succeeding closes the circuit again, any trial failing re-opens it.
+ */
+public class ProviderCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProviderCircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String providerName;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openDurationMs;
+    private final int halfOpenCalls;
+    private final BiConsumer<State, State> transitionListener;
+
+    // Ring buffer of the last outcomes, true = failure
+    private final boolean[] outcomes;
+    private int recordedCalls;
+    private int nextIndex;
+    private int failedCalls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermitsIssued;
+    private int halfOpenSuccesses;
+
+    public ProviderCircuitBreaker(String providerName,
+                                  int windowSize,
+                                  int minimumCalls,
+                                  double failureRateThreshold,
+                                  long openDurationMs,
+                                  int halfOpenCalls,
+                                  BiConsumer<State, State> transitionListener) {
+        this.providerName = providerName;
+        this.outcomes = new boolean[Math.max(1, windowSize)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, outcomes.length));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationMs = openDurationMs;
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.transitionListener = transitionListener;
+    }
+
+    /**
+     * Reserves a call slot. Every granted permission must be followed by
+     * onSuccess(), onFailure() or releasePermission().
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDurationMs) {
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermitsIssued >= halfOpenCalls) {
+                return false;
+            }
+            halfOpenPermitsIssued++;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            halfOpenSuccesses++;
+            if (halfOpenSuccesses >= halfOpenCalls) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.OPEN);
+            return;
+        }
+
+        record(true);
+        if (state == State.CLOSED && recordedCalls >= minimumCalls && getFailureRate() >= failureRateThreshold) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    /**
+     * Gives back a permission whose call ended with an error that says nothing about provider health.
+     */
+    public synchronized void releasePermission() {
+        if (state == State.HALF_OPEN && halfOpenPermitsIssued > 0) {
+            halfOpenPermitsIssued--;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized double getFailureRate() {
+        return recordedCalls == 0 ? 0.0 : failedCalls * 100.0 / recordedCalls;
+    }
+
+    private void record(boolean failure) {
+        if (recordedCalls == outcomes.length) {
+            if (outcomes[nextIndex]) {
+                failedCalls--;
+            }
+        } else {
+            recordedCalls++;
+        }
+
+        outcomes[nextIndex] = failure;
+        if (failure) {
+            failedCalls++;
+        }
+        nextIndex = (nextIndex + 1) % outcomes.length;
+    }
+
+    private void transitionTo(State next) {
+        State previous = state;
+        if (previous == next) {
+            return;
+        }
+
+        state = next;
+        halfOpenPermitsIssued = 0;
+        halfOpenSuccesses = 0;
+        if (next == State.OPEN) {
+            openedAt = System.currentTimeMillis();
+        } else {
+            recordedCalls = 0;
+            nextIndex = 0;
+            failedCalls = 0;
+        }
+
+        logger.warn("Circuit breaker for {}: {} -> {}", providerName, previous, next);
+        transitionListener.accept(previous, next);
+    }
+}
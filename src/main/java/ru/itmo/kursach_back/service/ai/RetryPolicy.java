@@ -0,0 +1,126 @@
+package ru.itmo.kursach_back.service.ai;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry decisions for provider calls: whether an error is worth retrying, how long to wait
+ * (decorrelated-jitter backoff, or the provider's Retry-After when that is longer) and whether
+ * the wait still fits into the deadline shared by all attempts of one generation.
+ */
+public class RetryPolicy {
+
+    // Absolute System.nanoTime() deadline the factory attaches to the call parameters
+    public static final String DEADLINE_PARAM = "deadlineNanos";
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long deadlineMs;
+
+    public record Deadline(long expiresAtNanos) {
+
+        public long remainingMs() {
+            return Math.max(0, (expiresAtNanos - System.nanoTime()) / 1_000_000);
+        }
+
+        public boolean isExpired() {
+            return expiresAtNanos - System.nanoTime() <= 0;
+        }
+    }
+
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs, long deadlineMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+        this.deadlineMs = deadlineMs;
+    }
+
+    public Deadline newDeadline() {
+        return new Deadline(System.nanoTime() + Duration.ofMillis(deadlineMs).toNanos());
+    }
+
+    /**
+     * The deadline attached by the caller, or a fresh one for direct provider calls
+     */
+    public Deadline deadlineOf(Map<String, Object> parameters) {
+        Object expiresAt = parameters != null ? parameters.get(DEADLINE_PARAM) : null;
+        return expiresAt instanceof Long nanos ? new Deadline(nanos) : newDeadline();
+    }
+
+    /**
+     * Request errors and local overload can never succeed by retrying the same provider;
+     * throttling, outages and transport errors can.
+     */
+    public boolean isRetryable(Throwable e) {
+        if (e instanceof IllegalArgumentException) {
+            return false;
+        }
+        if (!(e instanceof AIGenerationException aiException)) {
+            return true;
+        }
+        return switch (aiException.getErrorType()) {
+            case RATE_LIMIT_EXCEEDED, NETWORK_ERROR, SERVICE_UNAVAILABLE, UNKNOWN_ERROR -> true;
+            case API_KEY_MISSING, API_KEY_INVALID, CONTENT_POLICY_VIOLATION, INVALID_PARAMETERS,
+                 PROVIDER_OVERLOADED, DEADLINE_EXCEEDED -> false;
+        };
+    }
+
+    /**
+     * Delay before the next attempt after {@code attempt} attempts failed, or -1 to give up.
+     * {@code previousDelayMs} is the last delay returned for this call (0 before the first retry).
+     */
+    public long nextDelayMs(int attempt, long previousDelayMs, Throwable failure, Deadline deadline) {
+        if (attempt >= maxAttempts || !isRetryable(failure)) {
+            return -1;
+        }
+
+        // Decorrelated jitter: random between the base and three times the previous delay, capped
+        long upper = Math.min(maxDelayMs, Math.max(baseDelayMs, previousDelayMs) * 3);
+        long delayMs = upper <= baseDelayMs ? baseDelayMs : ThreadLocalRandom.current().nextLong(baseDelayMs, upper + 1);
+
+        if (failure instanceof AIGenerationException aiException && aiException.getRetryAfter() != null) {
+            delayMs = Math.max(delayMs, aiException.getRetryAfter().toMillis());
+        }
+
+        // Waiting past the deadline only to be cut off by it helps nobody
+        return delayMs < deadline.remainingMs() ? delayMs : -1;
+    }
+
+    /**
+     * Error type implied by an HTTP status when the provider's body does not name one
+     */
+    public static AIGenerationException.ErrorType classifyStatus(int status) {
+        return switch (status) {
+            case 400, 422 -> AIGenerationException.ErrorType.INVALID_PARAMETERS;
+            case 401, 403 -> AIGenerationException.ErrorType.API_KEY_INVALID;
+            case 429 -> AIGenerationException.ErrorType.RATE_LIMIT_EXCEEDED;
+            case 502, 503, 504 -> AIGenerationException.ErrorType.SERVICE_UNAVAILABLE;
+            default -> AIGenerationException.ErrorType.UNKNOWN_ERROR;
+        };
+    }
+
+    /**
+     * Parses a Retry-After header value: delay in seconds or an HTTP date. Returns null if absent or invalid.
+     */
+    public static Duration parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime retryAt = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                Duration delay = Duration.between(ZonedDateTime.now(retryAt.getZone()), retryAt);
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+}
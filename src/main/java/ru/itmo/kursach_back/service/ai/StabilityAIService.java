@@ -1,17 +1,19 @@
 package ru.itmo.kursach_back.service.ai;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ClientHttpConnector;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
 
 import java.time.Duration;
-import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service("stabilityAIService")
@@ -27,25 +29,44 @@ public class StabilityAIService extends AbstractAIService {
     private String model;
 
     private final WebClient webClient;
-    private final ObjectMapper objectMapper;
 
-    public StabilityAIService(@Value("${stability.api.url}") String apiUrl) {
+    public StabilityAIService(@Value("${stability.api.url}") String apiUrl,
+                              @Qualifier("aiProviderHttpConnector") ClientHttpConnector connector) {
         this.apiUrl = apiUrl;
         this.webClient = WebClient.builder()
+                .clientConnector(connector)
                 .baseUrl(apiUrl)
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .build();
-        this.objectMapper = new ObjectMapper();
     }
 
     @Override
     protected byte[] doGenerateImage(String prompt, Map<String, Object> parameters) throws Exception {
+        return blockOn(doGenerateImageAsync(prompt, parameters));
+    }
+
+    @Override
+    protected Mono<byte[]> doGenerateImageAsync(String prompt, Map<String, Object> parameters) {
+        return requestImages(prompt, parameters, 1).map(images -> images.get(0));
+    }
+
+    @Override
+    protected Mono<List<byte[]>> doGenerateImagesAsync(String prompt, Map<String, Object> parameters, int count) {
+        return requestImages(prompt, parameters, count);
+    }
+
+    @Override
+    protected int nativeBatchLimit() {
+        return 10;
+    }
+
+    private Mono<List<byte[]>> requestImages(String prompt, Map<String, Object> parameters, int count) {
         if (!isAvailable()) {
-            throw new AIGenerationException(
+            return Mono.error(new AIGenerationException(
                 "Stability AI not configured",
                 getServiceName(),
                 AIGenerationException.ErrorType.API_KEY_MISSING
-            );
+            ));
         }
 
         Map<String, Object> params = mergeParameters(parameters);
@@ -65,54 +86,39 @@ public class StabilityAIService extends AbstractAIService {
         requestBody.put("height", height);
         requestBody.put("cfg_scale", 7.0);
         requestBody.put("steps", 30);
-        requestBody.put("samples", 1);
+        requestBody.put("samples", count);
 
         logger.info("Generating with Stability AI: {}x{}", width, height);
 
-        try {
-            String responseJson = webClient.post()
-                    .uri("")
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .timeout(Duration.ofMillis(timeoutMs))
-                    .block();
-
-            JsonNode responseNode = objectMapper.readTree(responseJson);
-            JsonNode artifacts = responseNode.get("artifacts");
-
-            if (artifacts == null || !artifacts.isArray() || artifacts.isEmpty()) {
-                throw new AIGenerationException(
-                    "No image data",
-                    getServiceName(),
-                    AIGenerationException.ErrorType.UNKNOWN_ERROR
-                );
-            }
-
-            JsonNode firstArtifact = artifacts.get(0);
-            if (!firstArtifact.has("base64")) {
-                throw new AIGenerationException(
-                    "No base64 data",
-                    getServiceName(),
-                    AIGenerationException.ErrorType.UNKNOWN_ERROR
-                );
-            }
-
-            String base64Image = firstArtifact.get("base64").asText();
-            logger.info("Image generated successfully");
-
-            return Base64.getDecoder().decode(base64Image);
-
-        } catch (WebClientResponseException e) {
-            AIGenerationException.ErrorType errorType = AIGenerationException.ErrorType.UNKNOWN_ERROR;
-            if (e.getStatusCode().value() == 401 || e.getStatusCode().value() == 403) {
-                errorType = AIGenerationException.ErrorType.API_KEY_INVALID;
-            } else if (e.getStatusCode().value() == 429) {
-                errorType = AIGenerationException.ErrorType.RATE_LIMIT_EXCEEDED;
-            }
-            throw new AIGenerationException(e.getMessage(), getServiceName(), errorType, e);
+        return webClient.post()
+                .uri("")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                .bodyValue(requestBody)
+                .retrieve()
+                .bodyToFlux(DataBuffer.class)
+                .as(body -> StreamingImageDecoder.decode(body, "/artifacts/*/base64"))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .flatMap(decoded -> Mono.fromCallable(() -> extractImages(decoded)))
+                .onErrorMap(WebClientResponseException.class, this::handleWebClientError);
+    }
+
+    private List<byte[]> extractImages(StreamingImageDecoder.DecodedResponse decoded) throws AIGenerationException {
+        if (decoded.images().isEmpty()) {
+            throw new AIGenerationException(
+                "No image data",
+                getServiceName(),
+                AIGenerationException.ErrorType.UNKNOWN_ERROR
+            );
         }
+
+        logger.info("Generated {} image(s) successfully", decoded.images().size());
+        return decoded.images();
+    }
+
+    private AIGenerationException handleWebClientError(WebClientResponseException e) {
+        AIGenerationException.ErrorType errorType = RetryPolicy.classifyStatus(e.getStatusCode().value());
+        return new AIGenerationException(e.getMessage(), getServiceName(), errorType, e)
+                .withRetryAfter(RetryPolicy.parseRetryAfter(e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)));
     }
 
     public boolean isAvailable() {
@@ -122,6 +128,11 @@ public class StabilityAIService extends AbstractAIService {
         return available;
     }
 
+    @Override
+    public String getProviderKey() {
+        return PROVIDER_STABILITY;
+    }
+
     public String getServiceName() {
         return "Stability AI " + model.toUpperCase();
     }
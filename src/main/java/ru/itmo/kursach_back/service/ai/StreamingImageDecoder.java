@@ -0,0 +1,203 @@
+package ru.itmo.kursach_back.service.ai;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extracts base64 image fields from a provider's JSON response without building the body as a String.
+ * The body is spooled to a temp file as it arrives and then walked with a Jackson streaming parser,
+ * which decodes each matching field straight into an array of exactly its decoded size (read off the
+ * spooled file), so nothing is copied afterwards. Small top-level scalar fields (success, error, ...)
+ * are collected along the way for the caller's error handling.
+ */
+public final class StreamingImageDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // Larger images are rejected by ImageService.validateFile anyway
+    public static final int MAX_BINARY_BYTES = 10 * 1024 * 1024;
+    // Four such images base64-encoded (a full batch of variants), plus room for the rest of the response
+    public static final long MAX_JSON_BYTES = (long) MAX_BINARY_BYTES / 3 * 4 * 4 + 1024 * 1024;
+
+    public record DecodedResponse(List<byte[]> images, Map<String, String> fields) {
+
+        /**
+         * First decoded image, or null if the response had none
+         */
+        public byte[] image() {
+            return images.isEmpty() ? null : images.get(0);
+        }
+    }
+
+    private StreamingImageDecoder() {
+    }
+
+    /**
+     * Decodes every string matching {@code imagePointer}, a JSON pointer in which "*" matches any array
+     * index (e.g. "/artifacts/*/base64"). The temp file is removed on completion, error and cancellation.
+     * Bodies over MAX_JSON_BYTES fail with DataBufferLimitException once that much was spooled.
+     */
+    public static Mono<DecodedResponse> decode(Flux<DataBuffer> body, String imagePointer) {
+        return decode(body, imagePointer, MAX_JSON_BYTES);
+    }
+
+    static Mono<DecodedResponse> decode(Flux<DataBuffer> body, String imagePointer, long maxBytes) {
+        String[] target = imagePointer.substring(1).split("/");
+        return Mono.usingWhen(
+                Mono.fromCallable(() -> Files.createTempFile("ai-response-", ".json"))
+                        .subscribeOn(Schedulers.boundedElastic()),
+                file -> DataBufferUtils.write(limited(body, maxBytes), file)
+                        .then(Mono.fromCallable(() -> parse(file, target))
+                                .subscribeOn(Schedulers.boundedElastic())),
+                file -> Mono.fromRunnable(() -> deleteQuietly(file))
+                        .subscribeOn(Schedulers.boundedElastic())
+        );
+    }
+
+    /**
+     * Joins a binary (image/*) response body into a single array; bodies over MAX_BINARY_BYTES fail
+     * with DataBufferLimitException instead of being buffered.
+     */
+    public static Mono<byte[]> readBinary(Flux<DataBuffer> body) {
+        return DataBufferUtils.join(body, MAX_BINARY_BYTES).map(buffer -> {
+            try {
+                byte[] bytes = new byte[buffer.readableByteCount()];
+                buffer.read(bytes);
+                return bytes;
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        });
+    }
+
+    private static Flux<DataBuffer> limited(Flux<DataBuffer> body, long maxBytes) {
+        return Flux.defer(() -> {
+            AtomicLong total = new AtomicLong();
+            return body.<DataBuffer>handle((buffer, sink) -> {
+                if (total.addAndGet(buffer.readableByteCount()) > maxBytes) {
+                    DataBufferUtils.release(buffer);
+                    sink.error(new DataBufferLimitException("Provider response exceeds " + maxBytes + " bytes"));
+                } else {
+                    sink.next(buffer);
+                }
+            });
+        });
+    }
+
+    private static DecodedResponse parse(Path file, String[] target) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        List<byte[]> images = new ArrayList<>();
+
+        try (JsonParser parser = JSON_FACTORY.createParser(file.toFile());
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (!token.isScalarValue()) {
+                    continue;
+                }
+
+                JsonStreamContext context = parser.getParsingContext();
+                if (token == JsonToken.VALUE_STRING && matches(context.pathAsPointer(), target)) {
+                    int size = decodedSize(channel, parser.getTokenLocation().getByteOffset() + 1);
+                    // Escaped content cannot be measured up front; let the buffer grow
+                    PresizedOutputStream out = new PresizedOutputStream(Math.max(size, 8192));
+                    parser.readBinaryValue(out);
+                    images.add(out.bytes());
+                } else if (context.inObject() && context.getParent().inRoot()) {
+                    fields.put(context.getCurrentName(), parser.getText());
+                }
+            }
+        }
+
+        return new DecodedResponse(images, fields);
+    }
+
+    /**
+     * Decoded length of the base64 string whose content starts at {@code start} (just past the opening
+     * quote), counted from the file up to the closing quote; -1 if the string holds JSON escapes
+     */
+    private static int decodedSize(FileChannel channel, long start) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = start;
+        long chars = 0;
+        int padding = 0;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return -1;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '"') {
+                    // Every 4 chars carry 3 bytes; a 2- or 3-char unpadded tail carries 1 or 2
+                    long bytes = chars / 4 * 3 + Math.max(0, chars % 4 - 1) - padding;
+                    return bytes < 0 || bytes > Integer.MAX_VALUE - 8 ? -1 : (int) bytes;
+                }
+                if (b == '\\') {
+                    return -1;
+                }
+                padding = b == '=' ? padding + 1 : 0;
+                chars++;
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Hands out its buffer itself when the content filled it exactly, instead of copying it
+     */
+    private static final class PresizedOutputStream extends ByteArrayOutputStream {
+
+        PresizedOutputStream(int size) {
+            super(size);
+        }
+
+        byte[] bytes() {
+            return count == buf.length ? buf : toByteArray();
+        }
+    }
+
+    private static boolean matches(JsonPointer pointer, String[] target) {
+        JsonPointer current = pointer;
+        for (String segment : target) {
+            if (current.matches() || !("*".equals(segment) ? current.mayMatchElement()
+                    : segment.equals(current.getMatchingProperty()))) {
+                return false;
+            }
+            current = current.tail();
+        }
+        return current.matches();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+}
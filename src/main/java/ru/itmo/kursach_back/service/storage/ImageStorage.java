@@ -0,0 +1,56 @@
+package ru.itmo.kursach_back.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Where image files live. Files are addressed by keys such as {@code 3f/a2/3fa2...e1.png}: the
+ * content hash sharded by its first two byte pairs, so no directory (or key prefix) holds more
+ * than a small share of the files. Keys are what ImageData, ImageBlob and ImageDerivative keep
+ * in storage_path.
+ */
+public interface ImageStorage {
+
+    // Backends selectable with images.storage.backend
+    String BACKEND_LOCAL = "local";
+    String BACKEND_S3 = "s3";
+
+    // The flat directory images were kept in before this abstraction. Paths under it refer to local
+    // files whichever the backend, until ImageStorageMigration has moved them.
+    String LEGACY_DIR = "uploads/images/";
+
+    /**
+     * Stores the file under the key, replacing what was there. The file is consumed: it may be
+     * moved into place, so the caller must not use it afterwards.
+     */
+    void put(String key, Path file, String mimeType) throws IOException;
+
+    InputStream open(String key) throws IOException;
+
+    boolean exists(String key) throws IOException;
+
+    /**
+     * Deletes the key; deleting a missing key is not an error
+     */
+    void delete(String key) throws IOException;
+
+    /**
+     * The file behind the key when it is on this machine's file system (so it can be sent with
+     * sendfile), or null for remote objects
+     */
+    Path localPath(String key);
+
+    String getBackendKey();
+
+    /**
+     * Key of the content with this hash; {@code suffix} tells its variants apart, e.g. "_w256.jpg"
+     */
+    static String keyOf(String contentHash, String suffix) {
+        return contentHash.substring(0, 2) + "/" + contentHash.substring(2, 4) + "/" + contentHash + suffix;
+    }
+
+    static boolean isLegacyPath(String storagePath) {
+        return storagePath != null && storagePath.startsWith(LEGACY_DIR);
+    }
+}
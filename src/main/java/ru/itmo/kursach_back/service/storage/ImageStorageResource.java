@@ -0,0 +1,43 @@
+package ru.itmo.kursach_back.service.storage;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stored image as a Resource whose length is known from its metadata, so it can be streamed
+ * (and Range requests answered) without asking the backend for it first
+ */
+public class ImageStorageResource extends AbstractResource {
+
+    private final ImageStorage storage;
+    private final String key;
+    private final long size;
+
+    public ImageStorageResource(ImageStorage storage, String key, long size) {
+        this.storage = storage;
+        this.key = key;
+        this.size = size;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return storage.open(key);
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return size;
+    }
+
+    @Override
+    public String getDescription() {
+        return storage.getBackendKey() + " image [" + key + "]";
+    }
+}
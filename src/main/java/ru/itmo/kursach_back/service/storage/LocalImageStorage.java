@@ -0,0 +1,77 @@
+package ru.itmo.kursach_back.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Image files on the local file system (or a volume shared by the nodes) under a root directory,
+ * in the sharded key layout. Files are written through a temporary file in the target directory
+ * and moved into place atomically, so readers never see a partial file.
+ */
+public class LocalImageStorage implements ImageStorage {
+
+    private final Path root;
+
+    public LocalImageStorage(Path root) {
+        this.root = root;
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create image storage directory " + root, e);
+        }
+    }
+
+    @Override
+    public void put(String key, Path file, String mimeType) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // The file is on another file system: copy it next to the target first
+            Path temp = Files.createTempFile(target.getParent(), "put-", ".tmp");
+            try {
+                Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.deleteIfExists(file);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(resolve(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public Path localPath(String key) {
+        return resolve(key);
+    }
+
+    @Override
+    public String getBackendKey() {
+        return BACKEND_LOCAL;
+    }
+
+    private Path resolve(String key) {
+        // Legacy paths are relative to the working directory, not to the root
+        return ImageStorage.isLegacyPath(key) ? Paths.get(key) : root.resolve(key);
+    }
+}
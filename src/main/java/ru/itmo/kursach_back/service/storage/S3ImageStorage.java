@@ -0,0 +1,263 @@
+package ru.itmo.kursach_back.service.storage;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+
+/**
+ * Image files in an S3-compatible bucket (AWS S3, MinIO, Ceph RGW, ...), so every node serves the
+ * same files. Talks plain HTTP with AWS Signature Version 4 instead of pulling in the AWS SDK;
+ * payloads are sent unsigned (UNSIGNED-PAYLOAD), so uploads stream from the file. With path-style
+ * addressing (the default) any S3 stand-in works, e.g. a local MinIO container. Legacy paths
+ * still refer to local files until they are migrated.
+ */
+public class S3ImageStorage implements ImageStorage {
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String SERVICE = "s3";
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    private final HttpClient httpClient;
+    private final URI endpoint;
+    private final String region;
+    private final String bucket;
+    private final String accessKey;
+    private final String secretKey;
+    private final boolean pathStyle;
+    private final Duration requestTimeout;
+
+    public S3ImageStorage(String endpoint, String region, String bucket, String accessKey, String secretKey,
+                          boolean pathStyle, Duration connectTimeout, Duration requestTimeout) {
+        if (bucket == null || bucket.isBlank()) {
+            throw new IllegalArgumentException("images.storage.s3.bucket must be set for the s3 image storage");
+        }
+        this.endpoint = URI.create(endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint);
+        this.region = region;
+        this.bucket = bucket;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.pathStyle = pathStyle;
+        this.requestTimeout = requestTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    @Override
+    public void put(String key, Path file, String mimeType) throws IOException {
+        HttpRequest request = signed("PUT", key)
+                .header("Content-Type", mimeType != null ? mimeType : "application/octet-stream")
+                .PUT(HttpRequest.BodyPublishers.ofFile(file))
+                .build();
+        HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            throw failure("PUT", key, response.statusCode(), response.body());
+        }
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        if (ImageStorage.isLegacyPath(key)) {
+            return Files.newInputStream(Paths.get(key));
+        }
+        HttpResponse<InputStream> response = send(signed("GET", key).GET().build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() == 200) {
+            return response.body();
+        }
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == 404) {
+                throw new NoSuchFileException(key);
+            }
+            throw failure("GET", key, response.statusCode(),
+                    new String(body.readNBytes(1024), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        if (ImageStorage.isLegacyPath(key)) {
+            return Files.exists(Paths.get(key));
+        }
+        HttpRequest request = signed("HEAD", key)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+        int status = send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        if (status == 404) {
+            return false;
+        }
+        if (status / 100 != 2) {
+            throw failure("HEAD", key, status, "");
+        }
+        return true;
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        if (ImageStorage.isLegacyPath(key)) {
+            Files.deleteIfExists(Paths.get(key));
+            return;
+        }
+        HttpResponse<String> response = send(signed("DELETE", key).DELETE().build(),
+                HttpResponse.BodyHandlers.ofString());
+        // S3 answers 204 for missing keys too
+        if (response.statusCode() / 100 != 2 && response.statusCode() != 404) {
+            throw failure("DELETE", key, response.statusCode(), response.body());
+        }
+    }
+
+    /**
+     * Creates the bucket unless it exists, e.g. for a fresh MinIO container. Without a location
+     * constraint the bucket is created in the provider's default region.
+     */
+    public void createBucketIfMissing() throws IOException {
+        HttpRequest head = signed("HEAD", "")
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+        int status = send(head, HttpResponse.BodyHandlers.discarding()).statusCode();
+        if (status / 100 == 2) {
+            return;
+        }
+        if (status != 404) {
+            throw failure("HEAD", bucket, status, "");
+        }
+        HttpResponse<String> response = send(signed("PUT", "").PUT(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofString());
+        // 409: another node created it in the meantime
+        if (response.statusCode() / 100 != 2 && response.statusCode() != 409) {
+            throw failure("PUT", bucket, response.statusCode(), response.body());
+        }
+    }
+
+    @Override
+    public Path localPath(String key) {
+        return ImageStorage.isLegacyPath(key) ? Paths.get(key) : null;
+    }
+
+    @Override
+    public String getBackendKey() {
+        return BACKEND_S3;
+    }
+
+    /**
+     * A request for the key (the bucket itself when empty) carrying the SigV4 headers; Host is not
+     * set here (the client derives it from the URI) but is signed with the same value
+     */
+    private HttpRequest.Builder signed(String method, String key) {
+        String objectPath = key.isEmpty() ? "" : "/" + encodePath(key);
+        String path = pathStyle ? "/" + bucket + objectPath : (objectPath.isEmpty() ? "/" : objectPath);
+        String host = pathStyle ? endpoint.getHost() : bucket + "." + endpoint.getHost();
+        if (endpoint.getPort() != -1) {
+            host += ":" + endpoint.getPort();
+        }
+        URI uri = URI.create(endpoint.getScheme() + "://" + host + endpointPath() + path);
+
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String amzDate = AMZ_DATE.format(now);
+        String date = amzDate.substring(0, 8);
+        String scope = date + "/" + region + "/" + SERVICE + "/aws4_request";
+        String signedHeaders = "host;x-amz-content-sha256;x-amz-date";
+
+        String canonicalRequest = method + "\n"
+                + uri.getRawPath() + "\n"
+                + "\n"
+                + "host:" + host + "\n"
+                + "x-amz-content-sha256:" + UNSIGNED_PAYLOAD + "\n"
+                + "x-amz-date:" + amzDate + "\n"
+                + "\n"
+                + signedHeaders + "\n"
+                + UNSIGNED_PAYLOAD;
+        String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + hex(sha256(canonicalRequest));
+
+        byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        signingKey = hmac(signingKey, region);
+        signingKey = hmac(signingKey, SERVICE);
+        signingKey = hmac(signingKey, "aws4_request");
+        String signature = hex(hmac(signingKey, stringToSign));
+
+        return HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("x-amz-content-sha256", UNSIGNED_PAYLOAD)
+                .header("x-amz-date", amzDate)
+                .header("Authorization", ALGORITHM + " Credential=" + accessKey + "/" + scope
+                        + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature);
+    }
+
+    private String endpointPath() {
+        String path = endpoint.getRawPath();
+        return path != null ? path : "";
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return httpClient.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during " + request.method() + " " + request.uri(), e);
+        }
+    }
+
+    private IOException failure(String method, String key, int status, String body) {
+        return new IOException("S3 " + method + " " + key + " failed with status " + status
+                + (body != null && !body.isBlank() ? ": " + body : ""));
+    }
+
+    /**
+     * URI-encodes each segment as SigV4 requires, keeping the slashes between them
+     */
+    private static String encodePath(String key) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || c == '/') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+}
@@ -20,6 +20,8 @@ public final class AppConstants {
     public static final String DEFAULT_IMAGE_SIZE = "1024x1024";
     public static final int DEFAULT_IMAGE_WIDTH = 1024;
     public static final int DEFAULT_IMAGE_HEIGHT = 1024;
+    // Width requested by gallery thumbnail links (served from the nearest image derivative)
+    public static final int GALLERY_THUMBNAIL_WIDTH = 256;
     
     public static final String ORDER_NUMBER_PREFIX = "ORD-";
     public static final String TICKET_NUMBER_PREFIX = "TKT-";
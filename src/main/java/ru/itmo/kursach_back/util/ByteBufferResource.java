@@ -0,0 +1,73 @@
+package ru.itmo.kursach_back.util;
+
+import org.springframework.core.io.AbstractResource;
+import ru.itmo.kursach_back.service.StoredImage;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An image held by the hot image cache, as a Resource; each stream reads its own duplicate, so the bytes are
+ * copied from off-heap memory straight to the response without a heap copy of the image
+ */
+public final class ByteBufferResource extends AbstractResource {
+
+    private final ByteBuffer buffer;
+    private final StoredImage image;
+
+    public ByteBufferResource(ByteBuffer buffer, StoredImage image) {
+        this.buffer = buffer;
+        this.image = image;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        ByteBuffer bytes = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return bytes.hasRemaining() ? bytes.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!bytes.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(len, bytes.remaining());
+                bytes.get(b, off, count);
+                return count;
+            }
+
+            @Override
+            public long skip(long n) {
+                int count = (int) Math.max(0, Math.min(n, bytes.remaining()));
+                bytes.position(bytes.position() + count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return bytes.remaining();
+            }
+        };
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public String getDescription() {
+        return "cached image [" + image.imageId() + "]";
+    }
+}
@@ -0,0 +1,15 @@
+package ru.itmo.kursach_back.util;
+
+public enum GenerationEventType {
+    QUEUED,
+    PROCESSING,
+    PROVIDER_SELECTED,
+    ATTEMPT,
+    ATTEMPT_FAILED,
+    IMAGE_STORED,
+    FAILED;
+
+    public boolean isTerminal() {
+        return this == IMAGE_STORED || this == FAILED;
+    }
+}
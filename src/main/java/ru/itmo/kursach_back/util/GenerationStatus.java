@@ -4,5 +4,6 @@ public enum GenerationStatus {
     PENDING,
     PROCESSING,
     COMPLETED,
+    FAILED,
     DECLINED
 }
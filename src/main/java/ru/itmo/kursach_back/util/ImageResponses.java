@@ -0,0 +1,218 @@
+package ru.itmo.kursach_back.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import ru.itmo.kursach_back.service.StoredImage;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Responses serving image files without reading them onto the heap. On Tomcat the connector sends
+ * a local file, or the single requested range, with sendfile; otherwise (multiple ranges, HEAD,
+ * other containers, remote storage) the content is streamed as a Resource and Spring answers
+ * Range requests with 206. Malformed ranges, and ranges whose If-Range names another version of
+ * the image, are ignored and the whole file is sent.
+ * Responses carry a strong ETag (the content hash) and Last-Modified; a matching conditional
+ * request is answered with 304 from the metadata alone, without touching the file. Images held
+ * by the hot image cache are written from its off-heap buffer instead of the file.
+ */
+public final class ImageResponses {
+
+    // Request attributes of Tomcat's sendfile support
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final Duration IMMUTABLE_MAX_AGE = Duration.ofDays(365);
+
+    private ImageResponses() {
+    }
+
+    /**
+     * {@code immutable}: the URL always serves the same bytes (an image id), so caches may keep the
+     * response for a year without revalidating. Otherwise (e.g. a design's current image) caches
+     * revalidate each time and get 304 while the image is unchanged. {@code bodyOf} returns the
+     * image's content (see ImageService.getImageBody), or null when it is missing; it is only
+     * consulted when a body is sent.
+     */
+    public static ResponseEntity<?> file(StoredImage image, HttpServletRequest request, boolean immutable,
+                                         Function<StoredImage, Resource> bodyOf) {
+        String etag = etagOf(image);
+        long lastModified = lastModifiedOf(image);
+        CacheControl cacheControl = immutable
+                ? CacheControl.maxAge(IMMUTABLE_MAX_AGE).immutable()
+                : CacheControl.noCache();
+        // Private images may be kept by the browser but not by shared caches such as the reverse proxy
+        cacheControl = image.publicImage() ? cacheControl.cachePublic() : cacheControl.cachePrivate();
+
+        if (isNotModified(request, etag, lastModified)) {
+            return validators(ResponseEntity.status(HttpStatus.NOT_MODIFIED), etag, lastModified, cacheControl)
+                    .build();
+        }
+
+        Resource body = bodyOf.apply(image);
+        if (body == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        MediaType contentType = contentTypeOf(image);
+        long length = image.size();
+
+        List<HttpRange> ranges = List.of();
+        boolean rangeIgnored = false;
+        if (request.getHeader(HttpHeaders.RANGE) != null) {
+            try {
+                ranges = HttpRange.parseRanges(request.getHeader(HttpHeaders.RANGE));
+            } catch (IllegalArgumentException e) {
+                rangeIgnored = true;
+            }
+            if (!rangeIgnored && !isRangeCurrent(request, etag, lastModified)) {
+                ranges = List.of();
+                rangeIgnored = true;
+            }
+        }
+
+        // Cached and remote content is streamed; Spring answers Range requests on it with 206
+        boolean sendfile = body instanceof FileSystemResource
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))
+                && !"HEAD".equals(request.getMethod()) && ranges.size() <= 1;
+        if (!sendfile) {
+            ResponseEntity.BodyBuilder response = validators(ResponseEntity.ok(), etag, lastModified, cacheControl)
+                    .contentType(contentType);
+            if (rangeIgnored) {
+                // Spring applies the Range header to any Resource but an InputStreamResource, which it sends whole
+                return response.contentLength(length).body(new InputStreamResource(body::getInputStream));
+            }
+            return response.body(body);
+        }
+
+        long start = 0;
+        long end = length - 1;
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (!ranges.isEmpty()) {
+            start = ranges.get(0).getRangeStart(length);
+            end = ranges.get(0).getRangeEnd(length);
+            // HttpRange leaves a range starting past the end (or any range of an empty file) to the caller
+            if (start >= length || start > end) {
+                return unsatisfiable(length);
+            }
+            response = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+
+        // Tomcat writes the file after the headers; the end offset is exclusive
+        request.setAttribute(SENDFILE_FILENAME, ((FileSystemResource) body).getFile().getAbsolutePath());
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, end + 1);
+
+        return validators(response, etag, lastModified, cacheControl)
+                .contentType(contentType)
+                .contentLength(end - start + 1)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .build();
+    }
+
+    /**
+     * ETag, Last-Modified (unless the creation time is unknown) and Cache-Control, sent with every answer
+     */
+    private static ResponseEntity.BodyBuilder validators(ResponseEntity.BodyBuilder builder, String etag,
+                                                         long lastModified, CacheControl cacheControl) {
+        builder.eTag(etag).cacheControl(cacheControl);
+        if (lastModified >= 0) {
+            builder.lastModified(lastModified);
+        }
+        return builder;
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            return false;
+        }
+
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // If-None-Match uses weak comparison and takes precedence over If-Modified-Since
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return ifModifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Whether a range may be sent: If-Range, when present, must match the image's ETag (strong
+     * comparison) or be its exact Last-Modified date
+     */
+    private static boolean isRangeCurrent(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+
+        long date;
+        try {
+            date = request.getDateHeader(HttpHeaders.IF_RANGE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return date >= 0 && lastModified >= 0 && date / 1000 == lastModified / 1000;
+    }
+
+    private static String etagOf(StoredImage image) {
+        // Images stored before content hashing are still immutable under their id
+        return image.contentHash() != null
+                ? "\"" + image.contentHash() + "\""
+                : "\"img-" + image.imageId() + "-" + image.size() + "\"";
+    }
+
+    private static long lastModifiedOf(StoredImage image) {
+        return image.createdAt() != null
+                ? image.createdAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : -1;
+    }
+
+    private static ResponseEntity<?> unsatisfiable(long length) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                .build();
+    }
+
+    private static MediaType contentTypeOf(StoredImage image) {
+        try {
+            return image.mimeType() != null ? MediaType.parseMediaType(image.mimeType()) : MediaType.IMAGE_PNG;
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+    }
+}
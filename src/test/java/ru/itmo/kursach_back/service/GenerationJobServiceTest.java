@@ -0,0 +1,132 @@
+package ru.itmo.kursach_back.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import ru.itmo.kursach_back.entity.Design;
+import ru.itmo.kursach_back.entity.GenerationRequest;
+import ru.itmo.kursach_back.repository.DesignRepository;
+import ru.itmo.kursach_back.repository.GenerationRequestRepository;
+import ru.itmo.kursach_back.service.ai.AIServiceFactory;
+import ru.itmo.kursach_back.util.GenerationStatus;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class GenerationJobServiceTest {
+
+    private static final String PROMPT = "a cat in a hat";
+
+    private GenerationRequestRepository generationRequestRepository;
+    private AIServiceFactory aiServiceFactory;
+    private GenerationQueue generationQueue;
+    private GenerationJobService generationJobService;
+    private final AtomicInteger jobIds = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        generationRequestRepository = mock(GenerationRequestRepository.class);
+        aiServiceFactory = mock(AIServiceFactory.class);
+        generationQueue = mock(GenerationQueue.class);
+        GenerationCacheService generationCacheService = mock(GenerationCacheService.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(generationQueue.hold(any())).thenAnswer(invocation -> {
+            GenerationRequest job = invocation.getArgument(0);
+            job.setRequestId(jobIds.incrementAndGet());
+            return job;
+        });
+        // Every job here is the same generation
+        when(generationCacheService.buildKey(anyString(), any(), any())).thenReturn("cat");
+        // The provider never answers, so only cancellation ends a call
+        when(aiServiceFactory.generateImageAsync(any(), anyString(), any())).thenReturn(Mono.never());
+
+        generationJobService = new GenerationJobService(generationRequestRepository,
+                mock(DesignRepository.class), mock(ImageService.class), aiServiceFactory, generationCacheService,
+                new GenerationSingleFlight(new SimpleMeterRegistry()), mock(GenerationEventBus.class),
+                mock(AuthService.class), new ObjectMapper(), mock(GenerationScheduler.class), generationQueue,
+                transactionTemplate);
+    }
+
+    @Test
+    void awaitingFollowerLeadsTheGenerationWhenTheLeadersClientGoesAway() {
+        Disposable leader = generationJobService.generateNonBlocking(design(1), PROMPT, Map.of()).subscribe();
+        Disposable follower = generationJobService.generateNonBlocking(design(2), PROMPT, Map.of()).subscribe();
+        verify(aiServiceFactory, times(1)).generateImageAsync(any(), anyString(), any());
+
+        leader.dispose();
+
+        verify(aiServiceFactory, timeout(1_000).times(2)).generateImageAsync(any(), anyString(), any());
+        // Only the leader's own job goes back to the queue
+        verify(generationQueue, timeout(1_000))
+                .requeue(argThat(jobs -> jobs.size() == 1 && jobs.get(0).getRequestId() == 1));
+        verify(generationQueue, never()).finish(any(), any(), any());
+        follower.dispose();
+    }
+
+    @Test
+    void queuedFollowerIsRequeuedWhenTheLeadersClientGoesAway() {
+        Disposable leader = generationJobService.generateNonBlocking(design(1), PROMPT, Map.of()).subscribe();
+        GenerationRequest follower = queuedJob(design(2));
+        generationJobService.process(follower);
+
+        leader.dispose();
+
+        verify(generationQueue, timeout(1_000)).requeue(List.of(follower));
+        verify(generationQueue, never()).finish(any(), any(), any());
+        verify(aiServiceFactory, times(1)).generateImageAsync(any(), anyString(), any());
+    }
+
+    @Test
+    void awaitedGenerationIsDeclinedWhenTheQueueIsFull() {
+        when(generationQueue.admit(any(), eq(1))).thenThrow(new TaskRejectedException("Generation queue is full"));
+
+        assertThatThrownBy(() -> generationJobService.generateNonBlocking(design(1), PROMPT, Map.of()))
+                .isInstanceOf(TaskRejectedException.class);
+
+        verify(generationQueue, never()).hold(any());
+        verify(generationRequestRepository).saveAll(ArgumentMatchers.<List<GenerationRequest>>argThat(jobs ->
+                jobs.get(0).getStatus() == GenerationStatus.DECLINED));
+        verify(aiServiceFactory, never()).generateImageAsync(any(), anyString(), any());
+    }
+
+    private static Design design(int designId) {
+        Design design = new Design();
+        design.setDesignId(designId);
+        design.setOwnerId(designId);
+        design.setModelId(1);
+        return design;
+    }
+
+    private static GenerationRequest queuedJob(Design design) {
+        GenerationRequest job = new GenerationRequest();
+        job.setRequestId(100 + design.getDesignId());
+        job.setResultDesignId(design.getDesignId());
+        job.setModelId(design.getModelId());
+        job.setPrompt(PROMPT);
+        job.setParameters("{}");
+        job.setStatus(GenerationStatus.PROCESSING);
+        return job;
+    }
+}
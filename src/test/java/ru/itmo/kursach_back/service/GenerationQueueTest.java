@@ -0,0 +1,221 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.itmo.kursach_back.entity.GenerationRequest;
+import ru.itmo.kursach_back.repository.GenerationRequestRepository;
+import ru.itmo.kursach_back.util.GenerationStatus;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class GenerationQueueTest {
+
+    private static final String NODE = "node-a";
+    private static final long LEASE_MS = 60_000;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private GenerationRequestRepository repository;
+    private SimpleMeterRegistry meterRegistry;
+    private GenerationQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(GenerationRequestRepository.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(repository.saveAllAndFlush(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(repository.saveAndFlush(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        meterRegistry = new SimpleMeterRegistry();
+        // Two slots: one worker thread and one prefetched job
+        queue = new GenerationQueue(repository, transactionTemplate, meterRegistry, NODE, LEASE_MS, MAX_ATTEMPTS,
+                200, 0.5, 1, 1, 2);
+    }
+
+    @Test
+    void claimLeasesJobsToThisNode() {
+        GenerationRequest first = pending(1, 0);
+        GenerationRequest retried = pending(2, 1);
+        when(repository.lockNext(eq(GenerationStatus.PENDING), any(Pageable.class)))
+                .thenReturn(new ArrayList<>(List.of(first, retried)));
+
+        List<GenerationRequest> claimed = queue.claim();
+
+        assertThat(claimed).containsExactly(first, retried);
+        assertThat(claimed).allSatisfy(job -> {
+            assertThat(job.getStatus()).isEqualTo(GenerationStatus.PROCESSING);
+            assertThat(job.getLeaseOwner()).isEqualTo(NODE);
+        });
+        assertThat(first.getAttempts()).isEqualTo(1);
+        assertThat(retried.getAttempts()).isEqualTo(2);
+        verify(repository).lockNext(GenerationStatus.PENDING, PageRequest.of(0, 2));
+        verify(repository).extendLeases(List.of(1, 2), NODE, GenerationStatus.PROCESSING.name(), LEASE_MS);
+    }
+
+    @Test
+    void claimStopsAtTheNodesFreeSlots() {
+        when(repository.lockNext(eq(GenerationStatus.PENDING), any(Pageable.class)))
+                .thenReturn(new ArrayList<>(List.of(pending(1, 0), pending(2, 0))));
+        queue.claim();
+
+        assertThat(queue.claim()).isEmpty();
+        verify(repository).lockNext(eq(GenerationStatus.PENDING), any(Pageable.class));
+    }
+
+    @Test
+    void finishedJobFreesItsSlot() {
+        GenerationRequest job = pending(1, 0);
+        when(repository.lockNext(eq(GenerationStatus.PENDING), any(Pageable.class)))
+                .thenReturn(new ArrayList<>(List.of(job, pending(2, 0))))
+                .thenReturn(new ArrayList<>());
+        queue.claim();
+        when(repository.finishLease(eq(1), eq(NODE), eq(GenerationStatus.PROCESSING), eq(GenerationStatus.COMPLETED),
+                any(), any(LocalDateTime.class))).thenReturn(1);
+
+        assertThat(queue.finish(job, GenerationStatus.COMPLETED, null)).isTrue();
+        assertThat(job.getStatus()).isEqualTo(GenerationStatus.COMPLETED);
+        assertThat(job.getLeaseOwner()).isNull();
+
+        queue.claim();
+        verify(repository).lockNext(GenerationStatus.PENDING, PageRequest.of(0, 1));
+    }
+
+    @Test
+    void finishDropsTheOutcomeOfALostLease() {
+        GenerationRequest job = pending(1, 0);
+        when(repository.lockNext(eq(GenerationStatus.PENDING), any(Pageable.class)))
+                .thenReturn(new ArrayList<>(List.of(job)));
+        queue.claim();
+        when(repository.finishLease(any(), any(), any(), any(), any(), any())).thenReturn(0);
+
+        assertThat(queue.finish(job, GenerationStatus.FAILED, "boom")).isFalse();
+        assertThat(job.getStatus()).isEqualTo(GenerationStatus.PROCESSING);
+        assertThat(job.getErrorMessage()).isNull();
+    }
+
+    @Test
+    void requeueHandsJobsBackUnderTheLeaseGuard() {
+        GenerationRequest job = pending(1, 0);
+        when(repository.lockNext(eq(GenerationStatus.PENDING), any(Pageable.class)))
+                .thenReturn(new ArrayList<>(List.of(job)));
+        queue.claim();
+
+        queue.requeue(List.of(job));
+
+        verify(repository).requeueLeases(List.of(1), NODE, GenerationStatus.PROCESSING, GenerationStatus.PENDING);
+        assertThat(job.getStatus()).isEqualTo(GenerationStatus.PENDING);
+        assertThat(job.getLeaseOwner()).isNull();
+    }
+
+    @Test
+    void heartbeatExtendsTheLeasesThisNodeHolds() {
+        when(repository.lockNext(eq(GenerationStatus.PENDING), any(Pageable.class)))
+                .thenReturn(new ArrayList<>(List.of(pending(1, 0))));
+        queue.claim();
+        GenerationRequest held = new GenerationRequest();
+        held.setRequestId(7);
+        held.setStatus(GenerationStatus.PROCESSING);
+        queue.hold(held);
+
+        queue.heartbeat();
+
+        verify(repository).extendLeases(
+                argThat(ids -> ids.size() == 2 && ids.containsAll(List.of(1, 7))),
+                eq(NODE), eq(GenerationStatus.PROCESSING.name()), eq(LEASE_MS));
+    }
+
+    @Test
+    void heldJobsAreLimitedPerClass() {
+        // max-held 2, so anonymous requesters may hold one
+        queue.hold(held(10, GenerationScheduler.PriorityClass.ANONYMOUS));
+
+        assertThatThrownBy(() -> queue.hold(held(11, GenerationScheduler.PriorityClass.ANONYMOUS)))
+                .isInstanceOf(TaskRejectedException.class);
+        queue.hold(held(12, GenerationScheduler.PriorityClass.AUTHENTICATED));
+        assertThat(meterRegistry.counter("ai.generation.queue.rejected", "class", "anonymous").count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void finishedHeldJobFreesItsPlace() {
+        GenerationRequest first = held(10, GenerationScheduler.PriorityClass.ANONYMOUS);
+        queue.hold(first);
+
+        queue.finish(first, GenerationStatus.COMPLETED, null);
+
+        queue.hold(held(11, GenerationScheduler.PriorityClass.ANONYMOUS));
+        verify(repository, times(2)).saveAndFlush(any());
+    }
+
+    @Test
+    void heartbeatWithoutLeasesTouchesNothing() {
+        queue.heartbeat();
+
+        verify(repository, never()).extendLeases(anyCollection(), anyString(), anyString(), anyLong());
+    }
+
+    @Test
+    void recoveryRequeuesOrFailsExpiredLeases() {
+        when(repository.failExpiredLeases(eq(GenerationStatus.PROCESSING.name()), eq(GenerationStatus.FAILED.name()),
+                any(LocalDateTime.class), eq(MAX_ATTEMPTS), anyString())).thenReturn(1);
+        when(repository.requeueExpiredLeases(GenerationStatus.PROCESSING.name(), GenerationStatus.PENDING.name(),
+                MAX_ATTEMPTS)).thenReturn(2);
+
+        queue.recoverExpiredLeases();
+
+        assertThat(meterRegistry.counter("ai.generation.queue.recovered", "outcome", "requeued").count())
+                .isEqualTo(2.0);
+        assertThat(meterRegistry.counter("ai.generation.queue.recovered", "outcome", "failed").count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void recoveryWithNothingExpiredRecordsNothing() {
+        when(repository.failExpiredLeases(anyString(), anyString(), any(), anyInt(), anyString())).thenReturn(0);
+        when(repository.requeueExpiredLeases(anyString(), anyString(), anyInt())).thenReturn(0);
+
+        queue.recoverExpiredLeases();
+
+        assertThat(meterRegistry.find("ai.generation.queue.recovered").counter()).isNull();
+    }
+
+    private static GenerationRequest held(int id, GenerationScheduler.PriorityClass priorityClass) {
+        GenerationRequest job = new GenerationRequest();
+        job.setRequestId(id);
+        job.setStatus(GenerationStatus.PROCESSING);
+        job.setPriority(priorityClass.ordinal());
+        return job;
+    }
+
+    private static GenerationRequest pending(int id, int attempts) {
+        GenerationRequest job = new GenerationRequest();
+        job.setRequestId(id);
+        job.setStatus(GenerationStatus.PENDING);
+        job.setAttempts(attempts);
+        return job;
+    }
+}
@@ -0,0 +1,154 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import ru.itmo.kursach_back.service.GenerationScheduler.PriorityClass;
+import ru.itmo.kursach_back.service.GenerationScheduler.Requester;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GenerationSchedulerTest {
+
+    private static final Requester ALICE = new Requester(PriorityClass.AUTHENTICATED, "alice");
+    private static final Requester BOB = new Requester(PriorityClass.AUTHENTICATED, "bob");
+    private static final Requester GUEST = new Requester(PriorityClass.ANONYMOUS, "10.0.0.7");
+    private static final Requester OTHER_GUEST = new Requester(PriorityClass.ANONYMOUS, "10.0.0.8");
+
+    private SimpleMeterRegistry meterRegistry;
+    // Dispatch tokens posted to the worker pool, run by the test in order
+    private final List<Runnable> tokens = new ArrayList<>();
+    private final List<String> ran = new ArrayList<>();
+    private final List<String> shed = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void requestersOfAClassTakeTurns() {
+        GenerationScheduler scheduler = scheduler(50, 1, 1);
+        submit(scheduler, ALICE, "a1", 1);
+        submit(scheduler, ALICE, "a2", 1);
+        submit(scheduler, ALICE, "a3", 1);
+        submit(scheduler, BOB, "b1", 1);
+
+        runAll();
+
+        assertThat(ran).containsExactly("a1", "b1", "a2", "a3");
+    }
+
+    @Test
+    void classesShareWorkersByWeight() {
+        GenerationScheduler scheduler = scheduler(50, 2, 1);
+        for (int i = 1; i <= 4; i++) {
+            submit(scheduler, ALICE, "u" + i, 1);
+        }
+        submit(scheduler, GUEST, "n1", 1);
+        submit(scheduler, GUEST, "n2", 1);
+
+        runAll();
+
+        assertThat(ran).containsExactly("u1", "u2", "n1", "u3", "u4", "n2");
+    }
+
+    @Test
+    void classIsChargedForTheTaskItsRequesterTurnPicks() {
+        GenerationScheduler scheduler = scheduler(50, 1, 1);
+        submit(scheduler, GUEST, "a1", 1);
+        submit(scheduler, OTHER_GUEST, "b1", 3);
+        submit(scheduler, GUEST, "a2", 1);
+        submit(scheduler, GUEST, "a3", 1);
+        submit(scheduler, GUEST, "a4", 1);
+        for (int i = 1; i <= 6; i++) {
+            submit(scheduler, ALICE, "u" + i, 1);
+        }
+
+        runAll();
+
+        // The batch of three waits until the anonymous class has saved up three turns
+        assertThat(ran).containsExactly("a1", "u1", "a2", "u2", "a3", "u3", "u4", "u5", "b1", "u6", "a4");
+    }
+
+    @Test
+    void fullQueueShedsNewestWorkOfALowerClass() {
+        GenerationScheduler scheduler = scheduler(2, 1, 1, 1.0);
+        submit(scheduler, GUEST, "n1", 1);
+        submit(scheduler, GUEST, "n2", 1);
+
+        submit(scheduler, ALICE, "u1", 1);
+        runAll();
+
+        assertThat(shed).containsExactly("n2");
+        assertThat(ran).containsExactlyInAnyOrder("n1", "u1");
+        assertThat(meterRegistry.counter("ai.generation.scheduler.shed", "class", "anonymous").count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void fullQueueRejectsWorkWithNothingLowerToShed() {
+        GenerationScheduler scheduler = scheduler(2, 1, 1, 1.0);
+        submit(scheduler, ALICE, "u1", 1);
+        submit(scheduler, BOB, "b1", 1);
+
+        assertThatThrownBy(() -> submit(scheduler, GUEST, "n1", 1)).isInstanceOf(TaskRejectedException.class);
+        assertThatThrownBy(() -> submit(scheduler, BOB, "b2", 1)).isInstanceOf(TaskRejectedException.class);
+        runAll();
+
+        assertThat(ran).containsExactly("u1", "b1");
+        assertThat(shed).isEmpty();
+        assertThat(meterRegistry.counter("ai.generation.scheduler.rejected", "class", "authenticated").count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void anonymousWorkIsCappedAtItsShareOfTheQueue() {
+        GenerationScheduler scheduler = scheduler(4, 1, 1, 0.5);
+        submit(scheduler, GUEST, "n1", 1);
+        submit(scheduler, OTHER_GUEST, "n2", 1);
+
+        assertThatThrownBy(() -> submit(scheduler, GUEST, "n3", 1)).isInstanceOf(TaskRejectedException.class);
+        submit(scheduler, ALICE, "u1", 1);
+        runAll();
+
+        assertThat(ran).containsExactlyInAnyOrder("n1", "n2", "u1");
+    }
+
+    @Test
+    void rejectedDispatchTakesTheWorkBackOut() {
+        GenerationScheduler scheduler = new GenerationScheduler(task -> {
+            throw new TaskRejectedException("Worker pool is saturated");
+        }, meterRegistry, 50, 0.5, 1, 1, 1);
+
+        assertThatThrownBy(() -> submit(scheduler, ALICE, "u1", 1)).isInstanceOf(TaskRejectedException.class);
+
+        assertThat(meterRegistry.get("ai.generation.scheduler.queued").tag("class", "authenticated").gauge().value())
+                .isZero();
+    }
+
+    private GenerationScheduler scheduler(int capacity, int authenticatedWeight, int anonymousWeight) {
+        return scheduler(capacity, authenticatedWeight, anonymousWeight, 0.5);
+    }
+
+    private GenerationScheduler scheduler(int capacity, int authenticatedWeight, int anonymousWeight,
+                                          double anonymousShare) {
+        return new GenerationScheduler(tokens::add, meterRegistry, capacity, anonymousShare, 4,
+                authenticatedWeight, anonymousWeight);
+    }
+
+    private void submit(GenerationScheduler scheduler, Requester requester, String name, int cost) {
+        scheduler.submit(requester, cost, () -> ran.add(name), () -> shed.add(name));
+    }
+
+    private void runAll() {
+        for (int i = 0; i < tokens.size(); i++) {
+            tokens.get(i).run();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GenerationSingleFlightTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private GenerationSingleFlight singleFlight;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        singleFlight = new GenerationSingleFlight(meterRegistry);
+    }
+
+    @Test
+    void firstCallerLeadsAndLaterOnesFollow() {
+        GenerationSingleFlight.Flight leader = singleFlight.join("cat");
+        GenerationSingleFlight.Flight follower = singleFlight.join("cat");
+        GenerationSingleFlight.Flight other = singleFlight.join("dog");
+
+        assertThat(leader.leader()).isTrue();
+        assertThat(follower.leader()).isFalse();
+        assertThat(follower.result()).isSameAs(leader.result());
+        assertThat(other.leader()).isTrue();
+        assertThat(meterRegistry.counter("ai.generation.singleflight", "role", "leader").count()).isEqualTo(2.0);
+        assertThat(meterRegistry.counter("ai.generation.singleflight", "role", "follower").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void followersReceiveTheLeadersImage() {
+        GenerationSingleFlight.Flight leader = singleFlight.join("cat");
+        GenerationSingleFlight.Flight follower = singleFlight.join("cat");
+
+        singleFlight.complete(leader, 42);
+
+        assertThat(follower.result()).isCompletedWithValue(42);
+    }
+
+    @Test
+    void followersReceiveTheLeadersFailure() {
+        GenerationSingleFlight.Flight leader = singleFlight.join("cat");
+        GenerationSingleFlight.Flight follower = singleFlight.join("cat");
+
+        singleFlight.fail(leader, new IllegalStateException("Provider is down"));
+
+        assertThatThrownBy(() -> follower.result().get())
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void abandonedFlightIsReleasedWithoutFailingIt() {
+        GenerationSingleFlight.Flight leader = singleFlight.join("cat");
+        GenerationSingleFlight.Flight follower = singleFlight.join("cat");
+
+        singleFlight.abandon(leader);
+
+        assertThatThrownBy(() -> follower.result().get())
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(GenerationSingleFlight.AbandonedException.class);
+        assertThat(follower.result().handle((imageId, e) -> GenerationSingleFlight.isAbandoned(e)).join()).isTrue();
+        assertThat(singleFlight.join("cat").leader()).isTrue();
+    }
+
+    @Test
+    void onlyAbandonmentCountsAsAbandoned() {
+        assertThat(GenerationSingleFlight.isAbandoned(
+                new CompletionException(new GenerationSingleFlight.AbandonedException("Gone")))).isTrue();
+        assertThat(GenerationSingleFlight.isAbandoned(new CompletionException(new IllegalStateException("Down"))))
+                .isFalse();
+        assertThat(GenerationSingleFlight.isAbandoned(null)).isFalse();
+    }
+
+    @Test
+    void finishedFlightIsNotJoinedAgain() {
+        GenerationSingleFlight.Flight first = singleFlight.join("cat");
+        singleFlight.complete(first, 42);
+
+        GenerationSingleFlight.Flight second = singleFlight.join("cat");
+
+        assertThat(second.leader()).isTrue();
+        assertThat(second.result()).isNotDone();
+        assertThat(meterRegistry.get("ai.generation.singleflight.inflight").gauge().value()).isEqualTo(1.0);
+    }
+
+    @Test
+    void onlyTheLeaderSettlesTheFlight() {
+        GenerationSingleFlight.Flight leader = singleFlight.join("cat");
+        GenerationSingleFlight.Flight follower = singleFlight.join("cat");
+
+        singleFlight.complete(follower, 7);
+        singleFlight.fail(follower, new IllegalStateException("Client went away"));
+
+        assertThat(leader.result()).isNotDone();
+        assertThat(singleFlight.join("cat").leader()).isFalse();
+    }
+}
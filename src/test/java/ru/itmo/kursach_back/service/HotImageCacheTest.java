@@ -0,0 +1,194 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.itmo.kursach_back.service.storage.LocalImageStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotImageCacheTest {
+
+    private static final int SIZE = 100;
+
+    @TempDir
+    Path storageRoot;
+
+    private SimpleMeterRegistry meterRegistry;
+    private HotImageCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        // 100 bytes of window and 100 bytes of main region: each holds a single image
+        cache = cache(true, 2 * SIZE);
+    }
+
+    @Test
+    void contentIsLoadedOnItsSecondAccess() throws IOException {
+        StoredImage image = image("a", SIZE);
+
+        assertThat(cache.bytes(image)).isNull();
+        ByteBuffer loaded = cache.bytes(image);
+        ByteBuffer cached = cache.bytes(image);
+
+        assertThat(loaded).isNotNull();
+        assertThat(loaded.isDirect()).isTrue();
+        assertThat(contentOf(cached)).isEqualTo(fill('a', SIZE));
+        assertThat(count("hit")).isEqualTo(1.0);
+        assertThat(count("miss")).isEqualTo(2.0);
+        assertThat(gauge("images.cache.resident.bytes")).isEqualTo(SIZE);
+    }
+
+    @Test
+    void returnedBuffersDoNotShareTheirPosition() throws IOException {
+        StoredImage image = image("a", SIZE);
+        cache.bytes(image);
+        cache.bytes(image);
+
+        ByteBuffer first = cache.bytes(image);
+        first.position(first.limit());
+
+        assertThat(cache.bytes(image).remaining()).isEqualTo(SIZE);
+    }
+
+    @Test
+    void imagesLargerThanAnEntryAreNeverCached() throws IOException {
+        StoredImage image = image("a", SIZE + 1);
+
+        cache.bytes(image);
+        cache.bytes(image);
+        cache.bytes(image);
+
+        assertThat(gauge("images.cache.entries")).isZero();
+        assertThat(count("miss")).isZero();
+    }
+
+    @Test
+    void rarelyUsedCandidateDoesNotEvictAPopularImage() throws IOException {
+        StoredImage popular = image("p", SIZE);
+        StoredImage once = image("c", SIZE);
+        StoredImage newest = image("d", SIZE);
+        access(popular, 5);
+        // Pushes the popular image from the window into the empty main region
+        access(once, 2);
+
+        // Pushes the rarely used image out of the window, where it loses against the popular one
+        access(newest, 2);
+
+        assertThat(meterRegistry.counter("images.cache.admission.rejected").count()).isEqualTo(1.0);
+        assertThat(meterRegistry.counter("images.cache.evictions").count()).isZero();
+        assertThat(gauge("images.cache.entries")).isEqualTo(2);
+        double hits = count("hit");
+        cache.bytes(popular);
+        assertThat(count("hit")).isEqualTo(hits + 1);
+    }
+
+    @Test
+    void frequentlyUsedCandidateEvictsARarerImage() throws IOException {
+        StoredImage rare = image("q", SIZE);
+        StoredImage frequent = image("r", SIZE);
+        access(rare, 2);
+        access(frequent, 5);
+
+        // Pushes the frequent image out of the window; it displaces the rare one from the main region
+        access(image("s", SIZE), 2);
+
+        assertThat(meterRegistry.counter("images.cache.evictions").count()).isEqualTo(1.0);
+        assertThat(meterRegistry.counter("images.cache.admission.rejected").count()).isZero();
+        double hits = count("hit");
+        cache.bytes(frequent);
+        assertThat(count("hit")).isEqualTo(hits + 1);
+        cache.bytes(rare);
+        assertThat(count("hit")).isEqualTo(hits + 1);
+    }
+
+    @Test
+    void missingFileIsServedFromStorage() {
+        StoredImage missing = new StoredImage(9, "missing.png", "image/png", SIZE, "missing", true,
+                LocalDateTime.now(), null);
+
+        assertThat(cache.bytes(missing)).isNull();
+        assertThat(cache.bytes(missing)).isNull();
+        assertThat(gauge("images.cache.entries")).isZero();
+    }
+
+    @Test
+    void disabledCacheKeepsNothing() throws IOException {
+        HotImageCache disabled = cache(false, 2 * SIZE);
+        StoredImage image = image("a", SIZE);
+
+        assertThat(disabled.bytes(image)).isNull();
+        assertThat(disabled.bytes(image)).isNull();
+        disabled.putMetadata(1, null, image);
+        assertThat(disabled.metadata(1, null)).isNull();
+    }
+
+    @Test
+    void metadataIsKeptPerWidthUntilInvalidated() throws IOException {
+        StoredImage original = image("a", SIZE);
+        StoredImage thumbnail = image("b", SIZE / 2);
+
+        cache.putMetadata(1, null, original);
+        cache.putMetadata(1, 64, thumbnail);
+
+        assertThat(cache.metadata(1, null)).isEqualTo(original);
+        assertThat(cache.metadata(1, 64)).isEqualTo(thumbnail);
+        assertThat(cache.metadata(1, 128)).isNull();
+        assertThat(cache.metadata(2, null)).isNull();
+
+        cache.invalidate(1);
+
+        assertThat(cache.metadata(1, null)).isNull();
+        assertThat(cache.metadata(1, 64)).isNull();
+    }
+
+    private HotImageCache cache(boolean enabled, long maxBytes) {
+        return new HotImageCache(new LocalImageStorage(storageRoot), meterRegistry, enabled, maxBytes, SIZE,
+                0.01, 100, 60_000);
+    }
+
+    private void access(StoredImage image, int times) {
+        for (int i = 0; i < times; i++) {
+            cache.bytes(image);
+        }
+    }
+
+    /**
+     * An image whose file is {@code size} copies of the first character of {@code name}
+     */
+    private StoredImage image(String name, int size) throws IOException {
+        String key = name + ".png";
+        Files.write(storageRoot.resolve(key), fill(name.charAt(0), size));
+        return new StoredImage(name.hashCode(), key, "image/png", size, "hash-" + name, true,
+                LocalDateTime.now(), null);
+    }
+
+    private double count(String result) {
+        return meterRegistry.counter("images.cache.requests", "result", result).count();
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).gauge().value();
+    }
+
+    private static byte[] contentOf(ByteBuffer buffer) {
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        return content;
+    }
+
+    private static byte[] fill(char c, int size) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) c);
+        return content;
+    }
+}
@@ -0,0 +1,264 @@
+package ru.itmo.kursach_back.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.itmo.kursach_back.entity.ImageBlob;
+import ru.itmo.kursach_back.repository.ImageBlobRepository;
+import ru.itmo.kursach_back.repository.ImageDataRepository;
+import ru.itmo.kursach_back.service.storage.ImageStorage;
+import ru.itmo.kursach_back.service.storage.LocalImageStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageBlobServiceTest {
+
+    private static final byte[] CONTENT = "not really a png".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path storageRoot;
+
+    private ImageBlobRepository imageBlobRepository;
+    private ImageDerivativeService imageDerivativeService;
+    private EntityManager entityManager;
+    private SimpleMeterRegistry meterRegistry;
+    private ImageStorage imageStorage;
+    private ImageBlobService imageBlobService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        imageBlobRepository = mock(ImageBlobRepository.class);
+        imageDerivativeService = mock(ImageDerivativeService.class);
+        entityManager = mock(EntityManager.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        meterRegistry = new SimpleMeterRegistry();
+        imageStorage = new LocalImageStorage(storageRoot);
+
+        imageBlobService = new ImageBlobService(imageBlobRepository, mock(ImageDataRepository.class),
+                imageDerivativeService, imageStorage, entityManager, transactionTemplate, meterRegistry);
+    }
+
+    @Test
+    void newContentIsStoredUnderItsHash() throws Exception {
+        String hash = sha256(CONTENT);
+
+        ImageBlob blob = imageBlobService.store(new ByteArrayInputStream(CONTENT), "image/png");
+
+        assertThat(blob.getContentHash()).isEqualTo(hash);
+        assertThat(blob.getStoragePath()).isEqualTo(ImageStorage.keyOf(hash, ".png"));
+        assertThat(blob.getRefCount()).isEqualTo(1);
+        assertThat(blob.getSize()).isEqualTo(CONTENT.length);
+        assertThat(read(blob.getStoragePath())).isEqualTo(CONTENT);
+        verify(entityManager).persist(blob);
+        verify(imageDerivativeService).createAsync(blob);
+        assertThat(meterRegistry.counter("images.blobs.stored", "outcome", "new").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void duplicateContentTakesAReferenceInsteadOfAnotherFile() throws Exception {
+        String hash = sha256(CONTENT);
+        ImageBlob existing = blob(hash);
+        when(imageBlobRepository.addReference(hash)).thenReturn(1);
+        when(imageBlobRepository.findById(hash)).thenReturn(Optional.of(existing));
+
+        ImageBlob blob = imageBlobService.store(new ByteArrayInputStream(CONTENT), "image/png");
+
+        assertThat(blob).isSameAs(existing);
+        assertThat(imageStorage.exists(existing.getStoragePath())).isFalse();
+        verify(entityManager, never()).persist(any());
+        verify(imageDerivativeService, never()).createAsync(any());
+        assertThat(meterRegistry.counter("images.blobs.stored", "outcome", "duplicate").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void storeRunsUnderTheHashLock() throws Exception {
+        String hash = sha256(CONTENT);
+
+        imageBlobService.store(new ByteArrayInputStream(CONTENT), "image/jpeg");
+
+        InOrder order = inOrder(imageBlobRepository, entityManager);
+        order.verify(imageBlobRepository).lockHash(hash);
+        order.verify(imageBlobRepository).addReference(hash);
+        order.verify(entityManager).persist(any(ImageBlob.class));
+    }
+
+    @Test
+    void releasingTheLastReferenceDeletesTheFileAndDerivatives() throws Exception {
+        ImageBlob blob = imageBlobService.store(new ByteArrayInputStream(CONTENT), "image/png");
+        String hash = blob.getContentHash();
+        when(imageBlobRepository.findById(hash)).thenReturn(Optional.of(blob));
+        when(imageBlobRepository.deleteIfUnreferenced(hash)).thenReturn(1);
+
+        imageBlobService.release(hash);
+
+        InOrder order = inOrder(imageBlobRepository);
+        order.verify(imageBlobRepository).lockHash(hash);
+        order.verify(imageBlobRepository).removeReference(hash);
+        order.verify(imageBlobRepository).deleteIfUnreferenced(hash);
+        verify(imageDerivativeService).deleteDerivatives(hash);
+        assertThat(imageStorage.exists(blob.getStoragePath())).isFalse();
+    }
+
+    @Test
+    void releasingASharedBlobKeepsItsFile() throws Exception {
+        ImageBlob blob = imageBlobService.store(new ByteArrayInputStream(CONTENT), "image/png");
+        String hash = blob.getContentHash();
+        when(imageBlobRepository.findById(hash)).thenReturn(Optional.of(blob));
+        when(imageBlobRepository.deleteIfUnreferenced(hash)).thenReturn(0);
+
+        imageBlobService.release(hash);
+
+        verify(imageBlobRepository).removeReference(hash);
+        verify(imageDerivativeService, never()).deleteDerivatives(anyString());
+        assertThat(imageStorage.exists(blob.getStoragePath())).isTrue();
+    }
+
+    @Test
+    void releasingAnUnknownBlobDoesNothing() {
+        when(imageBlobRepository.findById("missing")).thenReturn(Optional.empty());
+
+        imageBlobService.release("missing");
+
+        verify(imageBlobRepository, never()).removeReference(anyString());
+        verify(imageBlobRepository, never()).deleteIfUnreferenced(anyString());
+    }
+
+    @Test
+    void addReferenceFailsForADeletedBlob() {
+        when(imageBlobRepository.addReference("kept")).thenReturn(1);
+        when(imageBlobRepository.addReference("deleted")).thenReturn(0);
+
+        assertThat(imageBlobService.addReference("kept")).isTrue();
+        assertThat(imageBlobService.addReference("deleted")).isFalse();
+        verify(imageBlobRepository).lockHash("deleted");
+    }
+
+    @Test
+    void temporaryFileIsRemovedWhenStorageFails() throws Exception {
+        ImageStorage failingStorage = mock(ImageStorage.class);
+        ArgumentCaptor<Path> temp = ArgumentCaptor.forClass(Path.class);
+        doThrow(new IOException("Disk full"))
+                .when(failingStorage).put(anyString(), temp.capture(), anyString());
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        @SuppressWarnings("unchecked")
+        ImageBlobService service = new ImageBlobService(imageBlobRepository, mock(ImageDataRepository.class),
+                imageDerivativeService, failingStorage, entityManager, transactionTemplate, meterRegistry);
+
+        assertThatThrownBy(() -> service.store(new ByteArrayInputStream(CONTENT), "image/png"))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Disk full");
+        assertThat(temp.getValue()).doesNotExist();
+        verify(entityManager, never()).persist(any());
+    }
+
+    @Test
+    void uploadRunsOutsideTheHashLock() throws Exception {
+        AtomicBoolean inTransaction = new AtomicBoolean();
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            inTransaction.set(true);
+            try {
+                return invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null);
+            } finally {
+                inTransaction.set(false);
+            }
+        });
+        ImageStorage remoteStorage = mock(ImageStorage.class);
+        doAnswer(invocation -> {
+            assertThat(inTransaction).isFalse();
+            return null;
+        }).when(remoteStorage).put(anyString(), any(Path.class), anyString());
+        when(remoteStorage.exists(anyString())).thenReturn(true);
+        ImageBlobService service = new ImageBlobService(imageBlobRepository, mock(ImageDataRepository.class),
+                imageDerivativeService, remoteStorage, entityManager, transactionTemplate, meterRegistry);
+
+        service.store(new ByteArrayInputStream(CONTENT), "image/png");
+
+        InOrder order = inOrder(imageBlobRepository, remoteStorage, entityManager);
+        order.verify(imageBlobRepository).lockHash(anyString());
+        order.verify(remoteStorage).put(anyString(), any(Path.class), anyString());
+        order.verify(imageBlobRepository).lockHash(anyString());
+        order.verify(entityManager).persist(any(ImageBlob.class));
+    }
+
+    @Test
+    void uploadIsDeletedWhenTheSameContentWasStoredMeanwhileUnderAnotherKey() throws Exception {
+        String hash = sha256(CONTENT);
+        ImageBlob winner = blob(hash);
+        when(imageBlobRepository.addReference(hash)).thenReturn(0, 1);
+        when(imageBlobRepository.findById(hash)).thenReturn(Optional.of(winner));
+
+        ImageBlob blob = imageBlobService.store(new ByteArrayInputStream(CONTENT), "image/jpeg");
+
+        assertThat(blob).isSameAs(winner);
+        assertThat(imageStorage.exists(ImageStorage.keyOf(hash, ".jpg"))).isFalse();
+        verify(entityManager, never()).persist(any());
+        assertThat(meterRegistry.counter("images.blobs.stored", "outcome", "duplicate").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void storeFailsWhenItsFileWasDeletedMeanwhile() throws Exception {
+        ImageStorage remoteStorage = mock(ImageStorage.class);
+        when(remoteStorage.exists(anyString())).thenReturn(false);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        ImageBlobService service = new ImageBlobService(imageBlobRepository, mock(ImageDataRepository.class),
+                imageDerivativeService, remoteStorage, entityManager, transactionTemplate, meterRegistry);
+
+        assertThatThrownBy(() -> service.store(new ByteArrayInputStream(CONTENT), "image/png"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("was deleted while being stored");
+        verify(entityManager, never()).persist(any());
+    }
+
+    private byte[] read(String key) throws IOException {
+        try (var in = imageStorage.open(key)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static ImageBlob blob(String hash) {
+        ImageBlob blob = new ImageBlob();
+        blob.setContentHash(hash);
+        blob.setStoragePath(ImageStorage.keyOf(hash, ".png"));
+        blob.setSize((long) CONTENT.length);
+        blob.setMimeType("image/png");
+        blob.setRefCount(1);
+        return blob;
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+}
@@ -0,0 +1,126 @@
+package ru.itmo.kursach_back.service.ai;
+
+import org.junit.jupiter.api.Test;
+import ru.itmo.kursach_back.service.ai.ProviderCircuitBreaker.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProviderCircuitBreakerTest {
+
+    private final List<String> transitions = new ArrayList<>();
+
+    @Test
+    void staysClosedUntilTheMinimumNumberOfCalls() {
+        ProviderCircuitBreaker breaker = breaker(60_000, 1);
+
+        breaker.onFailure();
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+    }
+
+    @Test
+    void opensAtTheFailureRateThresholdAndRejectsCalls() {
+        ProviderCircuitBreaker breaker = breaker(60_000, 1);
+
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+        assertThat(transitions).containsExactly("CLOSED->OPEN");
+    }
+
+    @Test
+    void oldOutcomesLeaveTheWindow() {
+        ProviderCircuitBreaker breaker = breaker(60_000, 1);
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onSuccess();
+        assertThat(breaker.getFailureRate()).isEqualTo(25.0);
+
+        // The window holds the last four calls: these push out the first success, then the failure
+        breaker.onSuccess();
+        assertThat(breaker.getFailureRate()).isEqualTo(25.0);
+        breaker.onSuccess();
+
+        assertThat(breaker.getFailureRate()).isZero();
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    }
+
+    @Test
+    void letsTrialCallsThroughOnceTheOpenPeriodIsOver() {
+        ProviderCircuitBreaker breaker = breaker(0, 2);
+        open(breaker);
+
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    void closesWhenAllTrialCallsSucceed() {
+        ProviderCircuitBreaker breaker = breaker(0, 2);
+        open(breaker);
+        breaker.tryAcquirePermission();
+        breaker.tryAcquirePermission();
+
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        breaker.onSuccess();
+
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.getFailureRate()).isZero();
+        assertThat(transitions).containsExactly("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED");
+    }
+
+    @Test
+    void reopensWhenATrialCallFails() {
+        ProviderCircuitBreaker breaker = breaker(0, 1);
+        open(breaker);
+        breaker.tryAcquirePermission();
+
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(transitions).containsExactly("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN");
+    }
+
+    @Test
+    void releasedTrialPermissionCanBeTakenAgain() {
+        ProviderCircuitBreaker breaker = breaker(0, 1);
+        open(breaker);
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+
+        // e.g. the caller was cancelled: says nothing about the provider
+        breaker.releasePermission();
+
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+    }
+
+    /**
+     * Window of four calls, opening at 50% failures once three calls were recorded
+     */
+    private ProviderCircuitBreaker breaker(long openDurationMs, int halfOpenCalls) {
+        return new ProviderCircuitBreaker("test", 4, 3, 50.0, openDurationMs, halfOpenCalls,
+                (from, to) -> transitions.add(from + "->" + to));
+    }
+
+    private static void open(ProviderCircuitBreaker breaker) {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+}
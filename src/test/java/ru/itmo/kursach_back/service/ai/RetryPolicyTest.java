@@ -0,0 +1,121 @@
+package ru.itmo.kursach_back.service.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(3, 100, 1_000, 60_000);
+
+    @Test
+    void retriesTransientFailuresOnly() {
+        assertThat(policy.isRetryable(failure(AIGenerationException.ErrorType.RATE_LIMIT_EXCEEDED))).isTrue();
+        assertThat(policy.isRetryable(failure(AIGenerationException.ErrorType.SERVICE_UNAVAILABLE))).isTrue();
+        assertThat(policy.isRetryable(new IOException("Connection reset"))).isTrue();
+
+        assertThat(policy.isRetryable(failure(AIGenerationException.ErrorType.CONTENT_POLICY_VIOLATION))).isFalse();
+        assertThat(policy.isRetryable(failure(AIGenerationException.ErrorType.PROVIDER_OVERLOADED))).isFalse();
+        assertThat(policy.isRetryable(failure(AIGenerationException.ErrorType.DEADLINE_EXCEEDED))).isFalse();
+        assertThat(policy.isRetryable(new IllegalArgumentException("Unknown size"))).isFalse();
+    }
+
+    @Test
+    void backoffStaysWithinTheJitterBounds() {
+        RetryPolicy.Deadline deadline = policy.newDeadline();
+        long previous = 0;
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.nextDelayMs(1, previous, failure(AIGenerationException.ErrorType.NETWORK_ERROR), deadline);
+
+            assertThat(delay).isBetween(100L, Math.min(1_000L, Math.max(100L, previous) * 3));
+            previous = delay;
+        }
+    }
+
+    @Test
+    void givesUpAfterTheLastAttempt() {
+        long delay = policy.nextDelayMs(3, 100, failure(AIGenerationException.ErrorType.NETWORK_ERROR),
+                policy.newDeadline());
+
+        assertThat(delay).isEqualTo(-1);
+    }
+
+    @Test
+    void givesUpOnPermanentFailures() {
+        long delay = policy.nextDelayMs(1, 0, failure(AIGenerationException.ErrorType.API_KEY_INVALID),
+                policy.newDeadline());
+
+        assertThat(delay).isEqualTo(-1);
+    }
+
+    @Test
+    void waitsAtLeastTheProvidersRetryAfter() {
+        AIGenerationException throttled = failure(AIGenerationException.ErrorType.RATE_LIMIT_EXCEEDED)
+                .withRetryAfter(Duration.ofSeconds(5));
+
+        long delay = policy.nextDelayMs(1, 0, throttled, policy.newDeadline());
+
+        assertThat(delay).isEqualTo(5_000);
+    }
+
+    @Test
+    void givesUpWhenTheWaitWouldOutlastTheDeadline() {
+        AIGenerationException throttled = failure(AIGenerationException.ErrorType.RATE_LIMIT_EXCEEDED)
+                .withRetryAfter(Duration.ofSeconds(30));
+        RetryPolicy.Deadline deadline = new RetryPolicy.Deadline(System.nanoTime() + Duration.ofSeconds(10).toNanos());
+
+        assertThat(policy.nextDelayMs(1, 0, throttled, deadline)).isEqualTo(-1);
+    }
+
+    @Test
+    void expiredDeadlineAllowsNoRetry() {
+        RetryPolicy.Deadline deadline = new RetryPolicy.Deadline(System.nanoTime() - 1);
+
+        assertThat(deadline.isExpired()).isTrue();
+        assertThat(deadline.remainingMs()).isZero();
+        assertThat(policy.nextDelayMs(1, 0, failure(AIGenerationException.ErrorType.NETWORK_ERROR), deadline))
+                .isEqualTo(-1);
+    }
+
+    @Test
+    void usesTheDeadlineAttachedToTheCall() {
+        long expiresAt = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+
+        assertThat(policy.deadlineOf(Map.<String, Object>of(RetryPolicy.DEADLINE_PARAM, expiresAt)).expiresAtNanos())
+                .isEqualTo(expiresAt);
+        assertThat(policy.deadlineOf(Map.of()).remainingMs()).isGreaterThan(50_000);
+    }
+
+    @Test
+    void parsesRetryAfterSecondsAndDates() {
+        assertThat(RetryPolicy.parseRetryAfter("7")).isEqualTo(Duration.ofSeconds(7));
+        assertThat(RetryPolicy.parseRetryAfter(" -3 ")).isEqualTo(Duration.ZERO);
+        assertThat(RetryPolicy.parseRetryAfter("soon")).isNull();
+        assertThat(RetryPolicy.parseRetryAfter(null)).isNull();
+
+        String inAMinute = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(1));
+        assertThat(RetryPolicy.parseRetryAfter(inAMinute)).isBetween(Duration.ofSeconds(55), Duration.ofSeconds(60));
+        String past = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(1));
+        assertThat(RetryPolicy.parseRetryAfter(past)).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    void classifiesStatusesWithoutAnErrorBody() {
+        assertThat(RetryPolicy.classifyStatus(429)).isEqualTo(AIGenerationException.ErrorType.RATE_LIMIT_EXCEEDED);
+        assertThat(RetryPolicy.classifyStatus(503)).isEqualTo(AIGenerationException.ErrorType.SERVICE_UNAVAILABLE);
+        assertThat(RetryPolicy.classifyStatus(401)).isEqualTo(AIGenerationException.ErrorType.API_KEY_INVALID);
+        assertThat(RetryPolicy.classifyStatus(422)).isEqualTo(AIGenerationException.ErrorType.INVALID_PARAMETERS);
+        assertThat(RetryPolicy.classifyStatus(500)).isEqualTo(AIGenerationException.ErrorType.UNKNOWN_ERROR);
+    }
+
+    private static AIGenerationException failure(AIGenerationException.ErrorType errorType) {
+        return new AIGenerationException("Provider call failed", "test", errorType);
+    }
+}
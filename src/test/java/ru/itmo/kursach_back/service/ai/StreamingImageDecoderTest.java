@@ -0,0 +1,50 @@
+package ru.itmo.kursach_back.service.ai;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StreamingImageDecoderTest {
+
+    private static final byte[] IMAGE = "not really a png".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void decodesEveryMatchingImageAndTopLevelFields() {
+        String base64 = Base64.getEncoder().encodeToString(IMAGE);
+        String json = "{\"success\":true,\"artifacts\":["
+                + "{\"base64\":\"" + base64 + "\"},{\"base64\":\"" + base64 + "\"}]}";
+
+        StreamingImageDecoder.DecodedResponse decoded =
+                StreamingImageDecoder.decode(chunks(json, 7), "/artifacts/*/base64").block();
+
+        assertThat(decoded.images()).hasSize(2).allSatisfy(image -> assertThat(image).isEqualTo(IMAGE));
+        assertThat(decoded.fields()).containsEntry("success", "true");
+    }
+
+    @Test
+    void bodyOverTheLimitFailsWhileSpooling() {
+        String json = "{\"imageBase64\":\"" + Base64.getEncoder().encodeToString(IMAGE) + "\"}";
+
+        assertThatThrownBy(() -> StreamingImageDecoder.decode(chunks(json, 4), "/imageBase64", json.length() - 1)
+                .block())
+                .isInstanceOf(DataBufferLimitException.class);
+        assertThat(StreamingImageDecoder.decode(chunks(json, 4), "/imageBase64", json.length()).block().image())
+                .isEqualTo(IMAGE);
+    }
+
+    private static Flux<DataBuffer> chunks(String json, int chunkSize) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return Flux.range(0, (bytes.length + chunkSize - 1) / chunkSize)
+                .map(i -> DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(bytes,
+                        i * chunkSize, Math.min(bytes.length, (i + 1) * chunkSize))));
+    }
+}
@@ -0,0 +1,133 @@
+package ru.itmo.kursach_back.service.storage;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.utility.DockerImageName;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the SigV4 client against a MinIO container; skipped when Docker is not available
+ */
+class S3ImageStorageTest {
+
+    private static final String ACCESS_KEY = "minio-test";
+    private static final String SECRET_KEY = "minio-test-secret";
+    private static final byte[] CONTENT = "not really a png".getBytes(StandardCharsets.UTF_8);
+
+    private static GenericContainer<?> minio;
+    private static S3ImageStorage storage;
+
+    @TempDir
+    Path temp;
+
+    @BeforeAll
+    static void startMinio() throws IOException {
+        assumeTrue(DockerClientFactory.instance().isDockerAvailable(), "Docker is not available");
+        minio = new GenericContainer<>(DockerImageName.parse("minio/minio"))
+                .withCommand("server", "/data")
+                .withEnv("MINIO_ROOT_USER", ACCESS_KEY)
+                .withEnv("MINIO_ROOT_PASSWORD", SECRET_KEY)
+                .withExposedPorts(9000)
+                .waitingFor(Wait.forHttp("/minio/health/ready").forPort(9000));
+        minio.start();
+
+        String endpoint = "http://" + minio.getHost() + ":" + minio.getMappedPort(9000);
+        storage = new S3ImageStorage(endpoint, "us-east-1", "images", ACCESS_KEY, SECRET_KEY, true,
+                Duration.ofSeconds(5), Duration.ofSeconds(30));
+        storage.createBucketIfMissing();
+        // Creating it again is a no-op
+        storage.createBucketIfMissing();
+    }
+
+    @AfterAll
+    static void stopMinio() {
+        if (minio != null) {
+            minio.stop();
+        }
+    }
+
+    @Test
+    void storedFileCanBeReadBack() throws IOException {
+        String key = ImageStorage.keyOf("3fa2e1", ".png");
+
+        storage.put(key, file(), "image/png");
+
+        assertThat(storage.exists(key)).isTrue();
+        assertThat(read(key)).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void uploadedFileIsRemoved() throws IOException {
+        Path file = file();
+
+        storage.put("uploaded.png", file, "image/png");
+
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    void keysAreEncodedForTheSignature() throws IOException {
+        String key = "derivatives/3f a2+e1@64w.webp";
+
+        storage.put(key, file(), null);
+
+        assertThat(read(key)).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void deletedFileIsGone() throws IOException {
+        storage.put("deleted.png", file(), "image/png");
+
+        storage.delete("deleted.png");
+
+        assertThat(storage.exists("deleted.png")).isFalse();
+        assertThatThrownBy(() -> storage.open("deleted.png")).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void missingKeyIsReportedAsMissing() throws IOException {
+        assertThat(storage.exists("missing.png")).isFalse();
+        assertThatThrownBy(() -> storage.open("missing.png"))
+                .isInstanceOf(NoSuchFileException.class)
+                .hasMessage("missing.png");
+        // S3 deletes are idempotent
+        storage.delete("missing.png");
+    }
+
+    @Test
+    void wrongCredentialsFail() {
+        S3ImageStorage unauthorized = new S3ImageStorage(
+                "http://" + minio.getHost() + ":" + minio.getMappedPort(9000), "us-east-1", "images",
+                ACCESS_KEY, "wrong-secret", true, Duration.ofSeconds(5), Duration.ofSeconds(30));
+
+        assertThatThrownBy(() -> unauthorized.exists("missing.png"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("status 403");
+    }
+
+    private Path file() throws IOException {
+        return Files.write(Files.createTempFile(temp, "upload-", ".png"), CONTENT);
+    }
+
+    private static byte[] read(String key) throws IOException {
+        try (InputStream in = storage.open(key)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package ru.itmo.kursach_back.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import ru.itmo.kursach_back.service.StoredImage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageResponsesTest {
+
+    private static final String HASH = "3fa2e1";
+    private static final LocalDateTime CREATED_AT = LocalDateTime.of(2024, 3, 15, 12, 30, 0);
+    private static final StoredImage IMAGE = new StoredImage(1, "3f/a2/3fa2e1.png", "image/png", 10, HASH,
+            true, CREATED_AT, null);
+
+    @TempDir
+    Path dir;
+
+    private Resource file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path path = dir.resolve("image.png");
+        Files.write(path, new byte[10]);
+        file = new FileSystemResource(path);
+    }
+
+    @Test
+    void sendsTheWholeFileWithSendfile() {
+        MockHttpServletRequest request = sendfileRequest();
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(10);
+        assertThat(response.getHeaders().getETag()).isEqualTo("\"" + HASH + "\"");
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(0L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(10L);
+    }
+
+    @Test
+    void sendsASingleRangeWithSendfile() {
+        MockHttpServletRequest request = sendfileRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(206);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(4);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(2L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(6L);
+    }
+
+    @Test
+    void answersAnUnsatisfiableRangeWith416() {
+        MockHttpServletRequest request = sendfileRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=50-60");
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(416);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+    }
+
+    @Test
+    void ignoresAMalformedRangeOnTheSendfilePath() {
+        MockHttpServletRequest request = sendfileRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=five-six");
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(10);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(10L);
+    }
+
+    @Test
+    void ignoresARangeInAnotherUnit() {
+        MockHttpServletRequest request = sendfileRequest();
+        request.addHeader(HttpHeaders.RANGE, "items=0-1");
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+    }
+
+    @Test
+    void streamsAMalformedRangeWhole() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/1/file");
+        request.addHeader(HttpHeaders.RANGE, "bytes=five-six");
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        // Spring would apply the Range header to any other Resource
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(response.getBody()).isExactlyInstanceOf(InputStreamResource.class);
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(10);
+    }
+
+    @Test
+    void leavesValidRangesOfStreamedContentToSpring() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/1/file");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1,4-5");
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(response.getBody()).isSameAs(file);
+    }
+
+    @Test
+    void sendsTheRangeWhenIfRangeMatchesTheEtag() {
+        MockHttpServletRequest request = sendfileRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"" + HASH + "\"");
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(206);
+    }
+
+    @Test
+    void sendsTheWholeFileWhenIfRangeNamesAnotherVersion() {
+        MockHttpServletRequest request = sendfileRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"older\"");
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(10);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(0L);
+    }
+
+    @Test
+    void weakIfRangeNeverMatches() {
+        MockHttpServletRequest request = sendfileRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "W/\"" + HASH + "\"");
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+    }
+
+    @Test
+    void ifRangeDateMustBeTheLastModifiedDate() {
+        MockHttpServletRequest current = sendfileRequest();
+        current.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        current.addHeader(HttpHeaders.IF_RANGE, httpDate(CREATED_AT));
+        MockHttpServletRequest stale = sendfileRequest();
+        stale.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        stale.addHeader(HttpHeaders.IF_RANGE, httpDate(CREATED_AT.minusDays(1)));
+
+        assertThat(ImageResponses.file(IMAGE, current, true, image -> file).getStatusCode().value()).isEqualTo(206);
+        assertThat(ImageResponses.file(IMAGE, stale, true, image -> file).getStatusCode().value()).isEqualTo(200);
+    }
+
+    @Test
+    void streamsTheWholeFileWhenIfRangeNamesAnotherVersion() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/1/file");
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"older\"");
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> file);
+
+        assertThat(response.getBody()).isExactlyInstanceOf(InputStreamResource.class);
+    }
+
+    @Test
+    void matchingIfNoneMatchIsAnsweredWith304WithoutTheFile() {
+        MockHttpServletRequest request = sendfileRequest();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", \"" + HASH + "\"");
+        AtomicInteger reads = new AtomicInteger();
+
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request, true, image -> {
+            reads.incrementAndGet();
+            return file;
+        });
+
+        assertThat(response.getStatusCode().value()).isEqualTo(304);
+        assertThat(response.getHeaders().getETag()).isEqualTo("\"" + HASH + "\"");
+        assertThat(response.getBody()).isNull();
+        assertThat(reads).hasValue(0);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.filename")).isNull();
+    }
+
+    @Test
+    void ifNoneMatchUsesWeakComparison() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/1/file");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "W/\"" + HASH + "\"");
+
+        assertThat(ImageResponses.file(IMAGE, request, true, image -> file).getStatusCode().value()).isEqualTo(304);
+    }
+
+    @Test
+    void changedImageIsSentAgain() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/1/file");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"older\"");
+
+        assertThat(ImageResponses.file(IMAGE, request, true, image -> file).getStatusCode().value()).isEqualTo(200);
+    }
+
+    @Test
+    void ifModifiedSinceIsAnsweredFromTheCreationTime() {
+        MockHttpServletRequest unchanged = new MockHttpServletRequest("GET", "/api/images/1/file");
+        unchanged.addHeader(HttpHeaders.IF_MODIFIED_SINCE, httpDate(CREATED_AT));
+        MockHttpServletRequest stale = new MockHttpServletRequest("GET", "/api/images/1/file");
+        stale.addHeader(HttpHeaders.IF_MODIFIED_SINCE, httpDate(CREATED_AT.minusSeconds(1)));
+
+        assertThat(ImageResponses.file(IMAGE, unchanged, true, image -> file).getStatusCode().value()).isEqualTo(304);
+        assertThat(ImageResponses.file(IMAGE, stale, true, image -> file).getStatusCode().value()).isEqualTo(200);
+    }
+
+    @Test
+    void ifNoneMatchTakesPrecedenceOverIfModifiedSince() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/1/file");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"older\"");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, httpDate(CREATED_AT.plusDays(1)));
+
+        assertThat(ImageResponses.file(IMAGE, request, true, image -> file).getStatusCode().value()).isEqualTo(200);
+    }
+
+    @Test
+    void onlyGetAndHeadAreConditional() {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/images/1/file");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"" + HASH + "\"");
+
+        assertThat(ImageResponses.file(IMAGE, request, true, image -> file).getStatusCode().value()).isEqualTo(200);
+    }
+
+    @Test
+    void cacheControlFollowsImmutabilityAndVisibility() {
+        StoredImage privateImage = new StoredImage(2, "3f/a2/3fa2e1.png", "image/png", 10, HASH, false,
+                CREATED_AT, null);
+
+        String immutablePublic = ImageResponses.file(IMAGE, request(), true, image -> file)
+                .getHeaders().getCacheControl();
+        String revalidatedPrivate = ImageResponses.file(privateImage, request(), false, image -> file)
+                .getHeaders().getCacheControl();
+
+        assertThat(immutablePublic).contains("max-age=31536000", "immutable", "public");
+        assertThat(revalidatedPrivate).contains("no-cache", "private").doesNotContain("public");
+    }
+
+    @Test
+    void legacyImagesGetAnEtagFromTheirIdAndSize() {
+        StoredImage legacy = new StoredImage(5, "uploads/images/5.png", "image/png", 10, null, true, null, null);
+
+        ResponseEntity<?> response = ImageResponses.file(legacy, request(), true, image -> file);
+
+        assertThat(response.getHeaders().getETag()).isEqualTo("\"img-5-10\"");
+        assertThat(response.getHeaders().getLastModified()).isEqualTo(-1);
+    }
+
+    @Test
+    void missingFileIsNotFound() {
+        ResponseEntity<?> response = ImageResponses.file(IMAGE, request(), true, image -> null);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(404);
+    }
+
+    private static MockHttpServletRequest request() {
+        return new MockHttpServletRequest("GET", "/api/images/1/file");
+    }
+
+    private static MockHttpServletRequest sendfileRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/1/file");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        return request;
+    }
+
+    private static String httpDate(LocalDateTime time) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                time.atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneOffset.UTC));
+    }
+}